@@ -0,0 +1,92 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.VirtualMachineMetrics;
+import org.influxdb.InfluxDB;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one poll of the reporter, {@link InfluxDBReporter#run()}, over a registry filled with
+ * Kafka-like metrics, writing to a no-op InfluxDB client. Run with {@code -prof gc} to see the
+ * allocation per poll.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InfluxDBReporterBenchmark {
+
+    /** total number of metrics in the registry */
+    @Param({"10000", "100000", "500000"})
+    public int metrics;
+
+    /** share of gauges, counters, meters, histograms and timers, in percent */
+    @Param({"80,5,10,2,3"})
+    public String mix;
+
+    @Param({"false"})
+    public boolean vmMetrics;
+
+    private MetricsRegistry registry;
+    private InfluxDBReporter reporter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registry = new MetricsRegistry();
+        SyntheticRegistry.fill(registry, metrics, mix);
+        reporter = new FilteredInfluxDBReporter(registry,
+                new InfluxDBBatchWriter(noOpInfluxDB(), "kafka", "autogen", "all"),
+                "hostname:broker-1",
+                EnumSet.allOf(Dimension.class),
+                Clock.defaultClock(),
+                VirtualMachineMetrics.getInstance());
+        reporter.printVMMetrics = vmMetrics;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        reporter.shutdown();
+        registry.shutdown();
+    }
+
+    @Benchmark
+    public void poll() {
+        reporter.run();
+    }
+
+    static InfluxDB noOpInfluxDB() {
+        return (InfluxDB) Proxy.newProxyInstance(InfluxDB.class.getClassLoader(), new Class<?>[]{InfluxDB.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getReturnType() == InfluxDB.class) {
+                    return proxy;
+                }
+                if (method.getReturnType() == boolean.class) {
+                    return false;
+                }
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.jasper.kafka;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runs a task on the wall clock grid of its period, shifted by a phase offset, instead of at a
+ * fixed delay after the previous run, so polls do not drift with their own duration.
+ *
+ * The offset is derived from a key such as the host name, so every broker keeps the same slot
+ * across restarts while brokers started together spread their writes over the period. A run
+ * that overruns one or more ticks is followed by the next tick still ahead: missed ticks are
+ * counted, not run back to back.
+ */
+public class AlignedScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AlignedScheduler.class);
+
+    private final String name;
+    private final String phaseKey;
+
+    private final Object lock = new Object();
+    private volatile Thread thread;
+    private volatile boolean running;
+    private volatile long ticksCoalesced;
+
+    /**
+     * @param name     the name of the scheduler thread
+     * @param phaseKey the key the phase offset is derived from, null for none
+     */
+    public AlignedScheduler(String name, String phaseKey) {
+        this.name = name;
+        this.phaseKey = phaseKey;
+    }
+
+    /**
+     * Returns the phase offset of a key within the period, spread evenly over the period.
+     */
+    static long phaseOffset(String key, long periodMs) {
+        if (key == null || periodMs <= 0) {
+            return 0;
+        }
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return Math.abs(ShardingBatchWriter.hash(bytes, 0, bytes.length) % periodMs);
+    }
+
+    /**
+     * Returns the phase offset of this scheduler for the given period.
+     */
+    public long phaseOffset(long periodMs) {
+        return phaseOffset(phaseKey, periodMs);
+    }
+
+    /**
+     * Returns the first tick strictly after {@code now}.
+     */
+    static long nextTick(long now, long periodMs, long offsetMs) {
+        long tick = Math.floorDiv(now - offsetMs, periodMs) * periodMs + offsetMs;
+        return tick + periodMs;
+    }
+
+    /**
+     * Starts running the task every {@code periodMs} on a daemon thread.
+     */
+    public synchronized void start(final Runnable task, final long periodMs) {
+        if (running) {
+            return;
+        }
+        final long offsetMs = phaseOffset(periodMs);
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop(task, Math.max(1, periodMs), offsetMs);
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        LOG.info("Polling every {} ms at offset {} ms", periodMs, offsetMs);
+    }
+
+    private void loop(Runnable task, long periodMs, long offsetMs) {
+        long next = nextTick(System.currentTimeMillis(), periodMs, offsetMs);
+        while (running) {
+            long wait = next - System.currentTimeMillis();
+            if (wait > periodMs) {
+                // the wall clock went back, do not wait for the old tick
+                next = nextTick(System.currentTimeMillis(), periodMs, offsetMs);
+                continue;
+            }
+            if (wait > 0) {
+                try {
+                    synchronized (lock) {
+                        if (running) {
+                            lock.wait(wait);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                LOG.error("Error running scheduled poll", t);
+            }
+            long following = nextTick(System.currentTimeMillis(), periodMs, offsetMs);
+            long missed = (following - next) / periodMs - 1;
+            if (missed > 0) {
+                LOG.debug("Poll overran {} ticks, skipping them", missed);
+                ticksCoalesced += missed;
+            }
+            next = following;
+        }
+    }
+
+    /**
+     * Number of ticks skipped because a run overran them.
+     */
+    public long ticksCoalesced() {
+        return ticksCoalesced;
+    }
+
+    /**
+     * Stops the scheduler, waiting for a running task to finish.
+     */
+    public synchronized void stop() {
+        synchronized (lock) {
+            // not interrupting the thread, which would close the channels of a running write
+            running = false;
+            lock.notifyAll();
+        }
+        Thread current = thread;
+        if (current != null && current != Thread.currentThread()) {
+            try {
+                current.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+}
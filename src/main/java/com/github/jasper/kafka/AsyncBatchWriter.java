@@ -0,0 +1,193 @@
+package com.github.jasper.kafka;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decouples the polling thread from the write to InfluxDB.
+ *
+ * Batches are copied into pooled buffers and handed to a bounded queue, from which one or more
+ * sender threads write them to the delegate. The polling thread never waits on the network: when
+ * the queue is full, the overflow policy decides which batch is lost. The points of a batch the
+ * delegate failed to write are counted as dropped too, and the failed batches are counted so the
+ * reporter can write the series of the lost batches again.
+ */
+public class AsyncBatchWriter implements BatchWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncBatchWriter.class);
+
+    private static final long CLOSE_TIMEOUT_MS = 5000;
+
+    /**
+     * What to do with a new batch when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** discard the new batch */
+        drop,
+        /** discard the oldest queued batch to make room for the new one */
+        overwrite
+    }
+
+    private final BatchWriter delegate;
+    private final OverflowPolicy policy;
+    private final ArrayBlockingQueue<Batch> pending;
+    private final ArrayBlockingQueue<Batch> free;
+    private final Thread[] senders;
+
+    private final AtomicLong droppedBatches = new AtomicLong();
+    private final AtomicLong droppedPoints = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    /**
+     * @param delegate  the writer used by the sender threads
+     * @param threads   number of sender threads, i.e. batches in flight at the same time
+     * @param queueSize number of batches waiting for a sender before the policy applies
+     * @param policy    what to do with a new batch when the queue is full
+     */
+    public AsyncBatchWriter(BatchWriter delegate, int threads, int queueSize, OverflowPolicy policy) {
+        if (threads < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("threads and queueSize must be positive");
+        }
+        this.delegate = delegate;
+        this.policy = policy;
+        this.pending = new ArrayBlockingQueue<Batch>(queueSize);
+        this.free = new ArrayBlockingQueue<Batch>(queueSize + threads);
+        for (int i = 0; i < queueSize + threads; i++) {
+            free.add(new Batch());
+        }
+        this.senders = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            senders[i] = new Thread(new Sender(), "influx-sender-" + i);
+            senders[i].setDaemon(true);
+            senders[i].start();
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length, int points) {
+        if (!running) {
+            drop(points);
+            return;
+        }
+        Batch batch = free.poll();
+        if (batch == null && policy == OverflowPolicy.overwrite) {
+            batch = pending.poll();
+            if (batch != null) {
+                drop(batch.points);
+            }
+        }
+        if (batch == null) {
+            drop(points);
+            return;
+        }
+        batch.copy(buffer, offset, length, points);
+        while (!pending.offer(batch)) {
+            // the queue is full while the senders hold no buffer, e.g. between two of their polls
+            Batch oldest = policy == OverflowPolicy.overwrite ? pending.poll() : null;
+            if (oldest == null) {
+                drop(points);
+                free.offer(batch);
+                return;
+            }
+            drop(oldest.points);
+            free.offer(oldest);
+        }
+    }
+
+    private void drop(int points) {
+        droppedBatches.incrementAndGet();
+        droppedPoints.addAndGet(points);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MS;
+        for (Thread sender : senders) {
+            try {
+                sender.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Thread sender : senders) {
+            sender.interrupt();
+        }
+        delegate.close();
+    }
+
+    /**
+     * Number of batches waiting for a sender thread.
+     */
+    public int queueDepth() {
+        return pending.size();
+    }
+
+    public long droppedBatches() {
+        return droppedBatches.get();
+    }
+
+    public long droppedPoints() {
+        return droppedPoints.get();
+    }
+
+    /**
+     * Number of batches the delegate failed to write, their points being counted as dropped.
+     */
+    public long failedBatches() {
+        return failedBatches.get();
+    }
+
+    private final class Sender implements Runnable {
+
+        @Override
+        public void run() {
+            while (running || !pending.isEmpty()) {
+                Batch batch;
+                try {
+                    batch = pending.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (batch == null) {
+                    continue;
+                }
+                try {
+                    delegate.write(batch.data, 0, batch.length, batch.points);
+                } catch (RejectedBatchException e) {
+                    drop(batch.points);
+                    LOG.warn("Dropping a batch of {} points: {}", batch.points, e.getMessage());
+                } catch (Exception e) {
+                    failedBatches.incrementAndGet();
+                    droppedPoints.addAndGet(batch.points);
+                    LOG.error("Cannot send metrics to InfluxDB {}", e);
+                } finally {
+                    free.offer(batch);
+                }
+            }
+        }
+    }
+
+    private static final class Batch {
+
+        private byte[] data = new byte[0];
+        private int length;
+        private int points;
+
+        void copy(byte[] buffer, int offset, int length, int points) {
+            if (data.length < length) {
+                data = new byte[Math.max(length, data.length * 2)];
+            }
+            System.arraycopy(buffer, offset, data, 0, length);
+            this.length = length;
+            this.points = points;
+        }
+    }
+}
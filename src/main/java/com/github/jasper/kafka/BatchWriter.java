@@ -0,0 +1,41 @@
+package com.github.jasper.kafka;
+
+/**
+ * Destination of encoded line protocol batches.
+ *
+ * Implementations must not keep a reference to the buffer once {@link #write} returns, the
+ * caller reuses it for the next batch.
+ */
+public interface BatchWriter {
+
+    /**
+     * Writes one batch of newline separated points.
+     *
+     * @param buffer the encoded line protocol
+     * @param offset start of the batch in {@code buffer}
+     * @param length number of bytes in the batch
+     * @param points number of points in the batch
+     * @throws Exception if the batch could not be written
+     */
+    void write(byte[] buffer, int offset, int length, int points) throws Exception;
+
+    /**
+     * Starts a poll. Called by the polling thread before the first batch of each poll.
+     */
+    default void beginPoll() {
+    }
+
+    /**
+     * Whether points of the current poll were lost although every write returned, e.g. by a
+     * sink that handles its failures itself.
+     */
+    default boolean failedThisPoll() {
+        return false;
+    }
+
+    /**
+     * Releases the resources of this writer. Batches still in flight are flushed on a best
+     * effort basis.
+     */
+    void close();
+}
@@ -0,0 +1,338 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistryListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Caps the number of series written per measurement, so a client creating thousands of
+ * short-lived client-id scoped metrics cannot blow up the series count of InfluxDB.
+ *
+ * The first {@code limit} series of a measurement are written as usual. Further series are folded
+ * into the {@code other} bucket, written to the measurement suffixed with {@code .other}, tagged
+ * {@code bucket=other}, one series per {@code metric_type} with the number of folded series and
+ * the sum of their main values. Every {@code rerankPolls} polls the series of a
+ * measurement over its limit are ranked by activity, a decayed count of the polls in which their
+ * value changed, and the top {@code limit} are written from then on. With {@link PollingTiers}
+ * the rerank period is counted in polls of the default tier.
+ *
+ * Series are tracked by {@link MetricName}, so a metric registered again keeps its place. At
+ * most {@code 4 * limit} series are tracked per measurement, series beyond that are folded
+ * without being tracked until tracked ones go away. The series of a metric removed from the
+ * registry is forgotten at the next poll, a series not seen for two rerank periods, or two polls
+ * of its {@link PollingTiers tier} when that is longer, at the next rerank. Only used from the
+ * polling thread, except for the registry callbacks.
+ */
+public class CardinalityLimiter implements MetricsRegistryListener {
+
+    static final String MEASUREMENT_SUFFIX = ".other";
+
+    private static final int TRACKED_PER_LIMIT = 4;
+
+    private static final Comparator<Series> BY_ACTIVITY = new Comparator<Series>() {
+        @Override
+        public int compare(Series a, Series b) {
+            int order = Double.compare(b.activity, a.activity);
+            // on a tie keep the series already written, so they do not flap
+            return order != 0 ? order : Boolean.compare(b.admitted, a.admitted);
+        }
+    };
+
+    private final int limit;
+    private final int rerankPolls;
+    private final Map<String, String> globalTags;
+
+    private final Map<MetricName, Series> series = new HashMap<MetricName, Series>();
+    private final ConcurrentLinkedQueue<MetricName> removed = new ConcurrentLinkedQueue<MetricName>();
+    private final Map<String, Measurement> measurementsByName = new HashMap<String, Measurement>();
+    private final List<Measurement> measurements = new ArrayList<Measurement>();
+
+    private PollingTiers pollingTiers;
+
+    private int poll;
+    private long interventions;
+
+    /**
+     * @param limit       number of series written per measurement
+     * @param rerankPolls the series written are chosen again every this many polls
+     * @param globalTags  custom tags added to every series
+     */
+    public CardinalityLimiter(int limit, int rerankPolls, Map<String, String> globalTags) {
+        this.limit = Math.max(1, limit);
+        this.rerankPolls = Math.max(1, rerankPolls);
+        this.globalTags = globalTags;
+    }
+
+    /**
+     * Counts the rerank period in polls of the default tier, and keeps the series of slow tiers
+     * until they missed two polls of their own tier.
+     */
+    public void setPollingTiers(PollingTiers pollingTiers) {
+        this.pollingTiers = pollingTiers;
+    }
+
+    /**
+     * Starts a new poll, forgetting the series of removed metrics and ranking the series again
+     * once per rerank period.
+     */
+    public void beginPoll() {
+        for (int i = 0; i < measurements.size(); i++) {
+            measurements.get(i).resetFolded();
+        }
+        MetricName name;
+        while ((name = removed.poll()) != null) {
+            Series entry = series.remove(name);
+            if (entry != null) {
+                entry.measurement.remove(entry);
+            }
+        }
+        poll++;
+        if (poll % rerankTicks() == 0) {
+            rerank();
+        }
+    }
+
+    /**
+     * Tells whether a series can be written, folding its value into the {@code other} bucket of
+     * its measurement if it cannot.
+     *
+     * @param name  the metric of the series
+     * @param key   the series
+     * @param value the main value of the series, used for the activity and the folded sum
+     * @return true if the series has to be written
+     */
+    public boolean admit(MetricName name, SeriesKey key, double value) {
+        Series entry = series.get(name);
+        Measurement measurement;
+        if (entry == null) {
+            measurement = measurement(key.getMeasurement());
+            Bucket bucket = measurement.bucket(key.getTags().get("metric_type"));
+            if (measurement.series.size() >= limit * TRACKED_PER_LIMIT) {
+                interventions++;
+                bucket.fold(value);
+                return false;
+            }
+            entry = new Series(name, measurement, bucket, forgetPolls(name));
+            entry.admitted = measurement.admitted < limit;
+            if (entry.admitted) {
+                measurement.admitted++;
+            } else {
+                interventions++;
+            }
+            measurement.series.add(entry);
+            series.put(name, entry);
+        } else {
+            measurement = entry.measurement;
+        }
+        entry.lastSeen = poll;
+        long bits = Double.doubleToLongBits(value);
+        if (bits != entry.lastBits) {
+            entry.lastBits = bits;
+            entry.activity++;
+        }
+        if (!entry.admitted) {
+            entry.bucket.fold(value);
+        }
+        return entry.admitted;
+    }
+
+    private int rerankTicks() {
+        return pollingTiers == null
+                ? rerankPolls : (int) (rerankPolls * pollingTiers.ticksPerPoll(pollingTiers.defaultTier()));
+    }
+
+    // how long a series may go unseen, in ticks of the reporter
+    private int forgetPolls(MetricName name) {
+        int polls = 2 * rerankTicks();
+        if (pollingTiers != null) {
+            polls = (int) Math.max(polls, 2 * pollingTiers.ticksPerPoll(pollingTiers.tierOf(name)));
+        }
+        return polls;
+    }
+
+    private Measurement measurement(String name) {
+        Measurement measurement = measurementsByName.get(name);
+        if (measurement == null) {
+            measurement = new Measurement(name);
+            measurementsByName.put(name, measurement);
+            measurements.add(measurement);
+        }
+        return measurement;
+    }
+
+    private void rerank() {
+        for (int m = measurements.size() - 1; m >= 0; m--) {
+            Measurement measurement = measurements.get(m);
+            List<Series> tracked = measurement.series;
+            for (int i = tracked.size() - 1; i >= 0; i--) {
+                Series entry = tracked.get(i);
+                if (entry.lastSeen - (poll - entry.forgetPolls) < 0) {
+                    series.remove(entry.name);
+                    tracked.set(i, tracked.get(tracked.size() - 1));
+                    tracked.remove(tracked.size() - 1);
+                }
+            }
+            if (tracked.isEmpty()) {
+                measurementsByName.remove(measurement.name);
+                measurements.set(m, measurements.get(measurements.size() - 1));
+                measurements.remove(measurements.size() - 1);
+                continue;
+            }
+            if (tracked.size() > limit) {
+                Collections.sort(tracked, BY_ACTIVITY);
+            }
+            measurement.admitted = 0;
+            for (int i = 0; i < tracked.size(); i++) {
+                Series entry = tracked.get(i);
+                boolean admitted = i < limit;
+                if (entry.admitted && !admitted) {
+                    interventions++;
+                }
+                entry.admitted = admitted;
+                if (admitted) {
+                    measurement.admitted++;
+                }
+                entry.activity /= 2;
+            }
+        }
+    }
+
+    /**
+     * Number of measurements, their {@code other} buckets are encoded with
+     * {@link #encode(int, LineProtocolEncoder, long)}.
+     */
+    public int size() {
+        return measurements.size();
+    }
+
+    /**
+     * Writes the {@code other} buckets of a measurement that series were folded into during this
+     * poll, and resets them.
+     */
+    public void encode(int index, LineProtocolEncoder encoder, long time) {
+        List<Bucket> buckets = measurements.get(index).buckets;
+        for (int i = 0; i < buckets.size(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket.folded == 0) {
+                continue;
+            }
+            encoder.beginPoint(bucket.key);
+            encoder.addField("series", (long) bucket.folded);
+            encoder.addField("sum", bucket.foldedSum);
+            encoder.endPoint(time);
+            bucket.resetFolded();
+        }
+    }
+
+    /**
+     * Number of times a series was kept from being written: when first seen over the limit, when
+     * it lost its place at a rerank, or on every poll while it is not tracked.
+     */
+    public long interventions() {
+        return interventions;
+    }
+
+    @Override
+    public void onMetricAdded(MetricName name, Metric metric) {
+    }
+
+    @Override
+    public void onMetricRemoved(MetricName name) {
+        removed.add(name);
+    }
+
+    private final class Measurement {
+
+        private final String name;
+        private final List<Series> series = new ArrayList<Series>();
+        // one per metric type, so gauge values and counts are not summed together
+        private final List<Bucket> buckets = new ArrayList<Bucket>(1);
+        private int admitted;
+
+        Measurement(String name) {
+            this.name = name;
+        }
+
+        Bucket bucket(String metricType) {
+            for (int i = 0; i < buckets.size(); i++) {
+                Bucket bucket = buckets.get(i);
+                if (metricType == null ? bucket.metricType == null : metricType.equals(bucket.metricType)) {
+                    return bucket;
+                }
+            }
+            Map<String, String> tags = new HashMap<String, String>();
+            tags.put("bucket", "other");
+            tags.put("metric_type", metricType);
+            Bucket bucket = new Bucket(metricType, SeriesKey.of(name + MEASUREMENT_SUFFIX, globalTags, tags));
+            buckets.add(bucket);
+            return bucket;
+        }
+
+        void resetFolded() {
+            for (int i = 0; i < buckets.size(); i++) {
+                buckets.get(i).resetFolded();
+            }
+        }
+
+        void remove(Series entry) {
+            int i = series.indexOf(entry);
+            series.set(i, series.get(series.size() - 1));
+            series.remove(series.size() - 1);
+            if (entry.admitted) {
+                admitted--;
+            }
+        }
+    }
+
+    private static final class Bucket {
+
+        private final String metricType;
+        private final SeriesKey key;
+        private int folded;
+        private double foldedSum;
+
+        Bucket(String metricType, SeriesKey key) {
+            this.metricType = metricType;
+            this.key = key;
+        }
+
+        void fold(double value) {
+            folded++;
+            if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+                foldedSum += value;
+            }
+        }
+
+        void resetFolded() {
+            folded = 0;
+            foldedSum = 0;
+        }
+    }
+
+    private static final class Series {
+
+        private final MetricName name;
+        private final Measurement measurement;
+        private final Bucket bucket;
+        private final int forgetPolls;
+        private boolean admitted;
+        private long lastBits;
+        private double activity;
+        private int lastSeen;
+
+        Series(MetricName name, Measurement measurement, Bucket bucket, int forgetPolls) {
+            this.name = name;
+            this.measurement = measurement;
+            this.bucket = bucket;
+            this.forgetPolls = forgetPolls;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.github.jasper.kafka;
+
+/**
+ * Skips series whose value did not change since it was last written, forcing a heartbeat write
+ * every {@code heartbeatPolls} polls so idle series keep showing up in InfluxDB. The heartbeat
+ * counts the polls in which the series was checked, so with {@link PollingTiers} it is counted
+ * in polls of the tier of the series, not in ticks of the reporter.
+ *
+ * The last value of every series is kept in an open addressing map from {@link SeriesKey#getId()}
+ * to the raw bits of the value, with linear probing and backward shift deletion, so checking a
+ * number allocates nothing; other values, such as strings, are kept as is and compared with
+ * {@code equals}. Series not seen for a few heartbeats of the slowest tier, typically removed
+ * metrics, are swept out once per such heartbeat period.
+ *
+ * A value counts as written as soon as it is checked. When the poll could not be sent,
+ * {@link #pollFailed()} makes every series written during it due again on the next poll, so an
+ * unchanged value lost with the poll is not held back until its heartbeat; {@link #sendFailed()}
+ * does the same for the previous poll too, for batches found lost after the poll handed them off.
+ * Only used from the polling thread.
+ */
+public class ChangeSuppressor {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final int heartbeatPolls;
+
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private long[] values = new long[INITIAL_CAPACITY];
+    private Object[] objects = new Object[INITIAL_CAPACITY];
+    private int[] lastWritten = new int[INITIAL_CAPACITY];
+    private int[] lastSeen = new int[INITIAL_CAPACITY];
+    // polls the series was checked in since it was last written
+    private int[] unchanged = new int[INITIAL_CAPACITY];
+    private int size;
+
+    private PollingTiers pollingTiers;
+
+    private int poll;
+    private long suppressed;
+
+    /**
+     * @param heartbeatPolls an unchanged series is still written once every this many polls
+     */
+    public ChangeSuppressor(int heartbeatPolls) {
+        this.heartbeatPolls = Math.max(1, heartbeatPolls);
+    }
+
+    /**
+     * Keeps the series of slow tiers until they missed a few of their own heartbeats.
+     */
+    public void setPollingTiers(PollingTiers pollingTiers) {
+        this.pollingTiers = pollingTiers;
+    }
+
+    /**
+     * Starts a new poll, sweeping out stale series once per heartbeat period of the slowest tier.
+     */
+    public void beginPoll() {
+        poll++;
+        int sweepPolls = pollingTiers == null
+                ? heartbeatPolls : (int) (heartbeatPolls * pollingTiers.slowestTicksPerPoll());
+        if (poll % sweepPolls == 0) {
+            sweep(poll - 3 * sweepPolls);
+        }
+    }
+
+    /**
+     * Makes every series written during the current poll due again on the next poll, because
+     * the poll could not be sent.
+     */
+    public void pollFailed() {
+        for (int slot = 0; slot < ids.length; slot++) {
+            if (ids[slot] != 0 && lastWritten[slot] == poll) {
+                unchanged[slot] = heartbeatPolls;
+            }
+        }
+    }
+
+    /**
+     * Makes every series written during the current or the previous poll due again on the next
+     * poll, because a batch handed off by one of them could not be sent.
+     */
+    public void sendFailed() {
+        for (int slot = 0; slot < ids.length; slot++) {
+            if (ids[slot] != 0 && lastWritten[slot] >= poll - 1) {
+                unchanged[slot] = heartbeatPolls;
+            }
+        }
+    }
+
+    /**
+     * Records the value of a series and tells whether it has to be written.
+     *
+     * @param key       the series
+     * @param valueBits the value, as raw long bits
+     * @return true if the value changed or the heartbeat is due
+     */
+    public boolean shouldWrite(SeriesKey key, long valueBits) {
+        return shouldWrite(key, valueBits, null);
+    }
+
+    public boolean shouldWrite(SeriesKey key, double value) {
+        return shouldWrite(key, Double.doubleToLongBits(value), null);
+    }
+
+    /**
+     * Records a value that is not a number, compared with {@code equals}.
+     */
+    public boolean shouldWrite(SeriesKey key, Object value) {
+        return shouldWrite(key, 0, value);
+    }
+
+    private boolean shouldWrite(SeriesKey key, long valueBits, Object value) {
+        long id = key.getId();
+        int mask = ids.length - 1;
+        int slot = mix(id) & mask;
+        while (ids[slot] != 0) {
+            if (ids[slot] == id) {
+                int polls = lastSeen[slot] == poll ? unchanged[slot] : unchanged[slot] + 1;
+                lastSeen[slot] = poll;
+                if (values[slot] == valueBits && (value == null ? objects[slot] == null : value.equals(objects[slot]))
+                        && polls < heartbeatPolls) {
+                    unchanged[slot] = polls;
+                    suppressed++;
+                    return false;
+                }
+                values[slot] = valueBits;
+                objects[slot] = value;
+                lastWritten[slot] = poll;
+                unchanged[slot] = 0;
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        ids[slot] = id;
+        values[slot] = valueBits;
+        objects[slot] = value;
+        lastWritten[slot] = poll;
+        lastSeen[slot] = poll;
+        unchanged[slot] = 0;
+        if (++size > ids.length * LOAD_FACTOR) {
+            resize(ids.length * 2);
+        }
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of writes skipped since this suppressor was created.
+     */
+    public long suppressed() {
+        return suppressed;
+    }
+
+    private void sweep(int seenBefore) {
+        int slot = 0;
+        while (slot < ids.length) {
+            if (ids[slot] != 0 && lastSeen[slot] - seenBefore < 0) {
+                // the shift may move a not yet visited entry into this slot, check it again
+                delete(slot);
+            } else {
+                slot++;
+            }
+        }
+    }
+
+    private void delete(int slot) {
+        int mask = ids.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (ids[next] != 0) {
+            int home = mix(ids[next]) & mask;
+            // move the entry back if the hole lies between its home slot and its current slot
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                ids[hole] = ids[next];
+                values[hole] = values[next];
+                objects[hole] = objects[next];
+                lastWritten[hole] = lastWritten[next];
+                lastSeen[hole] = lastSeen[next];
+                unchanged[hole] = unchanged[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        ids[hole] = 0;
+        objects[hole] = null;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldIds = ids;
+        long[] oldValues = values;
+        Object[] oldObjects = objects;
+        int[] oldWritten = lastWritten;
+        int[] oldSeen = lastSeen;
+        int[] oldUnchanged = unchanged;
+        ids = new long[capacity];
+        values = new long[capacity];
+        objects = new Object[capacity];
+        lastWritten = new int[capacity];
+        lastSeen = new int[capacity];
+        unchanged = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] != 0) {
+                int slot = mix(oldIds[i]) & mask;
+                while (ids[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                ids[slot] = oldIds[i];
+                values[slot] = oldValues[i];
+                objects[slot] = oldObjects[i];
+                lastWritten[slot] = oldWritten[i];
+                lastSeen[slot] = oldSeen[i];
+                unchanged[slot] = oldUnchanged[i];
+            }
+        }
+    }
+
+    private static int mix(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.jasper.kafka;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An exclusive lock on a directory, held through a {@link FileLock} on a {@code .lock} file in
+ * it, so two reporters, in one JVM or in two, never write the same spool or metrics files.
+ *
+ * The operating system releases the lock when the process dies, so a crash leaves no stale lock
+ * behind.
+ */
+final class DirectoryLock {
+
+    static final String LOCK_FILE = ".lock";
+
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private DirectoryLock(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * Locks a directory.
+     *
+     * @param directory the directory, which must exist
+     * @param usage     what the directory is used for, for the error message
+     * @throws IOException if the directory is locked by another writer or cannot be locked
+     */
+    static DirectoryLock lock(File directory, String usage) throws IOException {
+        FileChannel channel = FileChannel.open(new File(directory, LOCK_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // held by this JVM
+            lock = null;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("The " + usage + " directory " + directory
+                    + " is already used by another reporter, give each reporter its own directory");
+        }
+        return new DirectoryLock(channel, lock);
+    }
+
+    void release() {
+        try {
+            lock.release();
+            channel.close();
+        } catch (IOException e) {
+            // closing the channel releases the lock anyway
+        }
+    }
+}
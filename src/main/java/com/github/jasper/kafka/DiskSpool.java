@@ -0,0 +1,282 @@
+package com.github.jasper.kafka;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * A write-ahead spool of encoded batches, stored in segmented memory-mapped files.
+ *
+ * Every segment is a preallocated file of records {@code [int length][int points][bytes]}; a zero
+ * length marks the end of the written part. The length is written last, so a record torn by a
+ * crash reads as the end of the segment. Fully read segments are deleted. When the spool holds
+ * more than its maximum number of segments the oldest one is dropped, keeping the newest data.
+ *
+ * The read position is not persisted: after a restart a partly replayed segment is replayed from
+ * its start, which InfluxDB absorbs since a point with the same series and timestamp overwrites.
+ * The directory is locked while the spool is open, so a second spool on it fails to open
+ * instead of mixing its segments with those of the first.
+ */
+public class DiskSpool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiskSpool.class);
+
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 8;
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final DirectoryLock lock;
+
+    private final Deque<Long> segments = new ArrayDeque<Long>();
+    private MappedByteBuffer writeSegment;
+    private long writeSequence = -1;
+    private ByteBuffer readSegment;
+    private long readSequence = -1;
+
+    private long pendingBatches;
+    private long droppedBatches;
+
+    /**
+     * Opens the spool in the given directory, picking up the segments left by a previous run.
+     *
+     * @param directory   where the segment files are kept
+     * @param segmentSize size of each segment file in bytes
+     * @param maxBytes    the maximum size of all segments together
+     * @throws IOException if the directory cannot be used or is used by another spool
+     */
+    public DiskSpool(File directory, int segmentSize, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create spool directory " + directory);
+        }
+        this.lock = DirectoryLock.lock(directory, "spool");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(2, maxBytes / segmentSize);
+
+        String[] names = directory.list();
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        segments.addLast(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Ignoring unexpected file {} in spool directory", name);
+                    }
+                }
+            }
+        }
+        if (!segments.isEmpty()) {
+            for (long sequence : segments) {
+                if (sequence != segments.peekLast()) {
+                    pendingBatches += skipRecords(map(sequence));
+                }
+            }
+            writeSequence = segments.peekLast();
+            writeSegment = map(writeSequence);
+            pendingBatches += skipRecords(writeSegment);
+            LOG.info("Found {} spooled batches in {}", pendingBatches, directory);
+        }
+    }
+
+    /**
+     * Appends a batch to the spool.
+     *
+     * @return false if the batch is larger than a segment and cannot be spooled
+     */
+    public synchronized boolean append(byte[] buffer, int offset, int length, int points) throws IOException {
+        if (length <= 0 || length + HEADER_SIZE * 2 > segmentSize) {
+            return false;
+        }
+        if (writeSegment == null || writeSegment.remaining() < length + HEADER_SIZE * 2) {
+            roll();
+        }
+        int position = writeSegment.position();
+        writeSegment.position(position + HEADER_SIZE);
+        writeSegment.put(buffer, offset, length);
+        writeSegment.putInt(position + 4, points);
+        writeSegment.putInt(position, length);
+        pendingBatches++;
+        return true;
+    }
+
+    /**
+     * Copies the oldest spooled batch into {@code target}, growing it if needed, without removing it.
+     *
+     * @return the batch, or null if the spool is empty
+     */
+    public synchronized Record peek(Record target) throws IOException {
+        while (true) {
+            if (readSegment == null) {
+                if (segments.isEmpty()) {
+                    return null;
+                }
+                readSequence = segments.peekFirst();
+                if (readSequence == writeSequence) {
+                    readSegment = writeSegment.duplicate();
+                    readSegment.position(0);
+                } else {
+                    readSegment = map(readSequence);
+                }
+            }
+            int position = readSegment.position();
+            int length = readSegment.remaining() >= HEADER_SIZE ? readSegment.getInt(position) : 0;
+            if (length > 0) {
+                target.ensureCapacity(length);
+                target.points = readSegment.getInt(position + 4);
+                target.length = length;
+                readSegment.position(position + HEADER_SIZE);
+                readSegment.get(target.data, 0, length);
+                readSegment.position(position);
+                return target;
+            }
+            if (readSequence == writeSequence) {
+                return null;
+            }
+            deleteOldest();
+        }
+    }
+
+    /**
+     * Removes the batch returned by the last {@link #peek}.
+     */
+    public synchronized void remove() {
+        if (readSegment == null) {
+            return;
+        }
+        int position = readSegment.position();
+        int length = readSegment.getInt(position);
+        if (length > 0) {
+            readSegment.position(position + HEADER_SIZE + length);
+            pendingBatches--;
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return pendingBatches == 0;
+    }
+
+    /**
+     * Number of batches waiting to be replayed.
+     */
+    public synchronized long size() {
+        return pendingBatches;
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    public synchronized long droppedBatches() {
+        return droppedBatches;
+    }
+
+    /**
+     * Flushes the segment being written and unlocks the directory. The batches stay on disk for
+     * the next spool opened on it.
+     */
+    public synchronized void close() {
+        if (writeSegment != null) {
+            writeSegment.force();
+        }
+        lock.release();
+    }
+
+    private void roll() throws IOException {
+        if (writeSegment != null) {
+            writeSegment.force();
+        }
+        writeSequence = writeSequence < 0 ? System.currentTimeMillis() : writeSequence + 1;
+        writeSegment = map(writeSequence);
+        segments.addLast(writeSequence);
+        while (segments.size() > maxSegments) {
+            int dropped = countRecords(segments.peekFirst());
+            droppedBatches += dropped;
+            pendingBatches -= dropped;
+            LOG.warn("Spool is full, dropping {} batches of the oldest segment", dropped);
+            deleteOldest();
+        }
+    }
+
+    private void deleteOldest() {
+        long sequence = segments.removeFirst();
+        if (readSequence == sequence) {
+            readSegment = null;
+            readSequence = -1;
+        }
+        File file = segmentFile(sequence);
+        if (!file.delete()) {
+            LOG.warn("Cannot delete spool segment {}", file);
+        }
+    }
+
+    private int countRecords(long sequence) throws IOException {
+        return skipRecords(sequence == readSequence ? readSegment.duplicate() : map(sequence));
+    }
+
+    private int skipRecords(ByteBuffer segment) {
+        int records = 0;
+        while (segment.remaining() >= HEADER_SIZE) {
+            int length = segment.getInt(segment.position());
+            if (length <= 0 || length > segment.remaining() - HEADER_SIZE) {
+                break;
+            }
+            segment.position(segment.position() + HEADER_SIZE + length);
+            records++;
+        }
+        return records;
+    }
+
+    private MappedByteBuffer map(long sequence) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(sequence), "rw");
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } finally {
+            file.close();
+        }
+    }
+
+    private File segmentFile(long sequence) {
+        return new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * A batch read back from the spool, reused between reads.
+     */
+    public static final class Record {
+
+        private byte[] data = new byte[0];
+        private int length;
+        private int points;
+
+        void ensureCapacity(int capacity) {
+            if (data.length < capacity) {
+                data = new byte[Math.max(capacity, data.length * 2)];
+            }
+        }
+
+        public byte[] data() {
+            return data;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public int points() {
+            return points;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.github.jasper.kafka;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes each batch to the first available of several InfluxDB endpoints, in the order they
+ * are given, so writes go back to the first endpoint as soon as it recovers.
+ *
+ * Every endpoint has a circuit breaker: after {@code failures} failed writes in a row it is not
+ * written to for {@code openMs}, after which a single write tries it again. Endpoints with a
+ * {@link HealthCheck} are also checked every {@code healthCheckMs} in the background, which
+ * opens the breaker of an endpoint found down before a write has to fail on it and lets the
+ * next write try an endpoint found up again. The batch fails only if no endpoint took it.
+ *
+ * A batch an endpoint rejects with a {@link RejectedBatchException} fails right away: the other
+ * endpoints would reject it the same way, and the endpoint that answered is not failing.
+ */
+public class FailoverBatchWriter implements BatchWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FailoverBatchWriter.class);
+
+    /**
+     * Tells whether an endpoint is reachable, without writing to it.
+     */
+    public interface HealthCheck {
+        boolean isHealthy();
+    }
+
+    private final String[] names;
+    private final BatchWriter[] endpoints;
+    private final HealthCheck[] checks;
+    private final Breaker[] breakers;
+    private final ScheduledExecutorService healthChecker;
+
+    /**
+     * @param names         the names of the endpoints, for logging
+     * @param endpoints     the writers of the endpoints, by preference
+     * @param checks        the health check of each endpoint, null for none
+     * @param failures      failed writes in a row before an endpoint is skipped
+     * @param openMs        time an endpoint is skipped for
+     * @param healthCheckMs interval of the health checks, 0 for none
+     */
+    public FailoverBatchWriter(String[] names, BatchWriter[] endpoints, HealthCheck[] checks, int failures, long openMs, long healthCheckMs) {
+        this.names = names;
+        this.endpoints = endpoints;
+        this.checks = checks;
+        this.breakers = new Breaker[endpoints.length];
+        for (int i = 0; i < endpoints.length; i++) {
+            breakers[i] = new Breaker(names[i], Math.max(1, failures), TimeUnit.MILLISECONDS.toNanos(openMs));
+        }
+        if (healthCheckMs > 0) {
+            healthChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "influx-health-check");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            healthChecker.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    checkHealth();
+                }
+            }, healthCheckMs, healthCheckMs, TimeUnit.MILLISECONDS);
+        } else {
+            healthChecker = null;
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length, int points) throws Exception {
+        Exception failure = null;
+        for (int i = 0; i < endpoints.length; i++) {
+            if (!breakers[i].allowsWrite(System.nanoTime())) {
+                continue;
+            }
+            try {
+                endpoints[i].write(buffer, offset, length, points);
+                breakers[i].succeeded();
+                return;
+            } catch (RejectedBatchException e) {
+                breakers[i].succeeded();
+                throw e;
+            } catch (Exception e) {
+                LOG.debug("Cannot write to InfluxDB endpoint {}", names[i], e);
+                breakers[i].failed(System.nanoTime());
+                failure = e;
+            }
+        }
+        throw failure != null ? failure : new IOException("No InfluxDB endpoint available");
+    }
+
+    /**
+     * Runs the health checks of the endpoints once.
+     */
+    void checkHealth() {
+        for (int i = 0; i < endpoints.length; i++) {
+            if (checks[i] != null) {
+                boolean healthy;
+                try {
+                    healthy = checks[i].isHealthy();
+                } catch (Exception e) {
+                    healthy = false;
+                }
+                breakers[i].checked(healthy, System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Whether the next write may go to the given endpoint.
+     */
+    boolean isAvailable(int endpoint) {
+        return breakers[endpoint].isAvailable(System.nanoTime());
+    }
+
+    @Override
+    public void close() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+        for (BatchWriter endpoint : endpoints) {
+            endpoint.close();
+        }
+    }
+
+    /**
+     * The circuit breaker of one endpoint, shared by the sender threads.
+     */
+    private static final class Breaker {
+
+        private final String name;
+        private final int maxFailures;
+        private final long openNanos;
+
+        private int failures;
+        private boolean open;
+        private long openUntil;
+
+        Breaker(String name, int maxFailures, long openNanos) {
+            this.name = name;
+            this.maxFailures = maxFailures;
+            this.openNanos = openNanos;
+        }
+
+        synchronized boolean isAvailable(long now) {
+            return !open || now - openUntil >= 0;
+        }
+
+        synchronized boolean allowsWrite(long now) {
+            if (!isAvailable(now)) {
+                return false;
+            }
+            if (open) {
+                // one trial write, the next ones wait for its outcome or the next period
+                openUntil = now + openNanos;
+            }
+            return true;
+        }
+
+        synchronized void succeeded() {
+            if (open) {
+                LOG.info("InfluxDB endpoint {} is back", name);
+                open = false;
+            }
+            failures = 0;
+        }
+
+        synchronized void failed(long now) {
+            if (open || ++failures >= maxFailures) {
+                trip(now);
+            }
+        }
+
+        synchronized void checked(boolean healthy, long now) {
+            if (healthy && open) {
+                openUntil = now;
+            } else if (!healthy && !open) {
+                trip(now);
+            }
+        }
+
+        private void trip(long now) {
+            if (!open) {
+                LOG.warn("InfluxDB endpoint {} is failing, skipping it", name);
+            }
+            open = true;
+            failures = 0;
+            openUntil = now + openNanos;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends batches to line protocol files in a directory, for bulk loading with
+ * {@code influx -import} instead of writing to InfluxDB.
+ *
+ * Every segment starts with the {@code # DML} and {@code # CONTEXT-DATABASE} header of the import
+ * format. A segment is written as {@code metrics-<millis>.lp.tmp} through a file channel and a
+ * direct buffer, and renamed to {@code .lp} once it reaches its size or age; closed segments are
+ * optionally gzip compressed to {@code .lp.gz} on a background thread, for
+ * {@code influx -import -compressed}. Segments left open by a crash are closed on startup. The
+ * directory is locked while the writer is open, so a second writer on it fails instead of
+ * closing the segment the first one is writing.
+ */
+public class FileBatchWriter implements BatchWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileBatchWriter.class);
+
+    static final String SEGMENT_PREFIX = "metrics-";
+    static final String SEGMENT_SUFFIX = ".lp";
+    static final String OPEN_SUFFIX = ".tmp";
+    static final String COMPRESSED_SUFFIX = ".gz";
+
+    private final File directory;
+    private final long segmentBytes;
+    private final long segmentMs;
+    private final boolean compress;
+    private final Clock clock;
+    private final byte[] header;
+    private final ByteBuffer buffer;
+    private final ExecutorService compressor;
+    private final DirectoryLock lock;
+
+    private FileChannel channel;
+    private File segment;
+    private long segmentSize;
+    private long segmentOpenedMs;
+
+    /**
+     * @param directory       where the segments are written
+     * @param database        the database of the points, written in the segment header
+     * @param retentionPolicy the retention policy of the points, written in the segment header
+     * @param segmentBytes    the size after which a segment is closed
+     * @param segmentMs       the age after which a segment is closed
+     * @param bufferBytes     the size of the write buffer
+     * @param compress        whether closed segments are gzip compressed
+     * @param clock           the clock of the segment ages
+     * @throws IOException if the directory cannot be used or is used by another writer
+     */
+    public FileBatchWriter(File directory, String database, String retentionPolicy, long segmentBytes, long segmentMs,
+                           int bufferBytes, boolean compress, Clock clock) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create metrics file directory " + directory);
+        }
+        this.lock = DirectoryLock.lock(directory, "metrics file");
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.segmentMs = segmentMs;
+        this.compress = compress;
+        this.clock = clock;
+        this.header = ("# DML\n"
+                + "# CONTEXT-DATABASE: " + database + "\n"
+                + "# CONTEXT-RETENTION-POLICY: " + retentionPolicy + "\n").getBytes(StandardCharsets.UTF_8);
+        this.buffer = ByteBuffer.allocateDirect(Math.max(header.length, bufferBytes));
+        this.compressor = compress ? Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "influx-file-compress");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : null;
+        closeLeftOverSegments();
+    }
+
+    private void closeLeftOverSegments() {
+        String[] names = directory.list();
+        if (names == null) {
+            return;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(COMPRESSED_SUFFIX + OPEN_SUFFIX)) {
+                // the segment it was compressed from is still there and compressed again
+                new File(directory, name).delete();
+            }
+        }
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX)) {
+                if (name.endsWith(SEGMENT_SUFFIX + OPEN_SUFFIX)) {
+                    LOG.info("Closing segment {} left open by a previous run", name);
+                    finish(new File(directory, name));
+                } else if (compress && name.endsWith(SEGMENT_SUFFIX)) {
+                    compressLater(new File(directory, name));
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length, int points) throws IOException {
+        long now = clock.time();
+        if (channel != null && (segmentSize + length > segmentBytes || now - segmentOpenedMs >= segmentMs)) {
+            closeSegment();
+        }
+        if (channel == null) {
+            openSegment(now);
+        }
+        while (length > 0) {
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+            segmentSize += chunk;
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+        }
+        flush();
+    }
+
+    private void openSegment(long now) throws IOException {
+        File file = new File(directory, SEGMENT_PREFIX + now + SEGMENT_SUFFIX + OPEN_SUFFIX);
+        for (long sequence = now + 1; file.exists() || closedName(file).exists(); sequence++) {
+            file = new File(directory, SEGMENT_PREFIX + sequence + SEGMENT_SUFFIX + OPEN_SUFFIX);
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segment = file;
+        segmentOpenedMs = now;
+        buffer.put(header);
+        segmentSize = header.length;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void closeSegment() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Cannot close metrics file {}", segment, e);
+        }
+        channel = null;
+        finish(segment);
+        segment = null;
+    }
+
+    private static File closedName(File open) {
+        String name = open.getName();
+        return new File(open.getParentFile(), name.substring(0, name.length() - OPEN_SUFFIX.length()));
+    }
+
+    // renames an open segment to its final name and compresses it if configured
+    private void finish(File open) {
+        File closed = closedName(open);
+        if (!open.renameTo(closed)) {
+            LOG.error("Cannot rename metrics file {} to {}", open, closed);
+            return;
+        }
+        if (compress) {
+            compressLater(closed);
+        }
+    }
+
+    private void compressLater(final File file) {
+        compressor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compress(file);
+            }
+        });
+    }
+
+    static void compress(File file) {
+        File compressed = new File(file.getParentFile(), file.getName() + COMPRESSED_SUFFIX);
+        File partial = new File(file.getParentFile(), compressed.getName() + OPEN_SUFFIX);
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(partial), 64 * 1024);
+                try {
+                    byte[] chunk = new byte[64 * 1024];
+                    int read;
+                    while ((read = in.read(chunk)) > 0) {
+                        out.write(chunk, 0, read);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            if (!partial.renameTo(compressed) || !file.delete()) {
+                LOG.error("Cannot replace metrics file {} with {}", file, compressed);
+            }
+        } catch (IOException e) {
+            LOG.error("Cannot compress metrics file {}", file, e);
+            partial.delete();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel != null) {
+            closeSegment();
+        }
+        if (compressor != null) {
+            compressor.shutdown();
+            try {
+                if (!compressor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    LOG.warn("Metrics files still being compressed, left uncompressed");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lock.release();
+    }
+}
@@ -1,17 +1,22 @@
 package com.github.jasper.kafka;
 
 import com.yammer.metrics.core.*;
-import org.influxdb.dto.Point;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.stats.Snapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.EnumSet;
 
 import static com.github.jasper.kafka.Dimension.*;
 
 public class FilteredInfluxDBReporter extends InfluxDBReporter {
 
+    private static final EnumSet<Dimension> PERCENTILES = EnumSet.of(median, p75, p95, p98, p99, p999);
+
     private final EnumSet<Dimension> dimensions;
+    private final boolean percentilesEnabled;
     private static final Logger LOGGER = LoggerFactory.getLogger(FilteredInfluxDBReporter.class);
 
 
@@ -32,27 +37,119 @@ public class FilteredInfluxDBReporter extends InfluxDBReporter {
     public FilteredInfluxDBReporter(MetricsRegistry metricsRegistry, String address, String database, String retentionPolicy, String username, String password, String consistency, String tags, EnumSet<Dimension> dimensions, Clock clock, VirtualMachineMetrics vm) {
         super(metricsRegistry, address, database,retentionPolicy,username, password, consistency, tags, clock, vm);
         this.dimensions = dimensions;
+        this.percentilesEnabled = !Collections.disjoint(dimensions, PERCENTILES);
+        LOGGER.debug("The following Metrics Dimensions will be sent {}", dimensions);
+    }
+
+    /**
+     * Creates a new {@link InfluxDBReporter} writing through the given {@link BatchWriter}.
+     *
+     * @param metricsRegistry the metrics registry
+     * @param writer the destination of the encoded metrics, closed on shutdown
+     * @param tags custom tags
+     * @param dimensions      enum of enabled dimensions to include
+     * @param clock           a {@link Clock} instance
+     */
+    public FilteredInfluxDBReporter(MetricsRegistry metricsRegistry, BatchWriter writer, String tags, EnumSet<Dimension> dimensions, Clock clock, VirtualMachineMetrics vm) {
+        super(metricsRegistry, writer, tags, clock, vm);
+        this.dimensions = dimensions;
+        this.percentilesEnabled = !Collections.disjoint(dimensions, PERCENTILES);
         LOGGER.debug("The following Metrics Dimensions will be sent {}", dimensions);
     }
 
     @Override
     public void processMeter(MetricName metricName, Metered meter, Context context) throws Exception {
 
-        Point.Builder pointbuilder = super.buildMetricsPointByMetricName(metricName, context);
-        pointbuilder.tag("metric_type", "meter");
-        pointbuilder.tag("eventType", meter.eventType());
+        SeriesKey seriesKey = seriesKey(metricName, "meter", meter.eventType());
+        if (!admit(metricName, seriesKey, meter.count())) {
+            return;
+        }
+        LineProtocolEncoder encoder = encoder();
+        encoder.beginPoint(seriesKey);
 
         if (dimensions.contains(count))
-        pointbuilder.addField("count", meter.count());
+        encoder.addField("count", meter.count());
         if (dimensions.contains(meanRate))
-        pointbuilder.addField("meanRate", meter.meanRate());
+        encoder.addField("meanRate", meter.meanRate());
         if (dimensions.contains(rate1m))
-        pointbuilder.addField("1MinuteRate", meter.oneMinuteRate());
+        encoder.addField("1MinuteRate", meter.oneMinuteRate());
         if (dimensions.contains(rate5m))
-        pointbuilder.addField("5MinuteRate", meter.fiveMinuteRate());
+        encoder.addField("5MinuteRate", meter.fiveMinuteRate());
         if (dimensions.contains(rate15m))
-        pointbuilder.addField("15MinuteRate", meter.fifteenMinuteRate());
+        encoder.addField("15MinuteRate", meter.fifteenMinuteRate());
+
+        encoder.endPoint(context.getTime());
+    }
+
+    @Override
+    public void processHistogram(MetricName metricName, Histogram histogram, Context context) throws Exception {
+
+        SeriesKey seriesKey = seriesKey(metricName, "histogram", null);
+        if (!admit(metricName, seriesKey, histogram.count())) {
+            return;
+        }
+        LineProtocolEncoder encoder = encoder();
+        encoder.beginPoint(seriesKey);
+
+        addSampling(encoder, histogram, histogram);
+
+        encoder.endPoint(context.getTime());
+    }
+
+    @Override
+    public void processTimer(MetricName metricName, Timer timer, Context context) throws Exception {
+
+        SeriesKey seriesKey = seriesKey(metricName, "timer", null);
+        if (!admit(metricName, seriesKey, timer.count())) {
+            return;
+        }
+        LineProtocolEncoder encoder = encoder();
+        encoder.beginPoint(seriesKey);
+
+        if (dimensions.contains(count))
+        encoder.addField("count", timer.count());
+        if (dimensions.contains(meanRate))
+        encoder.addField("meanRate", timer.meanRate());
+        if (dimensions.contains(rate1m))
+        encoder.addField("1MinuteRate", timer.oneMinuteRate());
+        if (dimensions.contains(rate5m))
+        encoder.addField("5MinuteRate", timer.fiveMinuteRate());
+        if (dimensions.contains(rate15m))
+        encoder.addField("15MinuteRate", timer.fifteenMinuteRate());
+
+        addSampling(encoder, timer, timer);
+
+        encoder.endPoint(context.getTime());
+    }
+
+    // the snapshot copies and sorts the reservoir, only take it when a percentile is sent
+    private void addSampling(LineProtocolEncoder encoder, Summarizable summary, Sampling sampling) {
+        if (dimensions.contains(max))
+        encoder.addField("max", summary.max());
+        if (dimensions.contains(mean))
+        encoder.addField("mean", summary.mean());
+        if (dimensions.contains(min))
+        encoder.addField("min", summary.min());
+        if (dimensions.contains(stddev))
+        encoder.addField("stddev", summary.stdDev());
+        if (dimensions.contains(sum))
+        encoder.addField("sum", summary.sum());
 
-        addPoint(pointbuilder.build());
+        if (!percentilesEnabled) {
+            return;
+        }
+        final Snapshot snapshot = sampling.getSnapshot();
+        if (dimensions.contains(median))
+        encoder.addField("median", snapshot.getMedian());
+        if (dimensions.contains(p75))
+        encoder.addField("p75", snapshot.get75thPercentile());
+        if (dimensions.contains(p95))
+        encoder.addField("p95", snapshot.get95thPercentile());
+        if (dimensions.contains(p98))
+        encoder.addField("p98", snapshot.get98thPercentile());
+        if (dimensions.contains(p99))
+        encoder.addField("p99", snapshot.get99thPercentile());
+        if (dimensions.contains(p999))
+        encoder.addField("p999", snapshot.get999thPercentile());
     }
 }
@@ -0,0 +1,336 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistryListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads gauges on a small bounded pool so a gauge that is slow, touches the filesystem or hangs
+ * cannot stall the poll.
+ *
+ * The polling thread {@link #submit}s the gauges of a poll, {@link #start}s the pool and then
+ * asks for each {@link #value} in turn, waiting at most until the deadline of the poll. A gauge
+ * not read by then gets its last good value. A gauge that misses the deadline or throws
+ * {@code strikes} times in a row is quarantined: it is not read for a number of polls doubling
+ * with every quarantine, up to {@code maxBackoffPolls}, and keeps its last good value meanwhile.
+ * The quarantine counts the polls the gauge is submitted to, so with {@link PollingTiers} it
+ * lasts polls of the tier of the gauge.
+ * A gauge throwing {@link NoSuchElementException} has no valid value
+ * (<a href="https://issues.apache.org/jira/browse/KAFKA-1866">KAFKA-1866</a>) and is skipped.
+ *
+ * A gauge still being read at the deadline holds its thread. The pool has as many threads again
+ * as a poll runs on to replace the held ones, and a hanging gauge is not read again before its read
+ * returns, so it holds one thread at most. Gauges of a poll no thread got to by the deadline are
+ * given up rather than read late, and are read again in the next poll.
+ *
+ * Only {@link #submit}, {@link #start} and {@link #value} of the polling thread touch the gauge
+ * states; the pool threads only write the arrays of the poll they were given.
+ */
+public class GaugeEvaluator implements MetricsRegistryListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GaugeEvaluator.class);
+
+    private static final int PENDING = 0;
+    private static final int READ = 1;
+    private static final int FAILED = 2;
+    private static final int INVALID = 3;
+    private static final int SKIPPED = 4;
+    private static final int READING = 5;
+    private static final int UNREAD = 6;
+
+    private final ThreadPoolExecutor pool;
+    private final int threads;
+    private final long deadlineNanos;
+    private final int strikes;
+    private final int maxBackoffPolls;
+
+    private final ConcurrentHashMap<MetricName, State> states = new ConcurrentHashMap<MetricName, State>();
+
+    private Poll poll = new Poll(Thread.currentThread(), 0);
+    private Poll next;
+    private long pollDeadline;
+    private long timeouts;
+
+    /**
+     * @param threads         number of threads reading gauges
+     * @param deadlineMs      time a poll waits for its gauges, from {@link #beginPoll()}
+     * @param strikes         failed or late reads in a row before a gauge is quarantined
+     * @param maxBackoffPolls longest quarantine, in polls
+     */
+    public GaugeEvaluator(int threads, long deadlineMs, int strikes, int maxBackoffPolls) {
+        this.threads = Math.max(1, threads);
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+        this.strikes = Math.max(1, strikes);
+        this.maxBackoffPolls = Math.max(1, maxBackoffPolls);
+        final AtomicInteger count = new AtomicInteger();
+        // twice the threads a poll runs on, to replace threads held by hanging gauges; a poll
+        // waiting for a thread pushes out the oldest waiting one, which is of an older poll
+        this.pool = new ThreadPoolExecutor(2 * this.threads, 2 * this.threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(this.threads), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "influx-gauge-" + count.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+
+    /**
+     * Starts collecting the gauges of a new poll, whose deadline starts now.
+     */
+    public void beginPoll() {
+        pollDeadline = System.nanoTime() + deadlineNanos;
+        // a late thread may still write the arrays of the previous poll, never reuse them
+        next = new Poll(Thread.currentThread(), poll.capacity());
+    }
+
+    /**
+     * Adds a gauge to the poll.
+     *
+     * @return the slot to read its value from
+     */
+    public int submit(MetricName name, Gauge<?> gauge) {
+        State state = states.get(name);
+        if (state == null) {
+            state = new State(name);
+            states.put(name, state);
+        }
+        boolean read = true;
+        if (state.poll != null) {
+            int outcome = state.poll.outcome(state.slot);
+            if (outcome == READING) {
+                // still being read since an earlier poll
+                read = false;
+            } else {
+                if (outcome == READ) {
+                    state.lastValue = state.poll.values[state.slot];
+                }
+                state.poll = null;
+            }
+        }
+        if (state.quarantine > 0) {
+            state.quarantine--;
+            read = false;
+        }
+        return next.add(gauge, state, read);
+    }
+
+    /**
+     * Hands the gauges of the poll to the pool.
+     */
+    public void start() {
+        poll = next;
+        next = null;
+        // a poll of quarantined gauges only would just take the pool threads from the next one
+        if (poll.reads > 0) {
+            for (int i = 0; i < threads; i++) {
+                pool.execute(poll);
+            }
+        }
+    }
+
+    /**
+     * Returns the value of a gauge of the poll, waiting for it until the deadline of the poll.
+     *
+     * @param slot the slot returned by {@link #submit}
+     * @return the value, the last good value if it could not be read in time, or null if there
+     * is none
+     */
+    public Object value(int slot) {
+        Poll current = poll;
+        State state = current.states[slot];
+        int outcome = current.await(slot, pollDeadline);
+        if (outcome == PENDING) {
+            outcome = current.abandon(slot);
+        }
+        switch (outcome) {
+            case READ:
+                state.lastValue = current.values[slot];
+                state.failures = 0;
+                state.backoff = 0;
+                return state.lastValue;
+            case INVALID:
+                state.lastValue = null;
+                strike(state);
+                return null;
+            case SKIPPED:
+                if (state.poll != null && state.poll.outcome(state.slot) == READ) {
+                    state.lastValue = state.poll.values[state.slot];
+                }
+                return state.lastValue;
+            case UNREAD:
+                // no thread got to it, not the gauge's fault
+                timeouts++;
+                return state.lastValue;
+            case READING:
+                timeouts++;
+                state.poll = current;
+                state.slot = slot;
+                strike(state);
+                return state.lastValue;
+            default:
+                strike(state);
+                return state.lastValue;
+        }
+    }
+
+    private void strike(State state) {
+        if (++state.failures >= strikes) {
+            state.failures = 0;
+            state.backoff = state.backoff == 0 ? 1 : Math.min(maxBackoffPolls, state.backoff * 2);
+            state.quarantine = state.backoff;
+            LOG.warn("Gauge {} is slow or failing, not read for {} polls", state.name, state.backoff);
+        }
+    }
+
+    /**
+     * Number of gauges that were not read by the deadline of their poll.
+     */
+    public long timeouts() {
+        return timeouts;
+    }
+
+    @Override
+    public void onMetricAdded(MetricName name, Metric metric) {
+    }
+
+    @Override
+    public void onMetricRemoved(MetricName name) {
+        states.remove(name);
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static final class State {
+
+        private final MetricName name;
+        private Object lastValue;
+        private int failures;
+        private int backoff;
+        // polls left before the gauge is read again
+        private int quarantine;
+        // the poll still reading this gauge after its deadline
+        private Poll poll;
+        private int slot;
+
+        State(MetricName name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * The gauges of one poll, drained by the pool threads in slot order.
+     */
+    private static final class Poll implements Runnable {
+
+        private final Thread poller;
+        private Gauge<?>[] gauges;
+        private State[] states;
+        private Object[] values;
+        private AtomicIntegerArray outcomes;
+        private int size;
+        private int reads;
+        private final AtomicInteger cursor = new AtomicInteger();
+        private volatile int awaited = -1;
+
+        Poll(Thread poller, int capacity) {
+            this.poller = poller;
+            capacity = Math.max(16, capacity);
+            this.gauges = new Gauge<?>[capacity];
+            this.states = new State[capacity];
+            this.values = new Object[capacity];
+            this.outcomes = new AtomicIntegerArray(capacity);
+        }
+
+        int capacity() {
+            return gauges.length;
+        }
+
+        int add(Gauge<?> gauge, State state, boolean read) {
+            if (size == gauges.length) {
+                gauges = Arrays.copyOf(gauges, size * 2);
+                states = Arrays.copyOf(states, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                AtomicIntegerArray grown = new AtomicIntegerArray(size * 2);
+                for (int i = 0; i < size; i++) {
+                    grown.set(i, outcomes.get(i));
+                }
+                outcomes = grown;
+            }
+            gauges[size] = gauge;
+            states[size] = state;
+            if (!read) {
+                outcomes.set(size, SKIPPED);
+            } else {
+                reads++;
+            }
+            return size++;
+        }
+
+        int outcome(int slot) {
+            return outcomes.get(slot);
+        }
+
+        @Override
+        public void run() {
+            int slot;
+            while ((slot = cursor.getAndIncrement()) < size) {
+                if (!outcomes.compareAndSet(slot, PENDING, READING)) {
+                    // skipped, or given up by the polling thread
+                    continue;
+                }
+                int outcome;
+                try {
+                    values[slot] = gauges[slot].value();
+                    outcome = READ;
+                } catch (NoSuchElementException e) {
+                    outcome = INVALID;
+                } catch (Exception e) {
+                    LOG.debug("Cannot read gauge", e);
+                    outcome = FAILED;
+                }
+                outcomes.set(slot, outcome);
+                if (awaited == slot) {
+                    LockSupport.unpark(poller);
+                }
+            }
+        }
+
+        int await(int slot, long deadline) {
+            int outcome = outcomes.get(slot);
+            if (outcome != PENDING && outcome != READING) {
+                return outcome;
+            }
+            awaited = slot;
+            long remaining;
+            while (((outcome = outcomes.get(slot)) == PENDING || outcome == READING)
+                    && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            awaited = -1;
+            return outcome;
+        }
+
+        // gives up a slot no thread started reading, so it is not read after its poll
+        int abandon(int slot) {
+            return outcomes.compareAndSet(slot, PENDING, UNREAD) ? UNREAD : outcomes.get(slot);
+        }
+    }
+}
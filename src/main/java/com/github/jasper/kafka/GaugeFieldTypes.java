@@ -0,0 +1,106 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistryListener;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides once per gauge which InfluxDB field type its value is written as, and keeps it.
+ *
+ * Floating point numbers are written as floats, booleans as booleans and anything else that is
+ * not a number as a string. Integer numbers are written as floats, exact up to 2^53, unless the
+ * gauge matches one of the integer rules, in which case they are written as exact integer
+ * fields. The type depends only on the gauge and the configuration, never on the value of a
+ * single poll, so a series keeps its field type across polls and restarts and cannot run into a
+ * field type conflict in InfluxDB.
+ */
+public class GaugeFieldTypes implements MetricsRegistryListener {
+
+    /**
+     * The InfluxDB field type of a gauge.
+     */
+    public enum FieldType {
+        FLOAT, INTEGER, BOOLEAN, STRING
+    }
+
+    private final MetricFilter.Node integerRules;
+    private final ConcurrentHashMap<MetricName, FieldType> types = new ConcurrentHashMap<MetricName, FieldType>();
+
+    /**
+     * @param integerRules comma separated rules of the gauges whose integer values are written as
+     *                     integer fields, in the {@link MetricFilter} syntax
+     */
+    public GaugeFieldTypes(String integerRules) {
+        this.integerRules = MetricFilter.compile(integerRules);
+    }
+
+    /**
+     * Returns the field type of a gauge, detected from its first value.
+     */
+    public FieldType get(MetricName name, Object value) {
+        FieldType type = types.get(name);
+        if (type == null) {
+            type = detect(name, value);
+            types.put(name, type);
+        }
+        return type;
+    }
+
+    private FieldType detect(MetricName name, Object value) {
+        if (value instanceof Double || value instanceof Float || value instanceof BigDecimal) {
+            return FieldType.FLOAT;
+        } else if (value instanceof Number) {
+            return MetricFilter.matches(integerRules, name) ? FieldType.INTEGER : FieldType.FLOAT;
+        } else if (value instanceof Boolean) {
+            return FieldType.BOOLEAN;
+        }
+        return FieldType.STRING;
+    }
+
+    /**
+     * Adds the value of a gauge to the current point as the given type.
+     *
+     * @return false if the value cannot be written as that type, e.g. a gauge that returned a
+     * number on its first poll and a string now
+     */
+    public static boolean addField(LineProtocolEncoder encoder, String fieldName, FieldType type, Object value) {
+        switch (type) {
+            case FLOAT:
+                if (value instanceof Float) {
+                    encoder.addField(fieldName, ((Float) value).floatValue());
+                } else if (value instanceof Number) {
+                    encoder.addField(fieldName, ((Number) value).doubleValue());
+                } else {
+                    return false;
+                }
+                return true;
+            case INTEGER:
+                if (!(value instanceof Number)) {
+                    return false;
+                }
+                encoder.addField(fieldName, ((Number) value).longValue());
+                return true;
+            case BOOLEAN:
+                if (!(value instanceof Boolean)) {
+                    return false;
+                }
+                encoder.addField(fieldName, ((Boolean) value).booleanValue());
+                return true;
+            default:
+                encoder.addField(fieldName, String.valueOf(value));
+                return true;
+        }
+    }
+
+    @Override
+    public void onMetricAdded(MetricName name, Metric metric) {
+    }
+
+    @Override
+    public void onMetricRemoved(MetricName name) {
+        types.remove(name);
+    }
+}
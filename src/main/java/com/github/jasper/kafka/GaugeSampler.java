@@ -0,0 +1,359 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistryListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Samples the gauges matching its rules several times per polling period, so a short spike
+ * between two polls still shows, and summarizes the samples of a period into their minimum,
+ * maximum, mean and last value when the gauge is polled.
+ *
+ * Each gauge gets a ring of doubles sized for two periods when it is registered, so sampling
+ * does not allocate; when a poll comes later than that, the oldest samples are overwritten.
+ * Gauges with values that are not numbers are left to the poll to read.
+ *
+ * Gauges are read on the sampling threads, not on the polling thread: a gauge without a
+ * sample since the previous poll is not written by that poll. A gauge whose read throws or takes
+ * more than a quarter of the sample interval three times in a row is quarantined: it
+ * is not read for a number of samples doubling with every quarantine, up to the ring capacity,
+ * so it does not hold back the samples of the other gauges.
+ *
+ * A scheduler thread starts each sample on a reader thread. A read still running a quarter of
+ * the interval after it started when the next sample is due leaves its thread behind: the gauge
+ * is handed back to the poll, which reads it like any other gauge, and the other gauges are
+ * sampled on a new thread. Once the read returns the gauge is quarantined and sampled again.
+ */
+public class GaugeSampler implements MetricsRegistryListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GaugeSampler.class);
+
+    static final int STRIKES = 3;
+
+    /**
+     * The summary of the samples of a gauge since its previous poll. Equal to another summary
+     * with the same values, whatever their number of samples.
+     */
+    public static final class Summary {
+        public int count;
+        public double min;
+        public double max;
+        public double mean;
+        public double last;
+
+        public Summary copy() {
+            Summary copy = new Summary();
+            copy.count = count;
+            copy.min = min;
+            copy.max = max;
+            copy.mean = mean;
+            copy.last = last;
+            return copy;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Summary)) {
+                return false;
+            }
+            Summary other = (Summary) o;
+            return Double.compare(min, other.min) == 0 && Double.compare(max, other.max) == 0
+                    && Double.compare(mean, other.mean) == 0 && Double.compare(last, other.last) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = Double.hashCode(min);
+            hash = 31 * hash + Double.hashCode(max);
+            hash = 31 * hash + Double.hashCode(mean);
+            return 31 * hash + Double.hashCode(last);
+        }
+    }
+
+    // the samples of one gauge, guarded by itself; the quarantine is only used by the sampling thread
+    private static final class Ring {
+        final MetricName name;
+        final Gauge<?> gauge;
+        final double[] samples;
+        int next;
+        int count;
+        int failures;
+        int backoff;
+        int quarantine;
+        // read by the poll while a read of the sampling thread hangs
+        volatile boolean hung;
+
+        Ring(MetricName name, Gauge<?> gauge, int capacity) {
+            this.name = name;
+            this.gauge = gauge;
+            this.samples = new double[capacity];
+        }
+
+        synchronized void add(double value) {
+            samples[next] = value;
+            next = next + 1 == samples.length ? 0 : next + 1;
+            if (count < samples.length) {
+                count++;
+            }
+        }
+
+        synchronized void drain(Summary summary) {
+            summary.count = count;
+            if (count == 0) {
+                return;
+            }
+            int i = next - count < 0 ? next - count + samples.length : next - count;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            double value = 0;
+            for (int n = 0; n < count; n++) {
+                value = samples[i];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                sum += value;
+                i = i + 1 == samples.length ? 0 : i + 1;
+            }
+            summary.min = min;
+            summary.max = max;
+            summary.mean = sum / count;
+            summary.last = value;
+            count = 0;
+        }
+
+        synchronized void clear() {
+            count = 0;
+        }
+    }
+
+    // one sample of every gauge, taken on a reader thread
+    private final class Round implements Runnable {
+        // the ring being read, taken by the scheduler thread if the read hangs
+        final AtomicReference<Ring> reading = new AtomicReference<Ring>();
+        volatile long readStart;
+        volatile boolean done;
+
+        @Override
+        public void run() {
+            try {
+                for (Ring ring : rings.values()) {
+                    if (ring.hung) {
+                        continue;
+                    }
+                    if (ring.quarantine > 0) {
+                        ring.quarantine--;
+                        continue;
+                    }
+                    readStart = System.nanoTime();
+                    reading.set(ring);
+                    Object value;
+                    try {
+                        value = ring.gauge.value();
+                    } catch (Exception e) {
+                        if (!returned(ring)) {
+                            return;
+                        }
+                        // e.g. KAFKA-1866
+                        LOG.debug("Cannot sample gauge {}", ring.name, e);
+                        strike(ring);
+                        continue;
+                    }
+                    if (!returned(ring)) {
+                        return;
+                    }
+                    if (System.nanoTime() - readStart > readBudgetNanos) {
+                        strike(ring);
+                    } else {
+                        ring.failures = 0;
+                        ring.backoff = 0;
+                    }
+                    if (value instanceof Number) {
+                        ring.add(((Number) value).doubleValue());
+                    } else if (value != null) {
+                        // read by the poll from now on
+                        rings.remove(ring.name, ring);
+                    }
+                }
+            } finally {
+                done = true;
+            }
+        }
+
+        // false if the read hung and another round took over, which then ends this one
+        private boolean returned(Ring ring) {
+            if (reading.compareAndSet(ring, null)) {
+                return true;
+            }
+            ring.clear();
+            quarantine(ring);
+            ring.hung = false;
+            return false;
+        }
+    }
+
+    private final MetricFilter.Node rules;
+    private final long sampleMs;
+    private final long readBudgetNanos;
+    private final ConcurrentHashMap<MetricName, Ring> rings = new ConcurrentHashMap<MetricName, Ring>();
+
+    private int capacity = 2;
+    private ScheduledExecutorService executor;
+    private ExecutorService readers;
+    private volatile Round round;
+
+    /**
+     * @param rules    comma separated rules of the gauges to sample, in the {@link MetricFilter}
+     *                 syntax
+     * @param sampleMs the interval between two samples
+     */
+    public GaugeSampler(String rules, long sampleMs) {
+        this.rules = MetricFilter.compile(rules);
+        this.sampleMs = Math.max(1, sampleMs);
+        this.readBudgetNanos = TimeUnit.MILLISECONDS.toNanos(this.sampleMs) / 4;
+    }
+
+    /**
+     * Sizes the rings for the given polling period, the longest one a sampled gauge is polled at.
+     * Must be called before registering this sampler on the registry.
+     */
+    public void setPollingPeriod(long periodMs) {
+        this.capacity = (int) Math.max(2, 2 * ((periodMs + sampleMs - 1) / sampleMs));
+    }
+
+    /**
+     * Starts sampling on daemon threads.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(daemonThreads("influx-gauge-sampler"));
+        readers = Executors.newCachedThreadPool(daemonThreads("influx-gauge-sampler-reader"));
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, 0, sampleMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Starts the next sample on a reader thread, unless the previous one is still running and
+     * not stuck in a read.
+     */
+    void tick() {
+        Round previous = round;
+        if (previous != null && !previous.done) {
+            Ring ring = previous.reading.get();
+            if (ring == null || System.nanoTime() - previous.readStart <= readBudgetNanos) {
+                return;
+            }
+            ring.hung = true;
+            if (!previous.reading.compareAndSet(ring, null)) {
+                // returned meanwhile
+                ring.hung = false;
+                return;
+            }
+            LOG.warn("Gauge {} hangs, read by the poll until it returns", ring.name);
+        }
+        Round next = new Round();
+        round = next;
+        readers.execute(next);
+    }
+
+    /**
+     * Takes one sample of every gauge that is not quarantined, on the calling thread.
+     */
+    void sample() {
+        new Round().run();
+    }
+
+    private void strike(Ring ring) {
+        if (++ring.failures >= STRIKES) {
+            quarantine(ring);
+        }
+    }
+
+    private void quarantine(Ring ring) {
+        ring.failures = 0;
+        ring.backoff = ring.backoff == 0 ? 1 : Math.min(ring.samples.length, ring.backoff * 2);
+        ring.quarantine = ring.backoff;
+        LOG.warn("Gauge {} is slow or failing, not sampled for {} samples", ring.name, ring.backoff);
+    }
+
+    /**
+     * Whether the gauge is sampled, so the poll must not read it.
+     */
+    public boolean isSampled(MetricName name) {
+        Ring ring = rings.get(name);
+        return ring != null && !ring.hung;
+    }
+
+    /**
+     * Summarizes the samples of a gauge since the previous call into {@code summary}, without
+     * reading the gauge.
+     *
+     * @return false if the gauge is not sampled or has no sample since the previous call
+     */
+    public boolean drain(MetricName name, Summary summary) {
+        Ring ring = rings.get(name);
+        if (ring == null) {
+            return false;
+        }
+        ring.drain(summary);
+        return summary.count > 0;
+    }
+
+    int sampledGauges() {
+        return rings.size();
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public void onMetricAdded(MetricName name, Metric metric) {
+        if (metric instanceof Gauge && MetricFilter.matches(rules, name)) {
+            rings.put(name, new Ring(name, (Gauge<?>) metric, capacity));
+        }
+    }
+
+    @Override
+    public void onMetricRemoved(MetricName name) {
+        rings.remove(name);
+    }
+
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            readers.shutdownNow();
+            executor = null;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.jasper.kafka;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes batches to the {@code /write} endpoint of InfluxDB with a plain HTTP request, straight
+ * from the encoder buffer, with the timestamp precision of the points as {@code precision}
+ * parameter. Used instead of influxdb-java, which always sends nanoseconds, when the points are
+ * written in a coarser precision.
+ */
+public class HttpBatchWriter implements BatchWriter, FailoverBatchWriter.HealthCheck {
+
+    private static final int TIMEOUT_MS = 10000;
+
+    private final URL writeUrl;
+    private final URL pingUrl;
+    private final boolean gzip;
+
+    /**
+     * @param address         the address of InfluxDB
+     * @param username        the username to write into InfluxDB
+     * @param password        the password to write into InfluxDB
+     * @param database        the database to store the metric
+     * @param retentionPolicy the retentionPolicy to store the metric
+     * @param consistency     consistency of write into InfluxDB, available value: one, any, all, quorum
+     * @param precision       the unit of the timestamps, seconds, milliseconds or nanoseconds
+     * @param gzip            whether request bodies are gzip compressed
+     */
+    public HttpBatchWriter(String address, String username, String password, String database, String retentionPolicy,
+                           String consistency, TimeUnit precision, boolean gzip) throws IOException {
+        String base = address.endsWith("/") ? address.substring(0, address.length() - 1) : address;
+        this.writeUrl = new URL(base + "/write?db=" + encode(database)
+                + "&rp=" + encode(retentionPolicy)
+                + "&consistency=" + encode(consistency)
+                + "&precision=" + precisionParameter(precision)
+                + "&u=" + encode(username)
+                + "&p=" + encode(password));
+        this.pingUrl = new URL(base + "/ping");
+        this.gzip = gzip;
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    static String precisionParameter(TimeUnit precision) {
+        switch (precision) {
+            case SECONDS:
+                return "s";
+            case MILLISECONDS:
+                return "ms";
+            case MICROSECONDS:
+                return "u";
+            case NANOSECONDS:
+                return "n";
+            default:
+                throw new IllegalArgumentException("Unsupported precision " + precision);
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length, int points) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) writeUrl.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+        if (gzip) {
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setChunkedStreamingMode(0);
+            GZIPOutputStream out = new GZIPOutputStream(connection.getOutputStream());
+            out.write(buffer, offset, length);
+            out.close();
+        } else {
+            connection.setFixedLengthStreamingMode(length);
+            OutputStream out = connection.getOutputStream();
+            out.write(buffer, offset, length);
+            out.close();
+        }
+        int status = connection.getResponseCode();
+        if (RejectedBatchException.isRejection(status)) {
+            throw new RejectedBatchException(status, drain(connection.getErrorStream()));
+        } else if (status / 100 != 2) {
+            throw new IOException("InfluxDB answered " + status + ": " + drain(connection.getErrorStream()));
+        }
+        drain(connection.getInputStream());
+    }
+
+    // reads an answer to its end so the connection can be reused
+    private static String drain(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] chunk = new byte[1024];
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                body.write(chunk, 0, read);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public boolean isHealthy() {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) pingUrl.openConnection();
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            int status = connection.getResponseCode();
+            drain(status / 100 == 2 ? connection.getInputStream() : connection.getErrorStream());
+            return status / 100 == 2;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
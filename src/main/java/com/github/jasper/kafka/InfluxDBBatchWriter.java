@@ -0,0 +1,95 @@
+package com.github.jasper.kafka;
+
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import org.influxdb.InfluxDB;
+import org.influxdb.InfluxDBFactory;
+import org.influxdb.InfluxDBIOException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes batches through the HTTP API of InfluxDB using influxdb-java.
+ */
+public class InfluxDBBatchWriter implements BatchWriter, FailoverBatchWriter.HealthCheck {
+
+    private static final Map<String, InfluxDB.ConsistencyLevel> ConsistencyLevelMap = new HashMap<String, InfluxDB.ConsistencyLevel>(){{
+        put("all", InfluxDB.ConsistencyLevel.ALL);
+        put("any", InfluxDB.ConsistencyLevel.ANY);
+        put("one", InfluxDB.ConsistencyLevel.ONE);
+        put("quorum", InfluxDB.ConsistencyLevel.QUORUM);
+    }};
+
+    private final InfluxDB influxDBclient;
+    private final String database;
+    private final String retentionPolicy;
+    private final InfluxDB.ConsistencyLevel consistencyLevel;
+
+    /**
+     * @param influxDBclient the client connected to InfluxDB
+     * @param database the database to store the metric
+     * @param retentionPolicy  the retentionPolicy to store the metric
+     * @param consistency  consistency of write into InfluxDB, available value: one, any, all, quorum
+     */
+    public InfluxDBBatchWriter(InfluxDB influxDBclient, String database, String retentionPolicy, String consistency) {
+        this.influxDBclient = influxDBclient;
+        this.database = database;
+        this.retentionPolicy = retentionPolicy;
+        this.consistencyLevel = getConsistencyLevel(consistency);
+    }
+
+    /**
+     * Connects a client whose rejected writes can be told apart from failed ones: influxdb-java
+     * only reports the error message of an answer, not its status.
+     */
+    static InfluxDB connect(String address, String username, String password) {
+        OkHttpClient.Builder client = new OkHttpClient.Builder().addInterceptor(new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                Response response = chain.proceed(chain.request());
+                if (RejectedBatchException.isRejection(response.code()) && chain.request().url().encodedPath().endsWith("/write")) {
+                    String body = response.body() == null ? "" : response.body().string();
+                    response.close();
+                    throw new RejectedBatchException(response.code(), body);
+                }
+                return response;
+            }
+        });
+        return InfluxDBFactory.connect(address, username, password, client);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length, int points) throws Exception {
+        try {
+            influxDBclient.write(database, retentionPolicy, consistencyLevel, new String(buffer, offset, length, StandardCharsets.UTF_8));
+        } catch (InfluxDBIOException e) {
+            if (e.getCause() instanceof RejectedBatchException) {
+                throw (RejectedBatchException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isHealthy() {
+        try {
+            influxDBclient.ping();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        influxDBclient.close();
+    }
+
+    static InfluxDB.ConsistencyLevel getConsistencyLevel(String consistencyLevel) {
+        return ConsistencyLevelMap.get(consistencyLevel);
+    }
+}
@@ -0,0 +1,292 @@
+package com.github.jasper.kafka;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.KafkaMetric;
+import org.apache.kafka.common.metrics.MetricsReporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the metrics of {@code org.apache.kafka.common.metrics}, used by the producer, the
+ * consumer, Streams, Connect and the newer broker metrics, to InfluxDB. Enable it with
+ * {@code metric.reporters=com.github.jasper.kafka.InfluxDBMetricsReporter}.
+ *
+ * Metrics are tracked incrementally from {@link #init}, {@link #metricChange} and
+ * {@link #metricRemoval}, with their series key built once when they are added. A poll reads
+ * them from flat arrays and writes them through the same encoder, batching and writer stack as
+ * {@link KafkaInfluxDBMetricsReporter}, configured by the same {@code kafka.influxdb.metrics.*}
+ * properties. Each metric becomes a measurement named after the metric with a {@code value}
+ * field, tagged with its group and its own tags.
+ *
+ * Every producer, consumer and Streams client of a JVM creates its own reporter from the same
+ * properties. The reporters configuring the same writer options share one writer stack, with
+ * its senders, spool and files, closed when the last of them closes. Their polls take turns
+ * on it and they count into the same {@link ReporterStats}.
+ */
+public class InfluxDBMetricsReporter implements MetricsReporter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InfluxDBMetricsReporter.class);
+
+    private static final String INFLUXDB_DEFAULT_TAGS = "hostname:" + HostUtils.getHostName();
+    private static final int INFLUXDB_DEFAULT_BATCH_MAX_POINTS = 5000;
+    private static final int INFLUXDB_DEFAULT_BATCH_MAX_BYTES = 1024 * 1024;
+    private static final int INFLUXDB_DEFAULT_POLLING_INTERVAL_SECS = 10;
+    private static final int INITIAL_CAPACITY = 256;
+
+    // the writer stacks in use, by their writer options, guarded by itself
+    private static final Map<Map<String, String>, SharedWriter> SHARED_WRITERS = new HashMap<Map<String, String>, SharedWriter>();
+
+    private final LineProtocolEncoder encoder = new LineProtocolEncoder();
+
+    private ReporterStats stats = new ReporterStats();
+    private BatchWriter writer;
+    private SharedWriter shared;
+    private PointBatcher batcher;
+    private Map<String, String> tags;
+    private long periodNanos;
+    private boolean alignTimestamps;
+    private long lastAlignedTime = Long.MIN_VALUE;
+    private ScheduledExecutorService executor;
+
+    private final Map<MetricName, Integer> indexes = new HashMap<MetricName, Integer>();
+    private KafkaMetric[] metrics = new KafkaMetric[INITIAL_CAPACITY];
+    private SeriesKey[] keys = new SeriesKey[INITIAL_CAPACITY];
+    private int size;
+
+    private KafkaMetric[] pollMetrics = new KafkaMetric[INITIAL_CAPACITY];
+    private SeriesKey[] pollKeys = new SeriesKey[INITIAL_CAPACITY];
+    private int pollSize;
+
+    public InfluxDBMetricsReporter() {
+    }
+
+    /**
+     * Creates a reporter writing through the given writer instead of the configured one.
+     */
+    InfluxDBMetricsReporter(BatchWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        Properties props = WriterConfig.toProperties(configs);
+        WriterConfig config = new WriterConfig(props);
+        tags = InfluxDBReporter.formatTags(config.getString("tags", INFLUXDB_DEFAULT_TAGS));
+        if (writer == null) {
+            shared = acquire(config);
+            writer = shared.writer;
+            stats = shared.stats;
+        }
+        batcher = new PointBatcher(encoder, writer);
+        batcher.setStats(stats);
+        batcher.setLimits(config.getInt("batch.max.points", INFLUXDB_DEFAULT_BATCH_MAX_POINTS),
+                config.getInt("batch.max.bytes", INFLUXDB_DEFAULT_BATCH_MAX_BYTES));
+        periodNanos = TimeUnit.SECONDS.toNanos(config.getInt("polling.interval.secs", INFLUXDB_DEFAULT_POLLING_INTERVAL_SECS));
+        alignTimestamps = config.getBoolean("timestamp.align", false);
+        encoder.setPrecision(config.precision);
+    }
+
+    @Override
+    public void init(List<KafkaMetric> metrics) {
+        for (KafkaMetric metric : metrics) {
+            metricChange(metric);
+        }
+        if (periodNanos > 0) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "influx-metrics-reporter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    poll();
+                }
+            }, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public synchronized void metricChange(KafkaMetric metric) {
+        MetricName name = metric.metricName();
+        SeriesKey key = seriesKey(name);
+        Integer index = indexes.get(name);
+        if (index != null) {
+            metrics[index] = metric;
+            keys[index] = key;
+            return;
+        }
+        if (size == metrics.length) {
+            metrics = Arrays.copyOf(metrics, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        metrics[size] = metric;
+        keys[size] = key;
+        indexes.put(name, size);
+        size++;
+    }
+
+    @Override
+    public synchronized void metricRemoval(KafkaMetric metric) {
+        Integer index = indexes.remove(metric.metricName());
+        if (index == null) {
+            return;
+        }
+        int last = --size;
+        if (index != last) {
+            metrics[index] = metrics[last];
+            keys[index] = keys[last];
+            indexes.put(metrics[index].metricName(), index);
+        }
+        metrics[last] = null;
+        keys[last] = null;
+    }
+
+    private SeriesKey seriesKey(MetricName name) {
+        Map<String, String> metricTags = new TreeMap<String, String>(name.tags());
+        metricTags.put("group", name.group());
+        return SeriesKey.of(name.name(), tags, metricTags);
+    }
+
+    /**
+     * Reads every tracked metric and writes it. Called from the reporter thread.
+     */
+    void poll() {
+        if (shared == null) {
+            pollLocked();
+            return;
+        }
+        // the writer stack and the stats are used by one poll at a time
+        synchronized (shared) {
+            pollLocked();
+        }
+    }
+
+    private void pollLocked() {
+        final long start = System.nanoTime();
+        int count = 0;
+        batcher.beginPoll();
+        try {
+            count = snapshot();
+            long time = System.currentTimeMillis();
+            if (alignTimestamps) {
+                time = InfluxDBReporter.alignedTime(time, TimeUnit.NANOSECONDS.toMillis(periodNanos), lastAlignedTime);
+                lastAlignedTime = time;
+            }
+            for (int i = 0; i < count; i++) {
+                double value;
+                try {
+                    value = pollMetrics[i].value();
+                } catch (Exception e) {
+                    LOG.debug("Cannot read metric {}", pollMetrics[i].metricName(), e);
+                    continue;
+                }
+                encoder.beginPoint(pollKeys[i]);
+                encoder.addField("value", value);
+                encoder.endPoint(time);
+                batcher.flushIfFull();
+            }
+            batcher.endPoll();
+        } catch (Exception e) {
+            LOG.error("Cannot send metrics to InfluxDB {}", e);
+        } finally {
+            stats.pollCompleted(System.nanoTime() - start, periodNanos, count, batcher.polledPoints(), batcher.polledBytes());
+        }
+    }
+
+    private int snapshot() {
+        int previous = pollSize;
+        synchronized (this) {
+            if (pollMetrics.length < size) {
+                pollMetrics = new KafkaMetric[metrics.length];
+                pollKeys = new SeriesKey[keys.length];
+            }
+            System.arraycopy(metrics, 0, pollMetrics, 0, size);
+            System.arraycopy(keys, 0, pollKeys, 0, size);
+            pollSize = size;
+        }
+        if (pollSize < previous) {
+            // do not keep removed metrics reachable
+            Arrays.fill(pollMetrics, pollSize, previous, null);
+            Arrays.fill(pollKeys, pollSize, previous, null);
+        }
+        return pollSize;
+    }
+
+    public ReporterStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(periodNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (shared != null) {
+            release(shared);
+            shared = null;
+        } else if (writer != null) {
+            writer.close();
+        }
+    }
+
+    private static SharedWriter acquire(WriterConfig config) {
+        synchronized (SHARED_WRITERS) {
+            SharedWriter shared = SHARED_WRITERS.get(config.options());
+            if (shared == null) {
+                ReporterStats stats = new ReporterStats();
+                shared = new SharedWriter(config.options(), config.buildBatchWriter(stats), stats);
+                SHARED_WRITERS.put(shared.options, shared);
+            }
+            shared.references++;
+            return shared;
+        }
+    }
+
+    private static void release(SharedWriter shared) {
+        synchronized (SHARED_WRITERS) {
+            if (--shared.references > 0) {
+                return;
+            }
+            SHARED_WRITERS.remove(shared.options);
+        }
+        synchronized (shared) {
+            shared.writer.close();
+        }
+    }
+
+    /**
+     * A writer stack with its stats and the number of reporters using it.
+     */
+    private static final class SharedWriter {
+        final Map<String, String> options;
+        final BatchWriter writer;
+        final ReporterStats stats;
+        int references;
+
+        SharedWriter(Map<String, String> options, BatchWriter writer, ReporterStats stats) {
+            this.options = options;
+            this.writer = writer;
+            this.stats = stats;
+        }
+    }
+}
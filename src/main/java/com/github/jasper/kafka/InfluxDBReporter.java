@@ -5,10 +5,6 @@ import com.yammer.metrics.core.*;
 import com.yammer.metrics.core.Timer;
 import com.yammer.metrics.reporting.AbstractPollingReporter;
 import com.yammer.metrics.stats.Snapshot;
-import org.influxdb.InfluxDB;
-import org.influxdb.InfluxDBFactory;
-import org.influxdb.dto.BatchPoints;
-import org.influxdb.dto.Point;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -70,31 +66,70 @@ public class InfluxDBReporter extends AbstractPollingReporter implements MetricP
     private static final Logger LOG = LoggerFactory.getLogger(InfluxDBReporter.class);
 
     private static final MetricPredicate DEFAULT_METRIC_PREDICATE = MetricPredicate.ALL;
+    // the gauge slot of a sampled gauge, not read by the gauge evaluator
+    private static final int NOT_SUBMITTED = -1;
 
-    private static final Map<String, InfluxDB.ConsistencyLevel> ConsistencyLevelMap = new HashMap<String, InfluxDB.ConsistencyLevel>(){{
-        put("all", InfluxDB.ConsistencyLevel.ALL);
-        put("any", InfluxDB.ConsistencyLevel.ANY);
-        put("one", InfluxDB.ConsistencyLevel.ONE);
-        put("quorum", InfluxDB.ConsistencyLevel.QUORUM);
-    }};
+    private MetricPredicate metricPredicate = DEFAULT_METRIC_PREDICATE;
 
-    private BatchPoints batchPoints;
+    private final List<MetricsRegistryListener> registryListeners = new ArrayList<MetricsRegistryListener>();
+
+    private final LineProtocolEncoder encoder = new LineProtocolEncoder();
 
-    private String database;
-    private String retentionPolicy;
-    private InfluxDB.ConsistencyLevel consistencyLevel;
     private Map<String, String> tags;
 
-    private InfluxDB influxDBclient;
+    private final BatchWriter writer;
 
     private Clock clock;
 
     private Context context;
 
+    private final SeriesKeyCache seriesKeys;
+
+    private final MetricsRegistryTracker registryTracker = new MetricsRegistryTracker();
+
     protected final VirtualMachineMetrics vm;
 
+    private final JvmMetricsCollector jvmMetrics;
+
     public boolean printVMMetrics = true;
 
+    public boolean printSelfMetrics = false;
+
+    private ReporterStats stats = new ReporterStats();
+
+    private long periodNanos;
+
+    private boolean alignTimestamps;
+    // the timestamp of every point of the current poll when aligned, -1 otherwise
+    private long pollTime = -1;
+
+    private AlignedScheduler scheduler;
+    // the phase offset of the scheduler, taken off before aligning timestamps to the grid
+    private long phaseOffsetMs;
+    private long sendFailures;
+    private long lastAlignedTime = Long.MIN_VALUE;
+    private long ticksCoalesced;
+
+    private ChangeSuppressor changeSuppressor;
+
+    private MetricRollup rollup;
+
+    private CardinalityLimiter cardinalityLimiter;
+
+    private PollingTiers pollingTiers;
+
+    private GaugeFieldTypes gaugeFieldTypes = new GaugeFieldTypes(null);
+
+    private GaugeEvaluator gaugeEvaluator;
+
+    private GaugeSampler gaugeSampler;
+    private final GaugeSampler.Summary gaugeSummary = new GaugeSampler.Summary();
+    private int[] gaugeSlots = new int[0];
+    // index of the registry metric being processed, -1 outside of the regular metrics
+    private int currentMetric = -1;
+
+    private final PointBatcher batcher;
+
     /**
      * simple constructor，for the default metrics registry
      * @param address the address of InfluxDB
@@ -114,142 +149,514 @@ public class InfluxDBReporter extends AbstractPollingReporter implements MetricP
      * Creates a new {@link AbstractPollingReporter} instance.
      **/
     public InfluxDBReporter(MetricsRegistry metricsRegistry, String address, String database, String retentionPolicy, String username, String password, String consistency, String tags, Clock clock, VirtualMachineMetrics vm) {
+        this(metricsRegistry,
+                new InfluxDBBatchWriter(InfluxDBBatchWriter.connect(address, username, password), database, retentionPolicy, consistency),
+                tags, clock, vm);
+    }
+
+    /**
+     * Creates a new {@link AbstractPollingReporter} instance writing through the given {@link BatchWriter}.
+     *
+     * @param metricsRegistry the metrics registry
+     * @param writer the destination of the encoded metrics, closed on shutdown
+     * @param tags custom tags
+     * @param clock           a {@link Clock} instance
+     * @param vm              no longer read, the JVM metrics are written by a {@link JvmMetricsCollector}
+     **/
+    public InfluxDBReporter(MetricsRegistry metricsRegistry, BatchWriter writer, String tags, Clock clock, VirtualMachineMetrics vm) {
         super(metricsRegistry, "influx-reporter");
-        this.database = database;
-        this.retentionPolicy = retentionPolicy;
-        this.consistencyLevel = getConsistencyLevel(consistency);
         this.tags = formatTags(tags);
-        this.influxDBclient = InfluxDBFactory.connect(address, username, password);
+        this.seriesKeys = new SeriesKeyCache(this.tags);
+        this.writer = writer;
+        this.batcher = new PointBatcher(encoder, writer);
         this.clock = clock;
         this.vm = vm;
+        this.jvmMetrics = new JvmMetricsCollector(this.tags);
         this.context = new Context() {
             @Override
             public long getTime() {
-                return InfluxDBReporter.this.clock.time();
+                return pollTime >= 0 ? pollTime : InfluxDBReporter.this.clock.time();
             }
         };
+        addRegistryListener(seriesKeys);
+        addRegistryListener(registryTracker);
+        addRegistryListener(gaugeFieldTypes);
+    }
+
+    /**
+     * Restricts the reported metrics. The predicate is checked before any value is read.
+     */
+    public void setMetricPredicate(MetricPredicate metricPredicate) {
+        this.metricPredicate = metricPredicate;
+        if (metricPredicate instanceof MetricsRegistryListener) {
+            addRegistryListener((MetricsRegistryListener) metricPredicate);
+        }
+    }
+
+    /**
+     * Caps the size of a single write. A poll is sent as it is encoded, in batches of at most
+     * {@code maxPoints} points and {@code maxBytes} bytes, a single larger point excepted.
+     */
+    public void setBatchLimits(int maxPoints, int maxBytes) {
+        batcher.setLimits(maxPoints, maxBytes);
+    }
+
+    /**
+     * Skips gauges and counters whose value did not change since they were last written, still
+     * writing each of them every {@code heartbeatPolls} polls.
+     */
+    public void setChangeSuppression(int heartbeatPolls) {
+        this.changeSuppressor = new ChangeSuppressor(heartbeatPolls);
+        changeSuppressor.setPollingTiers(pollingTiers);
+    }
+
+    /**
+     * Aggregates per-partition gauges and counters per topic or per broker.
+     *
+     * @param topicRules  rules of the metrics aggregated per topic
+     * @param brokerRules rules of the metrics aggregated per broker
+     * @param rawRules    rules of the rolled up metrics whose raw series are still written
+     * @see MetricRollup
+     */
+    public void setRollup(String topicRules, String brokerRules, String rawRules) {
+        this.rollup = new MetricRollup(topicRules, brokerRules, rawRules, tags);
+        rollup.setPollingTiers(pollingTiers);
+        addRegistryListener(rollup);
+    }
+
+    /**
+     * Writes at most {@code maxSeries} series per measurement, folding the least active ones
+     * into an {@code other} bucket.
+     *
+     * @param maxSeries   number of series written per measurement
+     * @param rerankPolls the series written are chosen again every this many polls
+     * @see CardinalityLimiter
+     */
+    public void setCardinalityLimit(int maxSeries, int rerankPolls) {
+        this.cardinalityLimiter = new CardinalityLimiter(maxSeries, rerankPolls, tags);
+        cardinalityLimiter.setPollingTiers(pollingTiers);
+        addRegistryListener(cardinalityLimiter);
+    }
+
+    /**
+     * Polls the metrics of each tier at its own interval. Must be set before {@link #start}, the
+     * reporter then ticks at the greatest common divisor of the period and the tier intervals.
+     * Poll counts of other options are counted in polls of the tier of each metric, or of the
+     * default tier for the rerank period of the cardinality limit and the JVM metrics.
+     *
+     * @see PollingTiers
+     */
+    public void setPollingTiers(PollingTiers pollingTiers) {
+        this.pollingTiers = pollingTiers;
+        addRegistryListener(pollingTiers);
+        if (rollup != null) {
+            rollup.setPollingTiers(pollingTiers);
+        }
+        if (cardinalityLimiter != null) {
+            cardinalityLimiter.setPollingTiers(pollingTiers);
+        }
+        if (changeSuppressor != null) {
+            changeSuppressor.setPollingTiers(pollingTiers);
+        }
+    }
+
+    /**
+     * Writes the integer values of the gauges matching the rules as exact integer fields instead
+     * of floats.
+     *
+     * @see GaugeFieldTypes
+     */
+    public void setIntegerGauges(String rules) {
+        registryListeners.remove(gaugeFieldTypes);
+        getMetricsRegistry().removeListener(gaugeFieldTypes);
+        gaugeFieldTypes = new GaugeFieldTypes(rules);
+        addRegistryListener(gaugeFieldTypes);
+    }
+
+    /**
+     * Reads gauges on a pool of {@code threads} threads, waiting for them at most
+     * {@code deadlineMs} per poll.
+     *
+     * @see GaugeEvaluator
+     */
+    public void setGaugeEvaluation(int threads, long deadlineMs, int strikes, int maxBackoffPolls) {
+        this.gaugeEvaluator = new GaugeEvaluator(threads, deadlineMs, strikes, maxBackoffPolls);
+        addRegistryListener(gaugeEvaluator);
+    }
+
+    /**
+     * Samples the gauges matching the rules every {@code sampleMs} between polls and writes their
+     * minimum, maximum, mean and last value instead of the value at the poll. Must be set before
+     * {@link #start}.
+     *
+     * @see GaugeSampler
+     */
+    public void setGaugeSampling(String rules, long sampleMs) {
+        this.gaugeSampler = new GaugeSampler(rules, sampleMs);
+    }
+
+    /**
+     * Collects each given group of JVM metrics every that many polls only.
+     *
+     * @see JvmMetricsCollector
+     */
+    public void setJvmMetricsEveryPolls(Map<JvmMetricsCollector.Group, Integer> everyPolls) {
+        for (Map.Entry<JvmMetricsCollector.Group, Integer> group : everyPolls.entrySet()) {
+            jvmMetrics.setEveryPolls(group.getKey(), group.getValue());
+        }
+    }
+
+    /**
+     * Writes the points of a poll with one timestamp, the last period boundary before the start
+     * of the poll, so they line up across polls and brokers. A poll starting late by jitter or a
+     * poll started early within the same period gets the next boundary, so no two polls share a
+     * timestamp.
+     */
+    public void setTimestampAlignment(boolean alignTimestamps) {
+        this.alignTimestamps = alignTimestamps;
+    }
+
+    /**
+     * Polls on the wall clock grid of the period, shifted by an offset derived from the phase key,
+     * instead of at a fixed delay. Must be set before {@link #start}.
+     *
+     * @see AlignedScheduler
+     */
+    public void setAlignedScheduling(String phaseKey) {
+        this.scheduler = new AlignedScheduler("influx-reporter", phaseKey);
+    }
+
+    /**
+     * Writes timestamps in the given unit, which must match the precision the writer sends.
+     */
+    public void setPrecision(TimeUnit precision) {
+        encoder.setPrecision(precision);
+    }
+
+    /**
+     * Uses the given stats, shared with the writers, to record the cost of this reporter.
+     */
+    public void setStats(ReporterStats stats) {
+        this.stats = stats;
+        batcher.setStats(stats);
+    }
+
+    public ReporterStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Registers a listener on the metrics registry for the lifetime of this reporter.
+     */
+    void addRegistryListener(MetricsRegistryListener listener) {
+        registryListeners.add(listener);
+        getMetricsRegistry().addListener(listener);
+    }
+
+    @Override
+    public void start(long period, TimeUnit unit) {
+        long slowestPollMs = unit.toMillis(period);
+        if (pollingTiers != null) {
+            period = pollingTiers.start(unit.toMillis(period));
+            unit = TimeUnit.MILLISECONDS;
+            slowestPollMs = period * pollingTiers.slowestTicksPerPoll();
+        }
+        if (gaugeSampler != null) {
+            // sized for the gauges of the slowest tier, drained least often
+            gaugeSampler.setPollingPeriod(slowestPollMs);
+            addRegistryListener(gaugeSampler);
+            gaugeSampler.start();
+        }
+        this.periodNanos = unit.toNanos(period);
+        if (scheduler != null) {
+            phaseOffsetMs = scheduler.phaseOffset(unit.toMillis(period));
+            scheduler.start(this, unit.toMillis(period));
+        } else {
+            super.start(period, unit);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        for (MetricsRegistryListener listener : registryListeners) {
+            getMetricsRegistry().removeListener(listener);
+        }
+        seriesKeys.clear();
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+        super.shutdown();
+        if (gaugeEvaluator != null) {
+            gaugeEvaluator.shutdown();
+        }
+        if (gaugeSampler != null) {
+            gaugeSampler.shutdown();
+        }
+        writer.close();
     }
 
 
     @Override
     public void run() {
+        final long start = System.nanoTime();
+        final long suppressedBefore = changeSuppressor == null ? 0 : changeSuppressor.suppressed();
+        final long limitedBefore = cardinalityLimiter == null ? 0 : cardinalityLimiter.interventions();
+        final long timeoutsBefore = gaugeEvaluator == null ? 0 : gaugeEvaluator.timeouts();
+        int visited = 0;
+        batcher.beginPoll();
+        if (alignTimestamps) {
+            pollTime = alignedTime(clock.time() - phaseOffsetMs, TimeUnit.NANOSECONDS.toMillis(periodNanos), lastAlignedTime);
+            lastAlignedTime = pollTime;
+        }
         try {
-            this.batchPoints = BatchPoints
-                    .database(this.database)
-                    .retentionPolicy(this.retentionPolicy)
-                    .consistency(this.consistencyLevel)
-                    .build();
-            printRegularMetrics(context);
-            if (this.printVMMetrics) {
+            if (changeSuppressor != null) {
+                changeSuppressor.beginPoll();
+            }
+            if (cardinalityLimiter != null) {
+                cardinalityLimiter.beginPoll();
+            }
+            if (pollingTiers != null) {
+                pollingTiers.beginPoll();
+            }
+            final boolean defaultTierDue = pollingTiers == null || pollingTiers.isDefaultDue();
+            visited = printRegularMetrics(context);
+            if (rollup != null) {
+                printRollups(context);
+            }
+            if (cardinalityLimiter != null) {
+                printFoldedSeries(context);
+            }
+            if (this.printVMMetrics && defaultTierDue) {
                 printVmMetrics(context);
+                batcher.flushIfFull();
             }
-
-            this.influxDBclient.write(batchPoints);
+            if (this.printSelfMetrics && defaultTierDue) {
+                printSelfMetrics(context);
+                batcher.flushIfFull();
+            }
+            batcher.endPoll();
+            if (changeSuppressor != null && batcher.writeFailed()) {
+                changeSuppressor.pollFailed();
+            }
+            // batches lost by the senders since the previous poll, of this poll or the previous one
+            long failures = stats.getSendFailures();
+            if (changeSuppressor != null && failures != sendFailures) {
+                changeSuppressor.sendFailed();
+            }
+            sendFailures = failures;
         } catch (Exception e) {
+            if (changeSuppressor != null) {
+                changeSuppressor.pollFailed();
+            }
             LOG.error("Cannot send metrics to InfluxDB {}", e);
+        } finally {
+            pollTime = -1;
+            if (rollup != null) {
+                rollup.endPoll();
+            }
+            stats.pollCompleted(System.nanoTime() - start, periodNanos, visited, batcher.polledPoints(), batcher.polledBytes());
+            if (changeSuppressor != null) {
+                stats.pointsSuppressed(changeSuppressor.suppressed() - suppressedBefore);
+            }
+            if (cardinalityLimiter != null) {
+                stats.seriesLimited(cardinalityLimiter.interventions() - limitedBefore);
+            }
+            if (gaugeEvaluator != null) {
+                stats.gaugeTimeouts(gaugeEvaluator.timeouts() - timeoutsBefore);
+            }
+            if (scheduler != null) {
+                // the ticks skipped after the previous poll
+                long coalesced = scheduler.ticksCoalesced();
+                stats.ticksCoalesced(coalesced - ticksCoalesced);
+                ticksCoalesced = coalesced;
+            }
         }
     }
 
-    void addPoint(Point point){
-        batchPoints.point(point);
+    /**
+     * Rounds a time down to a multiple of the period, or returns the next multiple if that is
+     * the timestamp of the previous poll, so two polls falling in one period, e.g. by fixed rate
+     * jitter, still write distinct points.
+     */
+    static long alignedTime(long timeMs, long periodMs, long previousMs) {
+        if (periodMs <= 0) {
+            return timeMs;
+        }
+        long aligned = Math.floorDiv(timeMs, periodMs) * periodMs;
+        return aligned == previousMs ? aligned + periodMs : aligned;
     }
 
-
-    private void printRegularMetrics(final Context context) {
-        for (Map.Entry<String, SortedMap<MetricName, Metric>> entry : getMetricsRegistry().groupedMetrics(DEFAULT_METRIC_PREDICATE).entrySet()) {
-            for (Map.Entry<MetricName, Metric> subEntry : entry.getValue().entrySet()) {
-                final MetricName metricName = subEntry.getKey();
-                final Metric metric = subEntry.getValue();
-                try {
-                    metric.processWith(this, subEntry.getKey(), context);
-                } catch (Exception ignored) {
-                    LOG.error("Error printing regular metrics:", ignored);
-                }
-            }
-        }
+    LineProtocolEncoder encoder() {
+        return encoder;
     }
 
-    protected void printVmMetrics(final Context context) {
-        Point.Builder pointbuilder;
-        pointbuilder = buildMetricsPointByMeasurement("jvm.memory.heap_usage", context);
-        pointbuilder.addField("value", vm.heapUsage());
-        addPoint(pointbuilder.build());
+    GaugeSampler gaugeSampler() {
+        return gaugeSampler;
+    }
 
-        pointbuilder = buildMetricsPointByMeasurement("jvm.memory.non_heap_usage", context);
-        pointbuilder.addField("value", vm.nonHeapUsage());
-        addPoint(pointbuilder.build());
 
-        for (Map.Entry<String, Double> pool : vm.memoryPoolUsage().entrySet()) {
-            pointbuilder = buildMetricsPointByMeasurement("jvm.memory.memory_pool_usages", context);
-            pointbuilder.tag("pool", pool.getKey());
-            pointbuilder.addField("value", pool.getValue());
-            addPoint(pointbuilder.build());
+    private int printRegularMetrics(final Context context) {
+        int visited = 0;
+        final int count = registryTracker.snapshot();
+        if (gaugeEvaluator != null) {
+            submitGauges(count);
         }
+        for (int i = 0; i < count; i++) {
+            final MetricName metricName = registryTracker.name(i);
+            final Metric metric = registryTracker.metric(i);
+            if (!isDue(metricName, metric)) {
+                continue;
+            }
+            visited++;
+            try {
+                currentMetric = i;
+                metric.processWith(this, metricName, context);
+            } catch (Exception ignored) {
+                encoder.abortPoint();
+                LOG.error("Error printing regular metrics:", ignored);
+            }
+            batcher.flushIfFull();
+        }
+        currentMetric = -1;
+        return visited;
+    }
 
-        pointbuilder = buildMetricsPointByMeasurement("jvm.daemon_thread_count", context);
-        pointbuilder.addField("value", vm.daemonThreadCount());
-        addPoint(pointbuilder.build());
-
-        pointbuilder = buildMetricsPointByMeasurement("jvm.thread_count", context);
-        pointbuilder.addField("value", vm.threadCount());
-        addPoint(pointbuilder.build());
+    private boolean isDue(MetricName metricName, Metric metric) {
+        return metricPredicate.matches(metricName, metric)
+                && (pollingTiers == null || pollingTiers.isDue(metricName));
+    }
 
-        pointbuilder = buildMetricsPointByMeasurement("jvm.uptime", context);
-        pointbuilder.addField("value", vm.uptime());
-        addPoint(pointbuilder.build());
+    // hands the gauges of the poll to the pool before any is written, so they are read meanwhile
+    private void submitGauges(int count) {
+        if (gaugeSlots.length < count) {
+            gaugeSlots = new int[Math.max(count, gaugeSlots.length * 2)];
+        }
+        gaugeEvaluator.beginPoll();
+        for (int i = 0; i < count; i++) {
+            final MetricName metricName = registryTracker.name(i);
+            final Metric metric = registryTracker.metric(i);
+            if (metric instanceof Gauge && isDue(metricName, metric)) {
+                gaugeSlots[i] = gaugeSampler != null && gaugeSampler.isSampled(metricName)
+                        ? NOT_SUBMITTED : gaugeEvaluator.submit(metricName, (Gauge<?>) metric);
+            }
+        }
+        gaugeEvaluator.start();
+    }
 
-        pointbuilder = buildMetricsPointByMeasurement("jvm.fd_usage", context);
-        pointbuilder.addField("value", vm.fileDescriptorUsage());
-        addPoint(pointbuilder.build());
+    private void printRollups(final Context context) {
+        long time = context.getTime();
+        int count = rollup.size();
+        for (int i = 0; i < count; i++) {
+            rollup.encode(i, encoder, time);
+            batcher.flushIfFull();
+        }
+    }
 
-        for (Map.Entry<Thread.State, Double> entry : vm.threadStatePercentages().entrySet()) {
-            pointbuilder = buildMetricsPointByMeasurement("jvm.memory.thread_states", context);
-            pointbuilder.tag("state", entry.getKey().toString().toLowerCase());
-            pointbuilder.addField("value", entry.getValue());
-            addPoint(pointbuilder.build());
+    private void printFoldedSeries(final Context context) {
+        long time = context.getTime();
+        int count = cardinalityLimiter.size();
+        for (int i = 0; i < count; i++) {
+            cardinalityLimiter.encode(i, encoder, time);
+            batcher.flushIfFull();
         }
+    }
 
-        for (Map.Entry<String, VirtualMachineMetrics.GarbageCollectorStats> entry : vm.garbageCollectors().entrySet()) {
-            pointbuilder = buildMetricsPointByMeasurement("jvm.gc", context);
-            pointbuilder.tag("gcName", entry.getKey());
-            pointbuilder.addField("time", entry.getValue().getTime(TimeUnit.MILLISECONDS));
-            pointbuilder.addField("runs", entry.getValue().getRuns());
-            addPoint(pointbuilder.build());
+    private void printSelfMetrics(final Context context) {
+        for (Map.Entry<MetricName, Metric> entry : stats.registry().allMetrics().entrySet()) {
+            try {
+                entry.getValue().processWith(this, entry.getKey(), context);
+            } catch (Exception ignored) {
+                encoder.abortPoint();
+                LOG.error("Error printing reporter metrics:", ignored);
+            }
         }
     }
 
+    protected void printVmMetrics(final Context context) {
+        jvmMetrics.collect(encoder, context.getTime());
+    }
 
-    public void processGauge(MetricName name, Gauge<?> gauge, Context context) throws Exception {
 
-        Point.Builder pointbuilder = buildMetricsPointByMetricName(name, context);
-        pointbuilder.tag("metric_type", "gague");
+    public void processGauge(MetricName name, Gauge<?> gauge, Context context) throws Exception {
 
-        Object fieldValue = gauge.value();
+        if (gaugeSampler != null && gaugeSampler.isSampled(name)) {
+            // read on the sampling threads, a gauge without samples is left out
+            if (gaugeSampler.drain(name, gaugeSummary)) {
+                processSampledGauge(name, gaugeSummary, context);
+            }
+            return;
+        }
+        if (gaugeEvaluator != null && currentMetric >= 0 && gaugeSlots[currentMetric] == NOT_SUBMITTED) {
+            // no longer sampled since the gauges of the poll were submitted
+            return;
+        }
+        Object fieldValue = gaugeEvaluator == null || currentMetric < 0
+                ? gauge.value() : gaugeEvaluator.value(gaugeSlots[currentMetric]);
+        if (fieldValue == null) {
+            return;
+        }
         String fieldName = "value";
-        // Long Interger transfer Float in case of schema conflict
-        if (fieldValue instanceof Float)
-            pointbuilder.addField(fieldName, (Float) fieldValue);
-        else if (fieldValue instanceof Double)
-            pointbuilder.addField(fieldName, (Double) fieldValue);
-        else if (fieldValue instanceof Long)
-            pointbuilder.addField(fieldName, Float.valueOf(((Long) fieldValue).toString()));
-        else if (fieldValue instanceof Integer)
-            pointbuilder.addField(fieldName, Float.valueOf(((Integer) fieldValue).toString()));
-        else if (fieldValue instanceof String)
-            pointbuilder.addField(fieldName, (String) fieldValue);
-        else
+        if (rollup != null && fieldValue instanceof Number
+                && !rollup.add(name, "gague", ((Number) fieldValue).doubleValue())) {
             return;
-        addPoint(pointbuilder.build());
+        }
+        SeriesKey seriesKey = seriesKey(name, "gague", null);
+        if (!admit(name, seriesKey, fieldValue instanceof Number ? ((Number) fieldValue).doubleValue() : 0)) {
+            return;
+        }
+        if (changeSuppressor != null && !(fieldValue instanceof Number
+                ? changeSuppressor.shouldWrite(seriesKey, valueBits((Number) fieldValue))
+                : changeSuppressor.shouldWrite(seriesKey, fieldValue))) {
+            return;
+        }
+        GaugeFieldTypes.FieldType fieldType = gaugeFieldTypes.get(name, fieldValue);
+        encoder.beginPoint(seriesKey);
+        if (!GaugeFieldTypes.addField(encoder, fieldName, fieldType, fieldValue)) {
+            LOG.debug("Gauge {} changed its value type to {}", name, fieldValue.getClass());
+        }
+        encoder.endPoint(context.getTime());
+    }
+
+    private void processSampledGauge(MetricName name, GaugeSampler.Summary summary, Context context) {
+        SeriesKey seriesKey = seriesKey(name, "gague", null);
+        if (!admit(name, seriesKey, summary.last)) {
+            return;
+        }
+        // compared field by field, the suppressor keeps the copy
+        if (changeSuppressor != null && !changeSuppressor.shouldWrite(seriesKey, summary.copy())) {
+            return;
+        }
+        encoder.beginPoint(seriesKey);
+        encoder.addField("min", summary.min);
+        encoder.addField("max", summary.max);
+        encoder.addField("mean", summary.mean);
+        encoder.addField("last", summary.last);
+        encoder.endPoint(context.getTime());
+    }
+
+    private static long valueBits(Number value) {
+        if (value instanceof Double || value instanceof Float)
+            return Double.doubleToLongBits(value.doubleValue());
+        return value.longValue();
     }
 
     @Override
     public void processCounter(MetricName metricName, Counter counter, Context context) throws Exception {
 
-        Point.Builder pointbuilder = buildMetricsPointByMetricName(metricName, context);
-        pointbuilder.tag("metric_type", "counter");
-
-        pointbuilder.addField("count", counter.count());
-        addPoint(pointbuilder.build());
+        long count = counter.count();
+        if (rollup != null && !rollup.add(metricName, "counter", count)) {
+            return;
+        }
+        SeriesKey seriesKey = seriesKey(metricName, "counter", null);
+        if (!admit(metricName, seriesKey, count)) {
+            return;
+        }
+        if (changeSuppressor != null && !changeSuppressor.shouldWrite(seriesKey, count)) {
+            return;
+        }
+        encoder.beginPoint(seriesKey);
+        encoder.addField("count", count);
+        encoder.endPoint(context.getTime());
 
     }
 
@@ -257,19 +664,19 @@ public class InfluxDBReporter extends AbstractPollingReporter implements MetricP
     @Override
     public void processMeter(MetricName metricName, Metered meter, Context context) throws Exception {
 
-        Point.Builder pointbuilder = buildMetricsPointByMetricName(metricName, context);
-        pointbuilder.tag("metric_type", "meter");
-        pointbuilder.tag("eventType", meter.eventType());
-
-
-        pointbuilder.addField("count", meter.count());
-        pointbuilder.addField("meanRate", meter.meanRate());
-        pointbuilder.addField("1MinuteRate", meter.oneMinuteRate());
-        pointbuilder.addField("5MinuteRate", meter.fiveMinuteRate());
-        pointbuilder.addField("15MinuteRate", meter.fifteenMinuteRate());
+        SeriesKey seriesKey = seriesKey(metricName, "meter", meter.eventType());
+        if (!admit(metricName, seriesKey, meter.count())) {
+            return;
+        }
+        encoder.beginPoint(seriesKey);
 
+        encoder.addField("count", meter.count());
+        encoder.addField("meanRate", meter.meanRate());
+        encoder.addField("1MinuteRate", meter.oneMinuteRate());
+        encoder.addField("5MinuteRate", meter.fiveMinuteRate());
+        encoder.addField("15MinuteRate", meter.fifteenMinuteRate());
 
-        addPoint(pointbuilder.build());
+        encoder.endPoint(context.getTime());
 
     }
 
@@ -278,89 +685,77 @@ public class InfluxDBReporter extends AbstractPollingReporter implements MetricP
     public void processHistogram(MetricName metricName, Histogram histogram, Context context) throws Exception {
         final Snapshot snapshot = histogram.getSnapshot();
 
-        Point.Builder pointbuilder = buildMetricsPointByMetricName(metricName, context);
-        pointbuilder.tag("metric_type", "histogram");
+        SeriesKey seriesKey = seriesKey(metricName, "histogram", null);
+        if (!admit(metricName, seriesKey, histogram.count())) {
+            return;
+        }
+        encoder.beginPoint(seriesKey);
 
-        pointbuilder.addField("max", histogram.max());
-        pointbuilder.addField("mean", histogram.mean());
-        pointbuilder.addField("min", histogram.min());
-        pointbuilder.addField("stddev", histogram.max());
-        pointbuilder.addField("sum", histogram.sum());
+        encoder.addField("max", histogram.max());
+        encoder.addField("mean", histogram.mean());
+        encoder.addField("min", histogram.min());
+        encoder.addField("stddev", histogram.stdDev());
+        encoder.addField("sum", histogram.sum());
 
-        pointbuilder.addField("median", snapshot.getMedian());
-        pointbuilder.addField("p75", snapshot.get75thPercentile());
-        pointbuilder.addField("p95", snapshot.get95thPercentile());
-        pointbuilder.addField("p98", snapshot.get98thPercentile());
-        pointbuilder.addField("p99", snapshot.get99thPercentile());
-        pointbuilder.addField("p999", snapshot.get999thPercentile());
+        encoder.addField("median", snapshot.getMedian());
+        encoder.addField("p75", snapshot.get75thPercentile());
+        encoder.addField("p95", snapshot.get95thPercentile());
+        encoder.addField("p98", snapshot.get98thPercentile());
+        encoder.addField("p99", snapshot.get99thPercentile());
+        encoder.addField("p999", snapshot.get999thPercentile());
 
-        addPoint(pointbuilder.build());
+        encoder.endPoint(context.getTime());
 
     }
 
     public void processTimer(MetricName metricName, Timer timer, Context context) throws Exception {
         final Snapshot snapshot = timer.getSnapshot();
 
-        Point.Builder pointbuilder = buildMetricsPointByMetricName(metricName, context);
-        pointbuilder.tag("metric_type", "timer");
-
+        SeriesKey seriesKey = seriesKey(metricName, "timer", null);
+        if (!admit(metricName, seriesKey, timer.count())) {
+            return;
+        }
+        encoder.beginPoint(seriesKey);
 
-        pointbuilder.addField("count", timer.count());
-        pointbuilder.addField("meanRate", timer.meanRate());
-        pointbuilder.addField("1MinuteRate", timer.oneMinuteRate());
-        pointbuilder.addField("5MinuteRate", timer.fiveMinuteRate());
-        pointbuilder.addField("15MinuteRate", timer.fifteenMinuteRate());
 
+        encoder.addField("count", timer.count());
+        encoder.addField("meanRate", timer.meanRate());
+        encoder.addField("1MinuteRate", timer.oneMinuteRate());
+        encoder.addField("5MinuteRate", timer.fiveMinuteRate());
+        encoder.addField("15MinuteRate", timer.fifteenMinuteRate());
 
-        pointbuilder.addField("max", timer.max());
-        pointbuilder.addField("mean", timer.mean());
-        pointbuilder.addField("min", timer.min());
-        pointbuilder.addField("stddev", timer.max());
-        pointbuilder.addField("sum", timer.sum());
 
-        pointbuilder.addField("median", snapshot.getMedian());
-        pointbuilder.addField("p75", snapshot.get75thPercentile());
-        pointbuilder.addField("p95", snapshot.get95thPercentile());
-        pointbuilder.addField("p98", snapshot.get98thPercentile());
-        pointbuilder.addField("p99", snapshot.get99thPercentile());
-        pointbuilder.addField("p999", snapshot.get999thPercentile());
+        encoder.addField("max", timer.max());
+        encoder.addField("mean", timer.mean());
+        encoder.addField("min", timer.min());
+        encoder.addField("stddev", timer.stdDev());
+        encoder.addField("sum", timer.sum());
 
+        encoder.addField("median", snapshot.getMedian());
+        encoder.addField("p75", snapshot.get75thPercentile());
+        encoder.addField("p95", snapshot.get95thPercentile());
+        encoder.addField("p98", snapshot.get98thPercentile());
+        encoder.addField("p99", snapshot.get99thPercentile());
+        encoder.addField("p999", snapshot.get999thPercentile());
 
-        addPoint(pointbuilder.build());
-    }
 
-    Point.Builder buildMetricsPointByMeasurement(String measurement, Context context) {
-        return Point.measurement(measurement)
-                .time(context.getTime(), TimeUnit.MILLISECONDS)
-                .tag(this.tags);
+        encoder.endPoint(context.getTime());
     }
 
-    Point.Builder buildMetricsPointByMetricName(MetricName metricName, Context context) {
-
-        Point.Builder pointbuilder = Point.measurement(metricName.getName())
-                .time(context.getTime(), TimeUnit.MILLISECONDS)
-                .tag(this.tags)
-                .tag("group", metricName.getGroup())
-                .tag("type", metricName.getType());
-
-        if (metricName.hasScope()) {
-            String scope = metricName.getScope();
-            List<String> scopes = Arrays.asList(scope.split("\\."));
-            if (scopes.size() % 2 == 0) {
-                Iterator<String> iterator = scopes.iterator();
-                while (iterator.hasNext()) {
-                    pointbuilder.tag(iterator.next(), iterator.next());
-                }
-            } else pointbuilder.tag("scope", scope);
-        }
-        return pointbuilder;
+    /**
+     * Tells whether a series passes the cardinality limit, if any.
+     *
+     * @param value the main value of the series: the gauge value or the count
+     */
+    boolean admit(MetricName metricName, SeriesKey seriesKey, double value) {
+        return cardinalityLimiter == null || cardinalityLimiter.admit(metricName, seriesKey, value);
     }
 
-    InfluxDB.ConsistencyLevel getConsistencyLevel(String consistencyLevel) {
-        return ConsistencyLevelMap.get(consistencyLevel);
+    SeriesKey seriesKey(MetricName metricName, String metricType, String eventType) {
+        return seriesKeys.get(metricName, metricType, eventType);
     }
 
-    Map<String, String> formatTags(String tags) {
+    static Map<String, String> formatTags(String tags) {
        Map<String, String> formatedTags = new HashMap<String, String>();
         String[] kvsArr = tags.split(",");
        for(String kvs: kvsArr) {
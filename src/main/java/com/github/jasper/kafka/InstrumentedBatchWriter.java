@@ -0,0 +1,42 @@
+package com.github.jasper.kafka;
+
+/**
+ * Records the latency and failures of the writes of its delegate in {@link ReporterStats}.
+ */
+public class InstrumentedBatchWriter implements BatchWriter {
+
+    private final BatchWriter delegate;
+    private final ReporterStats stats;
+
+    public InstrumentedBatchWriter(BatchWriter delegate, ReporterStats stats) {
+        this.delegate = delegate;
+        this.stats = stats;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length, int points) throws Exception {
+        long start = System.nanoTime();
+        try {
+            delegate.write(buffer, offset, length, points);
+        } catch (Exception e) {
+            stats.writeFailed(System.nanoTime() - start);
+            throw e;
+        }
+        stats.writeCompleted(System.nanoTime() - start);
+    }
+
+    @Override
+    public void beginPoll() {
+        delegate.beginPoll();
+    }
+
+    @Override
+    public boolean failedThisPoll() {
+        return delegate.failedThisPoll();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
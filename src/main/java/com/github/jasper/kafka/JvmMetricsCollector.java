@@ -0,0 +1,301 @@
+package com.github.jasper.kafka;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.RuntimeMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the JVM metrics from MXBeans looked up once, with the series key of every pool,
+ * collector and thread state built up front.
+ *
+ * The metrics are split in {@link Group}s by what they cost to read, each collected every
+ * {@code n}th poll: thread states need the info of every thread and default to every 6th poll,
+ * everything else is read every poll. Besides the measurements of {@code VirtualMachineMetrics},
+ * it writes the bytes allocated since the last collection, the GC time and runs since the last
+ * collection and the usage of the direct and mapped buffer pools.
+ *
+ * Only used from the polling thread.
+ */
+public class JvmMetricsCollector {
+
+    /**
+     * The metrics read together, by property name.
+     */
+    public enum Group {
+        MEMORY("memory"),
+        MEMORY_POOLS("memory_pools"),
+        THREADS("threads"),
+        THREAD_STATES("thread_states"),
+        GC("gc"),
+        BUFFER_POOLS("buffer_pools"),
+        ALLOCATION("allocation"),
+        RUNTIME("runtime");
+
+        final String propertyName;
+
+        Group(String propertyName) {
+            this.propertyName = propertyName;
+        }
+    }
+
+    private static final int DEFAULT_THREAD_STATES_EVERY_POLLS = 6;
+    private static final Thread.State[] THREAD_STATES = Thread.State.values();
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private final MemoryPoolMXBean[] memoryPools;
+    private final GarbageCollectorMXBean[] collectors;
+    private final BufferPoolMXBean[] bufferPools;
+    private final com.sun.management.ThreadMXBean allocation;
+
+    private final SeriesKey heapKey;
+    private final SeriesKey nonHeapKey;
+    private final SeriesKey[] memoryPoolKeys;
+    private final SeriesKey daemonThreadsKey;
+    private final SeriesKey threadsKey;
+    private final SeriesKey[] threadStateKeys;
+    private final SeriesKey[] collectorKeys;
+    private final SeriesKey[] bufferPoolKeys;
+    private final SeriesKey allocatedKey;
+    private final SeriesKey uptimeKey;
+    private final SeriesKey fdKey;
+
+    private final int[] everyPolls = new int[Group.values().length];
+    private long polls;
+
+    private final int[] threadStateCounts = new int[THREAD_STATES.length];
+    private final long[] collectorTimes;
+    private final long[] collectorRuns;
+    private boolean collectorsSampled;
+    private long[] allocationIds;
+    private long[] allocatedBytes;
+
+    /**
+     * @param tags the global tags of every point
+     */
+    public JvmMetricsCollector(Map<String, String> tags) {
+        List<MemoryPoolMXBean> memoryPools = ManagementFactory.getMemoryPoolMXBeans();
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        List<BufferPoolMXBean> bufferPools = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+        this.memoryPools = memoryPools.toArray(new MemoryPoolMXBean[memoryPools.size()]);
+        this.collectors = collectors.toArray(new GarbageCollectorMXBean[collectors.size()]);
+        this.bufferPools = bufferPools.toArray(new BufferPoolMXBean[bufferPools.size()]);
+        this.allocation = allocationBean(threads);
+
+        heapKey = SeriesKey.of("jvm.memory.heap_usage", tags, null, null);
+        nonHeapKey = SeriesKey.of("jvm.memory.non_heap_usage", tags, null, null);
+        memoryPoolKeys = new SeriesKey[this.memoryPools.length];
+        for (int i = 0; i < memoryPoolKeys.length; i++) {
+            memoryPoolKeys[i] = SeriesKey.of("jvm.memory.memory_pool_usages", tags, "pool", this.memoryPools[i].getName());
+        }
+        daemonThreadsKey = SeriesKey.of("jvm.daemon_thread_count", tags, null, null);
+        threadsKey = SeriesKey.of("jvm.thread_count", tags, null, null);
+        threadStateKeys = new SeriesKey[THREAD_STATES.length];
+        for (int i = 0; i < threadStateKeys.length; i++) {
+            threadStateKeys[i] = SeriesKey.of("jvm.memory.thread_states", tags, "state", THREAD_STATES[i].toString().toLowerCase());
+        }
+        collectorKeys = new SeriesKey[this.collectors.length];
+        for (int i = 0; i < collectorKeys.length; i++) {
+            collectorKeys[i] = SeriesKey.of("jvm.gc", tags, "gcName", this.collectors[i].getName());
+        }
+        bufferPoolKeys = new SeriesKey[this.bufferPools.length];
+        for (int i = 0; i < bufferPoolKeys.length; i++) {
+            bufferPoolKeys[i] = SeriesKey.of("jvm.buffer_pool", tags, "pool", this.bufferPools[i].getName());
+        }
+        allocatedKey = SeriesKey.of("jvm.memory.allocated", tags, null, null);
+        uptimeKey = SeriesKey.of("jvm.uptime", tags, null, null);
+        fdKey = SeriesKey.of("jvm.fd_usage", tags, null, null);
+
+        collectorTimes = new long[this.collectors.length];
+        collectorRuns = new long[this.collectors.length];
+        Arrays.fill(everyPolls, 1);
+        everyPolls[Group.THREAD_STATES.ordinal()] = DEFAULT_THREAD_STATES_EVERY_POLLS;
+    }
+
+    // the per-thread allocation counters are a HotSpot extension, absent or disabled elsewhere
+    private static com.sun.management.ThreadMXBean allocationBean(ThreadMXBean threads) {
+        try {
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+                if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                    return bean;
+                }
+            }
+        } catch (LinkageError e) {
+            // not a HotSpot JVM
+        }
+        return null;
+    }
+
+    /**
+     * Reads the groups from the properties named {@code <prefix><group>}, each holding the
+     * number of polls between two collections of its group.
+     *
+     * @return the configured groups only
+     */
+    public static Map<Group, Integer> fromProperties(Properties properties, String prefix) {
+        Map<Group, Integer> everyPolls = new EnumMap<Group, Integer>(Group.class);
+        for (Group group : Group.values()) {
+            String value = properties.getProperty(prefix + group.propertyName);
+            if (value != null) {
+                everyPolls.put(group, Integer.parseInt(value.trim()));
+            }
+        }
+        return everyPolls;
+    }
+
+    /**
+     * Collects a group every {@code everyPolls} polls only, or never if it is not positive.
+     */
+    public void setEveryPolls(Group group, int everyPolls) {
+        this.everyPolls[group.ordinal()] = everyPolls;
+    }
+
+    private boolean isDue(Group group) {
+        int every = everyPolls[group.ordinal()];
+        return every > 0 && polls % every == 0;
+    }
+
+    /**
+     * Writes the groups due in this poll.
+     */
+    public void collect(LineProtocolEncoder encoder, long time) {
+        if (isDue(Group.MEMORY)) {
+            writeUsage(encoder, heapKey, memory.getHeapMemoryUsage(), time);
+            writeUsage(encoder, nonHeapKey, memory.getNonHeapMemoryUsage(), time);
+        }
+        if (isDue(Group.MEMORY_POOLS)) {
+            for (int i = 0; i < memoryPools.length; i++) {
+                MemoryUsage usage = memoryPools[i].getUsage();
+                if (usage != null) {
+                    writeUsage(encoder, memoryPoolKeys[i], usage, time);
+                }
+            }
+        }
+        if (isDue(Group.THREADS)) {
+            writeValue(encoder, daemonThreadsKey, (long) threads.getDaemonThreadCount(), time);
+            writeValue(encoder, threadsKey, (long) threads.getThreadCount(), time);
+        }
+        long[] threadIds = null;
+        if (isDue(Group.THREAD_STATES)) {
+            threadIds = threads.getAllThreadIds();
+            writeThreadStates(encoder, threadIds, time);
+        }
+        if (isDue(Group.GC)) {
+            writeCollectors(encoder, time);
+        }
+        if (isDue(Group.BUFFER_POOLS)) {
+            for (int i = 0; i < bufferPools.length; i++) {
+                encoder.beginPoint(bufferPoolKeys[i]);
+                encoder.addField("count", bufferPools[i].getCount());
+                encoder.addField("used", bufferPools[i].getMemoryUsed());
+                encoder.addField("capacity", bufferPools[i].getTotalCapacity());
+                encoder.endPoint(time);
+            }
+        }
+        if (allocation != null && isDue(Group.ALLOCATION)) {
+            writeAllocation(encoder, threadIds != null ? threadIds : threads.getAllThreadIds(), time);
+        }
+        if (isDue(Group.RUNTIME)) {
+            writeValue(encoder, uptimeKey, TimeUnit.MILLISECONDS.toSeconds(runtime.getUptime()), time);
+            if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+                com.sun.management.UnixOperatingSystemMXBean unix = (com.sun.management.UnixOperatingSystemMXBean) os;
+                writeValue(encoder, fdKey, unix.getOpenFileDescriptorCount() / (double) unix.getMaxFileDescriptorCount(), time);
+            }
+        }
+        polls++;
+    }
+
+    private static void writeUsage(LineProtocolEncoder encoder, SeriesKey key, MemoryUsage usage, long time) {
+        // an undefined maximum is reported as -1, use the committed size instead
+        long max = usage.getMax() == -1 ? usage.getCommitted() : usage.getMax();
+        writeValue(encoder, key, usage.getUsed() / (double) max, time);
+    }
+
+    private static void writeValue(LineProtocolEncoder encoder, SeriesKey key, double value, long time) {
+        encoder.beginPoint(key);
+        encoder.addField("value", value);
+        encoder.endPoint(time);
+    }
+
+    private static void writeValue(LineProtocolEncoder encoder, SeriesKey key, long value, long time) {
+        encoder.beginPoint(key);
+        encoder.addField("value", value);
+        encoder.endPoint(time);
+    }
+
+    private void writeThreadStates(LineProtocolEncoder encoder, long[] threadIds, long time) {
+        // no stack traces, only the state of each thread
+        ThreadInfo[] infos = threads.getThreadInfo(threadIds, 0);
+        Arrays.fill(threadStateCounts, 0);
+        int live = 0;
+        for (ThreadInfo info : infos) {
+            if (info != null) {
+                threadStateCounts[info.getThreadState().ordinal()]++;
+                live++;
+            }
+        }
+        for (int i = 0; i < threadStateKeys.length; i++) {
+            writeValue(encoder, threadStateKeys[i], live == 0 ? 0.0 : threadStateCounts[i] / (double) live, time);
+        }
+    }
+
+    private void writeCollectors(LineProtocolEncoder encoder, long time) {
+        for (int i = 0; i < collectors.length; i++) {
+            long collectionTime = collectors[i].getCollectionTime();
+            long runs = collectors[i].getCollectionCount();
+            encoder.beginPoint(collectorKeys[i]);
+            encoder.addField("time", collectionTime);
+            encoder.addField("runs", runs);
+            if (collectorsSampled) {
+                encoder.addField("time_delta", Math.max(0, collectionTime - collectorTimes[i]));
+                encoder.addField("runs_delta", Math.max(0, runs - collectorRuns[i]));
+            }
+            encoder.endPoint(time);
+            collectorTimes[i] = collectionTime;
+            collectorRuns[i] = runs;
+        }
+        collectorsSampled = true;
+    }
+
+    private void writeAllocation(LineProtocolEncoder encoder, long[] threadIds, long time) {
+        long[] ids = threadIds.clone();
+        Arrays.sort(ids);
+        long[] bytes = allocation.getThreadAllocatedBytes(ids);
+        if (allocationIds != null) {
+            // matches threads by id, a thread started since the last collection counts from 0
+            long allocated = 0;
+            int previous = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] < 0) {
+                    // terminated meanwhile
+                    continue;
+                }
+                while (previous < allocationIds.length && allocationIds[previous] < ids[i]) {
+                    previous++;
+                }
+                long before = previous < allocationIds.length && allocationIds[previous] == ids[i]
+                        ? Math.max(0, allocatedBytes[previous]) : 0;
+                allocated += Math.max(0, bytes[i] - before);
+            }
+            writeValue(encoder, allocatedKey, allocated, time);
+        }
+        allocationIds = ids;
+        allocatedBytes = bytes;
+    }
+}
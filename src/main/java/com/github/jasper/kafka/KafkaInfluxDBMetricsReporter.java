@@ -1,5 +1,6 @@
 package com.github.jasper.kafka;
 
+import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 
 import com.yammer.metrics.core.VirtualMachineMetrics;
@@ -9,6 +10,7 @@ import org.slf4j.LoggerFactory;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Clock;
 import java.util.EnumSet;
+import java.util.Map;
 
 import kafka.metrics.KafkaMetricsConfig;
 import kafka.metrics.KafkaMetricsReporter;
@@ -18,28 +20,65 @@ public class KafkaInfluxDBMetricsReporter implements KafkaMetricsReporter, Kafka
 
     private static final Logger LOG = LoggerFactory.getLogger(KafkaInfluxDBMetricsReporter.class);
 
-    private static final String INFLUXDB_DEFAULT_ADDRESS = "http://localhost:8060";
-    private static final String INFLUXDB_DEFAULT_USERNAME = "root";
-    private static final String INFLUXDB_DEFAULT_PASSWORD = "root";
-    private static final String INFLUXDB_DEFAULT_CONSISTENCY = "all";
-    private static final String INFLUXDB_DEFAULT_DATABASE = "kafka";
-    private static final String INFLUXDB_DEFAULT_RETENTIONPOLICY = "autogen";
     private static final String INFLUXDB_DEFAULT_TAGS = "hostname:"+HostUtils.getHostName();
+    private static final int INFLUXDB_DEFAULT_BATCH_MAX_POINTS = 5000;
+    private static final int INFLUXDB_DEFAULT_BATCH_MAX_BYTES = 1024 * 1024;
+    private static final boolean INFLUXDB_DEFAULT_SELF_METRICS = false;
+    private static final boolean INFLUXDB_DEFAULT_SUPPRESS_UNCHANGED = false;
+    private static final int INFLUXDB_DEFAULT_SUPPRESS_HEARTBEAT_POLLS = 30;
+    private static final String INFLUXDB_DEFAULT_ROLLUP_TOPIC = "";
+    private static final String INFLUXDB_DEFAULT_ROLLUP_BROKER = "";
+    private static final String INFLUXDB_DEFAULT_ROLLUP_RAW = "";
+    private static final int INFLUXDB_DEFAULT_MAX_SERIES_PER_MEASUREMENT = 0;
+    private static final int INFLUXDB_DEFAULT_MAX_SERIES_RERANK_POLLS = 10;
+    private static final int INFLUXDB_DEFAULT_GAUGE_THREADS = 0;
+    private static final long INFLUXDB_DEFAULT_GAUGE_DEADLINE_MS = 2000;
+    private static final int INFLUXDB_DEFAULT_GAUGE_QUARANTINE_STRIKES = 3;
+    private static final int INFLUXDB_DEFAULT_GAUGE_QUARANTINE_MAX_POLLS = 64;
+    private static final String INFLUXDB_DEFAULT_GAUGE_INTEGER = "";
+    private static final String INFLUXDB_DEFAULT_SAMPLE_GAUGES = "";
+    private static final long INFLUXDB_DEFAULT_SAMPLE_MS = 1000;
+    private static final boolean INFLUXDB_DEFAULT_TIMESTAMP_ALIGN = false;
+    private static final boolean INFLUXDB_DEFAULT_SCHEDULER_ALIGNED = true;
+    private static final boolean INFLUXDB_DEFAULT_SCHEDULER_PHASE_OFFSET = true;
+    private static final String INFLUXDB_DEFAULT_INCLUDE = "";
+    private static final String INFLUXDB_DEFAULT_EXCLUDE = "";
 
 
     private boolean initialized = false;
     private boolean running = false;
     private FilteredInfluxDBReporter reporter = null;
-    private String influxDBAddress = INFLUXDB_DEFAULT_ADDRESS;
-    private String influxDBUsername = INFLUXDB_DEFAULT_USERNAME;
-    private String influxDBPassword = INFLUXDB_DEFAULT_PASSWORD;
-    private String influxDBConsistency = INFLUXDB_DEFAULT_CONSISTENCY;
-    private String influxDBDatabase = INFLUXDB_DEFAULT_DATABASE;
-    private String influxDBRetentionPolicy = INFLUXDB_DEFAULT_RETENTIONPOLICY;
+    private WriterConfig writerConfig = new WriterConfig(new Properties());
     private String influxDBTags = INFLUXDB_DEFAULT_TAGS;
+    private int batchMaxPoints = INFLUXDB_DEFAULT_BATCH_MAX_POINTS;
+    private int batchMaxBytes = INFLUXDB_DEFAULT_BATCH_MAX_BYTES;
+    private boolean selfMetrics = INFLUXDB_DEFAULT_SELF_METRICS;
+    private boolean suppressUnchanged = INFLUXDB_DEFAULT_SUPPRESS_UNCHANGED;
+    private int suppressHeartbeatPolls = INFLUXDB_DEFAULT_SUPPRESS_HEARTBEAT_POLLS;
+    private String rollupTopic = INFLUXDB_DEFAULT_ROLLUP_TOPIC;
+    private String rollupBroker = INFLUXDB_DEFAULT_ROLLUP_BROKER;
+    private String rollupRaw = INFLUXDB_DEFAULT_ROLLUP_RAW;
+    private int maxSeriesPerMeasurement = INFLUXDB_DEFAULT_MAX_SERIES_PER_MEASUREMENT;
+    private int maxSeriesRerankPolls = INFLUXDB_DEFAULT_MAX_SERIES_RERANK_POLLS;
+    private PollingTiers pollingTiers;
+    private Map<JvmMetricsCollector.Group, Integer> jvmEveryPolls;
+    private String gaugeInteger = INFLUXDB_DEFAULT_GAUGE_INTEGER;
+    private String sampleGauges = INFLUXDB_DEFAULT_SAMPLE_GAUGES;
+    private long sampleMs = INFLUXDB_DEFAULT_SAMPLE_MS;
+    private int gaugeThreads = INFLUXDB_DEFAULT_GAUGE_THREADS;
+    private long gaugeDeadlineMs = INFLUXDB_DEFAULT_GAUGE_DEADLINE_MS;
+    private int gaugeQuarantineStrikes = INFLUXDB_DEFAULT_GAUGE_QUARANTINE_STRIKES;
+    private int gaugeQuarantineMaxPolls = INFLUXDB_DEFAULT_GAUGE_QUARANTINE_MAX_POLLS;
+    private boolean timestampAlign = INFLUXDB_DEFAULT_TIMESTAMP_ALIGN;
+    private boolean schedulerAligned = INFLUXDB_DEFAULT_SCHEDULER_ALIGNED;
+    private boolean schedulerPhaseOffset = INFLUXDB_DEFAULT_SCHEDULER_PHASE_OFFSET;
+    private String metricIncludes = INFLUXDB_DEFAULT_INCLUDE;
+    private String metricExcludes = INFLUXDB_DEFAULT_EXCLUDE;
 
     private EnumSet<Dimension> metricDimensions;
 
+    private final ReporterStats stats = new ReporterStats();
+
     @Override
     public String getMBeanName() {
         return "kafka:type=" + KafkaInfluxDBMetricsReporter.class.getName();
@@ -48,6 +87,9 @@ public class KafkaInfluxDBMetricsReporter implements KafkaMetricsReporter, Kafka
     @Override
     public synchronized void startReporter(long pollingPeriodSecs) {
         if (initialized && !running) {
+            if (reporter == null) {
+                reporter = buildInfluxDBReporter();
+            }
             reporter.start(pollingPeriodSecs, TimeUnit.SECONDS);
             running = true;
             LOG.info("Started Kafka InfluxDB metrics reporter with polling period {} seconds", pollingPeriodSecs);
@@ -60,7 +102,8 @@ public class KafkaInfluxDBMetricsReporter implements KafkaMetricsReporter, Kafka
             reporter.shutdown();
             running = false;
             LOG.info("Stopped Kafka InfluxDB metrics reporter");
-            reporter = buildInfluxDBReporter();
+            // built again on the next start, so a stopped reporter holds no threads or files
+            reporter = null;
         }
     }
 
@@ -68,18 +111,35 @@ public class KafkaInfluxDBMetricsReporter implements KafkaMetricsReporter, Kafka
     public synchronized void init(VerifiableProperties props) {
         if (!initialized) {
             KafkaMetricsConfig metricsConfig = new KafkaMetricsConfig(props);
-            influxDBAddress = props.getString("kafka.influxdb.metrics.address", INFLUXDB_DEFAULT_ADDRESS);
-            influxDBUsername = props.getString("kafka.influxdb.metrics.username", INFLUXDB_DEFAULT_USERNAME);
-            influxDBPassword = props.getString("kafka.influxdb.metrics.password", INFLUXDB_DEFAULT_PASSWORD);
-            influxDBConsistency = props.getString("kafka.influxdb.metrics.consistency", INFLUXDB_DEFAULT_CONSISTENCY);
-            influxDBDatabase = props.getString("kafka.influxdb.metrics.database", INFLUXDB_DEFAULT_DATABASE);
-            influxDBRetentionPolicy = props.getString("kafka.influxdb.metrics.retentionPolicy", INFLUXDB_DEFAULT_RETENTIONPOLICY);
+            writerConfig = new WriterConfig(props.props());
             influxDBTags = props.getString("kafka.influxdb.metrics.tags", INFLUXDB_DEFAULT_TAGS);
             metricDimensions = Dimension.fromProperties(props.props(), "kafka.influxdb.dimension.enabled.");
+            batchMaxPoints = props.getInt("kafka.influxdb.metrics.batch.max.points", INFLUXDB_DEFAULT_BATCH_MAX_POINTS);
+            batchMaxBytes = props.getInt("kafka.influxdb.metrics.batch.max.bytes", INFLUXDB_DEFAULT_BATCH_MAX_BYTES);
+            selfMetrics = props.getBoolean("kafka.influxdb.metrics.self.enabled", INFLUXDB_DEFAULT_SELF_METRICS);
+            suppressUnchanged = props.getBoolean("kafka.influxdb.metrics.suppress.unchanged", INFLUXDB_DEFAULT_SUPPRESS_UNCHANGED);
+            suppressHeartbeatPolls = props.getInt("kafka.influxdb.metrics.suppress.heartbeat.polls", INFLUXDB_DEFAULT_SUPPRESS_HEARTBEAT_POLLS);
+            rollupTopic = props.getString("kafka.influxdb.metrics.rollup.topic", INFLUXDB_DEFAULT_ROLLUP_TOPIC);
+            rollupBroker = props.getString("kafka.influxdb.metrics.rollup.broker", INFLUXDB_DEFAULT_ROLLUP_BROKER);
+            rollupRaw = props.getString("kafka.influxdb.metrics.rollup.raw", INFLUXDB_DEFAULT_ROLLUP_RAW);
+            maxSeriesPerMeasurement = props.getInt("kafka.influxdb.metrics.max.series.per.measurement", INFLUXDB_DEFAULT_MAX_SERIES_PER_MEASUREMENT);
+            maxSeriesRerankPolls = props.getInt("kafka.influxdb.metrics.max.series.rerank.polls", INFLUXDB_DEFAULT_MAX_SERIES_RERANK_POLLS);
+            pollingTiers = PollingTiers.fromProperties(props.props(), "kafka.influxdb.metrics.tier.");
+            jvmEveryPolls = JvmMetricsCollector.fromProperties(props.props(), "kafka.influxdb.metrics.jvm.every.polls.");
+            gaugeInteger = props.getString("kafka.influxdb.metrics.gauge.integer", INFLUXDB_DEFAULT_GAUGE_INTEGER);
+            sampleGauges = props.getString("kafka.influxdb.metrics.sample.gauges", INFLUXDB_DEFAULT_SAMPLE_GAUGES);
+            sampleMs = props.getLong("kafka.influxdb.metrics.sample.ms", INFLUXDB_DEFAULT_SAMPLE_MS);
+            gaugeThreads = props.getInt("kafka.influxdb.metrics.gauge.threads", INFLUXDB_DEFAULT_GAUGE_THREADS);
+            gaugeDeadlineMs = props.getLong("kafka.influxdb.metrics.gauge.deadline.ms", INFLUXDB_DEFAULT_GAUGE_DEADLINE_MS);
+            gaugeQuarantineStrikes = props.getInt("kafka.influxdb.metrics.gauge.quarantine.strikes", INFLUXDB_DEFAULT_GAUGE_QUARANTINE_STRIKES);
+            gaugeQuarantineMaxPolls = props.getInt("kafka.influxdb.metrics.gauge.quarantine.max.polls", INFLUXDB_DEFAULT_GAUGE_QUARANTINE_MAX_POLLS);
+            timestampAlign = props.getBoolean("kafka.influxdb.metrics.timestamp.align", INFLUXDB_DEFAULT_TIMESTAMP_ALIGN);
+            schedulerAligned = props.getBoolean("kafka.influxdb.metrics.scheduler.aligned", INFLUXDB_DEFAULT_SCHEDULER_ALIGNED);
+            schedulerPhaseOffset = props.getBoolean("kafka.influxdb.metrics.scheduler.phase.offset", INFLUXDB_DEFAULT_SCHEDULER_PHASE_OFFSET);
+            metricIncludes = props.getString("kafka.influxdb.metrics.include", INFLUXDB_DEFAULT_INCLUDE);
+            metricExcludes = props.getString("kafka.influxdb.metrics.exclude", INFLUXDB_DEFAULT_EXCLUDE);
     
-            LOG.debug("Initialize InfluxDBReporter [{},{},{}]", influxDBAddress, influxDBDatabase, influxDBRetentionPolicy);
-
-            reporter = buildInfluxDBReporter();
+            LOG.debug("Initialize InfluxDBReporter [{},{},{}]", writerConfig.address, writerConfig.database, writerConfig.retentionPolicy);
 
             if (props.getBoolean("kafka.influxdb.metrics.reporter.enabled", false)) {
                 initialized = true;
@@ -89,22 +149,145 @@ public class KafkaInfluxDBMetricsReporter implements KafkaMetricsReporter, Kafka
         }
     }
 
+    /**
+     * Runs one poll of the reporter on the calling thread.
+     */
+    synchronized void poll() {
+        if (reporter != null) {
+            reporter.run();
+        }
+    }
+
+    @Override
+    public long getPolls() {
+        return stats.getPolls();
+    }
+
+    @Override
+    public long getPollOverruns() {
+        return stats.getPollOverruns();
+    }
+
+    @Override
+    public long getLastPollDurationMs() {
+        return stats.getLastPollDurationMs();
+    }
+
+    @Override
+    public double getMeanPollDurationMs() {
+        return stats.getMeanPollDurationMs();
+    }
+
+    @Override
+    public double getMaxPollDurationMs() {
+        return stats.getMaxPollDurationMs();
+    }
+
+    @Override
+    public int getLastMetricsVisited() {
+        return stats.getLastMetricsVisited();
+    }
+
+    @Override
+    public long getPointsEncoded() {
+        return stats.getPointsEncoded();
+    }
+
+    @Override
+    public long getPointsSuppressed() {
+        return stats.getPointsSuppressed();
+    }
+
+    @Override
+    public long getSeriesLimited() {
+        return stats.getSeriesLimited();
+    }
+
+    @Override
+    public long getGaugeTimeouts() {
+        return stats.getGaugeTimeouts();
+    }
+
+    @Override
+    public long getTicksCoalesced() {
+        return stats.getTicksCoalesced();
+    }
+
+    @Override
+    public long getBytesEncoded() {
+        return stats.getBytesEncoded();
+    }
+
+    @Override
+    public double getMeanWriteLatencyMs() {
+        return stats.getMeanWriteLatencyMs();
+    }
+
+    @Override
+    public double getMaxWriteLatencyMs() {
+        return stats.getMaxWriteLatencyMs();
+    }
+
+    @Override
+    public long getWriteFailures() {
+        return stats.getWriteFailures();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return stats.getQueueDepth();
+    }
+
+    @Override
+    public long getDroppedPoints() {
+        return stats.getDroppedPoints();
+    }
 
     private FilteredInfluxDBReporter buildInfluxDBReporter() {
         FilteredInfluxDBReporter influxDBReporter = null;
         influxDBReporter = new FilteredInfluxDBReporter(
                     Metrics.defaultRegistry(),
-                    influxDBAddress,
-                    influxDBDatabase,
-                    influxDBRetentionPolicy,
-                    influxDBUsername,
-                    influxDBPassword,
-                    influxDBConsistency,
+                    writerConfig.buildBatchWriter(stats),
                     influxDBTags,
                     metricDimensions,
                     Clock.defaultClock(),
                     VirtualMachineMetrics.getInstance()
             );
+        influxDBReporter.setStats(stats);
+        influxDBReporter.setBatchLimits(batchMaxPoints, batchMaxBytes);
+        influxDBReporter.printSelfMetrics = selfMetrics;
+        influxDBReporter.setPrecision(writerConfig.precision);
+        influxDBReporter.setTimestampAlignment(timestampAlign);
+        if (schedulerAligned) {
+            influxDBReporter.setAlignedScheduling(schedulerPhaseOffset ? HostUtils.getHostName() : null);
+        }
+        if (suppressUnchanged) {
+            influxDBReporter.setChangeSuppression(suppressHeartbeatPolls);
+        }
+        if (!rollupTopic.isEmpty() || !rollupBroker.isEmpty()) {
+            influxDBReporter.setRollup(rollupTopic, rollupBroker, rollupRaw);
+        }
+        if (pollingTiers != null) {
+            influxDBReporter.setPollingTiers(pollingTiers);
+        }
+        if (jvmEveryPolls != null) {
+            influxDBReporter.setJvmMetricsEveryPolls(jvmEveryPolls);
+        }
+        if (!gaugeInteger.isEmpty()) {
+            influxDBReporter.setIntegerGauges(gaugeInteger);
+        }
+        if (!sampleGauges.isEmpty()) {
+            influxDBReporter.setGaugeSampling(sampleGauges, sampleMs);
+        }
+        if (gaugeThreads > 0) {
+            influxDBReporter.setGaugeEvaluation(gaugeThreads, gaugeDeadlineMs, gaugeQuarantineStrikes, gaugeQuarantineMaxPolls);
+        }
+        if (maxSeriesPerMeasurement > 0) {
+            influxDBReporter.setCardinalityLimit(maxSeriesPerMeasurement, maxSeriesRerankPolls);
+        }
+        if (!metricIncludes.isEmpty() || !metricExcludes.isEmpty()) {
+            influxDBReporter.setMetricPredicate(new MetricFilter(metricIncludes, metricExcludes));
+        }
         return influxDBReporter;
     }
 }
@@ -4,4 +4,37 @@ import kafka.metrics.KafkaMetricsReporterMBean;
 
 public interface KafkaInfluxDBMetricsReporterMBean extends KafkaMetricsReporterMBean {
 
+    long getPolls();
+
+    long getPollOverruns();
+
+    long getLastPollDurationMs();
+
+    double getMeanPollDurationMs();
+
+    double getMaxPollDurationMs();
+
+    int getLastMetricsVisited();
+
+    long getPointsEncoded();
+
+    long getPointsSuppressed();
+
+    long getSeriesLimited();
+
+    long getGaugeTimeouts();
+
+    long getTicksCoalesced();
+
+    long getBytesEncoded();
+
+    double getMeanWriteLatencyMs();
+
+    double getMaxWriteLatencyMs();
+
+    long getWriteFailures();
+
+    int getQueueDepth();
+
+    long getDroppedPoints();
 }
@@ -0,0 +1,411 @@
+package com.github.jasper.kafka;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes InfluxDB line protocol straight into a reusable byte array.
+ *
+ * Series keys are copied from their pre-encoded form, numbers are formatted without going
+ * through {@code String}, so encoding a poll allocates nothing once the buffer has grown to
+ * its working size. Not thread safe, each reporter owns one encoder.
+ */
+public class LineProtocolEncoder {
+
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+    // the powers of ten a double holds exactly
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // the integers a double holds exactly
+    private static final double MAX_EXACT_INTEGER = 9007199254740992d;
+    private static final int DOUBLE_DIGITS = 17;
+    private static final int FLOAT_DIGITS = 9;
+
+    private byte[] buffer;
+    private ByteBuffer view;
+    private int position;
+    private int points;
+
+    private int pointStart = -1;
+    private int lastPointStart;
+    private int fields;
+
+    private TimeUnit precision = TimeUnit.NANOSECONDS;
+
+    public LineProtocolEncoder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LineProtocolEncoder(int initialCapacity) {
+        this.buffer = new byte[initialCapacity];
+        this.view = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Sets the unit timestamps are written in, which must match the precision the points are
+     * sent with. Nanoseconds by default.
+     */
+    public void setPrecision(TimeUnit precision) {
+        this.precision = precision;
+    }
+
+    /**
+     * Starts a new point by copying its escaped measurement and tags.
+     */
+    public void beginPoint(SeriesKey key) {
+        pointStart = position;
+        fields = 0;
+        write(key.getEncoded());
+    }
+
+    public void addField(String name, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // InfluxDB rejects the whole write on a non-finite float, drop the field instead
+            return;
+        }
+        fieldName(name);
+        writeDecimal(value, false);
+    }
+
+    public void addField(String name, float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return;
+        }
+        fieldName(name);
+        writeDecimal(value, true);
+    }
+
+    /**
+     * Adds an integer field, written with the {@code i} suffix.
+     */
+    public void addField(String name, long value) {
+        fieldName(name);
+        writeLong(value);
+        writeByte('i');
+    }
+
+    public void addField(String name, boolean value) {
+        fieldName(name);
+        writeByte(value ? 't' : 'f');
+    }
+
+    public void addField(String name, String value) {
+        fieldName(name);
+        writeByte('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writeByte('\\');
+            }
+            writeChar(value, i);
+            if (Character.isHighSurrogate(c) && i + 1 < value.length()) {
+                i++;
+            }
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Finishes the current point. A point without any field is discarded.
+     *
+     * @param timeMillis the timestamp of the point in milliseconds
+     */
+    public void endPoint(long timeMillis) {
+        if (pointStart < 0) {
+            return;
+        }
+        if (fields == 0) {
+            position = pointStart;
+        } else {
+            writeByte(' ');
+            writeLong(precision.convert(timeMillis, TimeUnit.MILLISECONDS));
+            writeByte('\n');
+            lastPointStart = pointStart;
+            points++;
+        }
+        pointStart = -1;
+    }
+
+    /**
+     * Drops the point begun last and not ended yet, e.g. when reading one of its fields failed,
+     * so no partial line is left in the buffer.
+     */
+    public void abortPoint() {
+        if (pointStart >= 0) {
+            position = pointStart;
+            pointStart = -1;
+        }
+    }
+
+    public int points() {
+        return points;
+    }
+
+    public int size() {
+        return position;
+    }
+
+    public boolean isEmpty() {
+        return points == 0;
+    }
+
+    public byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * Returns a view over the encoded bytes, valid until the next write to this encoder.
+     */
+    public ByteBuffer buffer() {
+        view.limit(position).position(0);
+        return view;
+    }
+
+    /**
+     * Offset of the last complete point, everything before it can be flushed on its own.
+     */
+    public int lastPointOffset() {
+        return lastPointStart;
+    }
+
+    public void reset() {
+        position = 0;
+        points = 0;
+        pointStart = -1;
+        lastPointStart = 0;
+    }
+
+    /**
+     * Discards all points but the last one, after the others were flushed.
+     */
+    public void retainLastPoint() {
+        int length = position - lastPointStart;
+        System.arraycopy(buffer, lastPointStart, buffer, 0, length);
+        position = length;
+        points = points > 0 ? 1 : 0;
+        pointStart = -1;
+        lastPointStart = 0;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, position, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes the escaped measurement and tags of a series key, as written before the fields.
+     */
+    static byte[] encodeKey(String measurement, Iterable<Map.Entry<String, String>> tags) {
+        StringBuilder sb = new StringBuilder();
+        escapeKey(sb, measurement);
+        for (Map.Entry<String, String> tag : tags) {
+            sb.append(',');
+            escapeKey(sb, tag.getKey());
+            sb.append('=');
+            escapeKey(sb, tag.getValue());
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void escapeKey(StringBuilder sb, String key) {
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == ' ' || c == ',' || c == '=') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+    }
+
+    private void fieldName(String name) {
+        writeByte(fields++ == 0 ? ' ' : ',');
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == ' ' || c == ',' || c == '=') {
+                writeByte('\\');
+            }
+            writeChar(name, i);
+            if (Character.isHighSurrogate(c) && i + 1 < name.length()) {
+                i++;
+            }
+        }
+        writeByte('=');
+    }
+
+    /**
+     * Writes the shortest decimal found that parses back to the value, or to the same float for
+     * a float, in plain notation from 1e-3 to 1e15 and in scientific notation otherwise.
+     */
+    private void writeDecimal(double value, boolean isFloat) {
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        if (value == 0) {
+            writeByte('0');
+        } else if (value < 1e18 && value == Math.rint(value)) {
+            writeLong((long) value);
+        } else if (!writeShortest(value, isFloat)) {
+            writeRoundTrip(value, isFloat);
+        }
+    }
+
+    /**
+     * Looks for the fewest significant digits {@code n} with {@code n * 10^k} parsing back to
+     * the value. Both {@code n} and {@code 10^k} must be exact doubles, so the division or
+     * product checking it is correctly rounded, as it is when InfluxDB parses the digits.
+     *
+     * @return false for values needing more digits or a power of ten out of the exact range,
+     * e.g. subnormals
+     */
+    private boolean writeShortest(double value, boolean isFloat) {
+        int exponent = (int) Math.floor(Math.log10(value));
+        for (int digits = 1; digits <= (isFloat ? FLOAT_DIGITS : DOUBLE_DIGITS); digits++) {
+            int k = exponent - digits + 1;
+            if (k < -(POWERS_OF_TEN.length - 1) || k > POWERS_OF_TEN.length - 1) {
+                return false;
+            }
+            double n = Math.rint(k < 0 ? value * POWERS_OF_TEN[-k] : value / POWERS_OF_TEN[k]);
+            if (n >= MAX_EXACT_INTEGER) {
+                return false;
+            }
+            double parsed = k < 0 ? n / POWERS_OF_TEN[-k] : n * POWERS_OF_TEN[k];
+            if (isFloat ? (float) parsed == (float) value : parsed == value) {
+                writeDigits((long) n, k);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // writes n * 10^k, n being positive
+    private void writeDigits(long n, int k) {
+        while (n % 10 == 0) {
+            n /= 10;
+            k++;
+        }
+        int length = digits(n);
+        int leading = length - 1 + k;
+        int start = position;
+        if (leading < -3 || leading >= 15) {
+            writeLong(n);
+            if (length > 1) {
+                insertPoint(start + 1);
+            }
+            writeByte('e');
+            writeLong(leading);
+        } else if (k >= 0) {
+            writeLong(n);
+            for (int i = 0; i < k; i++) {
+                writeByte('0');
+            }
+        } else if (leading >= 0) {
+            writeLong(n);
+            insertPoint(start + leading + 1);
+        } else {
+            writeByte('0');
+            writeByte('.');
+            for (int i = leading + 1; i < 0; i++) {
+                writeByte('0');
+            }
+            writeLong(n);
+        }
+    }
+
+    private void insertPoint(int at) {
+        ensureCapacity(1);
+        System.arraycopy(buffer, at, buffer, at + 1, position - at);
+        buffer[at] = '.';
+        position++;
+    }
+
+    // the slow path, with the digits of Double.toString as influxdb-java writes them
+    private void writeRoundTrip(double value, boolean isFloat) {
+        String digits = isFloat ? Float.toString((float) value) : Double.toString(value);
+        int e = digits.indexOf('E');
+        String mantissa = e < 0 ? digits : digits.substring(0, e);
+        if (mantissa.endsWith(".0")) {
+            mantissa = mantissa.substring(0, mantissa.length() - 2);
+        }
+        write(mantissa.getBytes(StandardCharsets.US_ASCII));
+        if (e >= 0) {
+            writeByte('e');
+            write(digits.substring(e + 1).getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            write(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        int length = digits(value);
+        ensureCapacity(length);
+        int end = position + length;
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position = end;
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private void writeChar(String s, int index) {
+        char c = s.charAt(index);
+        if (c < 0x80) {
+            writeByte(c);
+        } else if (c < 0x800) {
+            ensureCapacity(2);
+            buffer[position++] = (byte) (0xc0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && index + 1 < s.length()) {
+            int codePoint = Character.toCodePoint(c, s.charAt(index + 1));
+            ensureCapacity(4);
+            buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+            buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else {
+            ensureCapacity(3);
+            buffer[position++] = (byte) (0xe0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[position++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) b;
+    }
+
+    private void write(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, position + extra)];
+            System.arraycopy(buffer, 0, grown, 0, position);
+            buffer = grown;
+            view = ByteBuffer.wrap(buffer);
+        }
+    }
+}
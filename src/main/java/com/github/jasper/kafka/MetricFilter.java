@@ -0,0 +1,232 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricPredicate;
+import com.yammer.metrics.core.MetricsRegistryListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Include/exclude rules on the metric name, compiled once into a trie and evaluated at most once
+ * per {@link MetricName}.
+ *
+ * A rule has the form {@code group:type:name:scope}. Each of the first three segments is either an
+ * exact value or a glob where {@code *} matches any characters, trailing segments may be omitted
+ * and then match anything. The scope segment is a {@code &} separated list of {@code key=value}
+ * globs matched against the tags expanded from the scope, for example
+ * {@code kafka.log:Log:*:topic=__consumer_offsets}.
+ *
+ * A metric is accepted if it matches an include rule, or there is none, and matches no exclude rule.
+ */
+public class MetricFilter implements MetricPredicate, MetricsRegistryListener {
+
+    private final Node includes;
+    private final Node excludes;
+    private final ConcurrentHashMap<MetricName, Boolean> decisions = new ConcurrentHashMap<MetricName, Boolean>();
+
+    /**
+     * @param includes comma separated include rules, empty to include everything
+     * @param excludes comma separated exclude rules
+     */
+    public MetricFilter(String includes, String excludes) {
+        this.includes = compile(includes);
+        this.excludes = compile(excludes);
+    }
+
+    @Override
+    public boolean matches(MetricName name, Metric metric) {
+        Boolean decision = decisions.get(name);
+        if (decision == null) {
+            decision = evaluate(name);
+            decisions.put(name, decision);
+        }
+        return decision;
+    }
+
+    private boolean evaluate(MetricName name) {
+        if (includes != null && !matches(includes, name)) {
+            return false;
+        }
+        return excludes == null || !matches(excludes, name);
+    }
+
+    /**
+     * Tells whether a metric matches any of the compiled rules, false if there is none.
+     */
+    static boolean matches(Node rules, MetricName name) {
+        if (rules == null) {
+            return false;
+        }
+        String[] segments = {name.getGroup(), name.getType(), name.getName()};
+        return rules.matches(segments, 0, SeriesKey.scopeTags(name));
+    }
+
+    @Override
+    public void onMetricAdded(MetricName name, Metric metric) {
+    }
+
+    @Override
+    public void onMetricRemoved(MetricName name) {
+        decisions.remove(name);
+    }
+
+    /**
+     * Compiles a comma separated list of rules, null if there is none.
+     */
+    static Node compile(String rules) {
+        if (rules == null) {
+            return null;
+        }
+        Node root = null;
+        for (String rule : rules.split(",")) {
+            rule = rule.trim();
+            if (rule.isEmpty()) {
+                continue;
+            }
+            if (root == null) {
+                root = new Node();
+            }
+            String[] parts = rule.split(":", 4);
+            Node node = root;
+            for (int depth = 0; depth < 3; depth++) {
+                node = node.child(depth < parts.length ? parts[depth] : "*");
+            }
+            node.scopes.add(parts.length == 4 ? ScopeRule.parse(parts[3]) : ScopeRule.ANY);
+        }
+        return root;
+    }
+
+    static final class Node {
+
+        private final Map<String, Node> exact = new HashMap<String, Node>();
+        private final List<Glob> globs = new ArrayList<Glob>();
+        private Node any;
+        private final List<ScopeRule> scopes = new ArrayList<ScopeRule>();
+
+        Node child(String segment) {
+            if (segment.equals("*")) {
+                if (any == null) {
+                    any = new Node();
+                }
+                return any;
+            }
+            if (segment.indexOf('*') < 0) {
+                Node child = exact.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    exact.put(segment, child);
+                }
+                return child;
+            }
+            for (Glob glob : globs) {
+                if (glob.pattern.equals(segment)) {
+                    return glob.node;
+                }
+            }
+            Glob glob = new Glob(segment, new Node());
+            globs.add(glob);
+            return glob.node;
+        }
+
+        boolean matches(String[] segments, int depth, Map<String, String> scope) {
+            if (depth == segments.length) {
+                for (ScopeRule rule : scopes) {
+                    if (rule.matches(scope)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            String segment = segments[depth];
+            Node child = exact.get(segment);
+            if (child != null && child.matches(segments, depth + 1, scope)) {
+                return true;
+            }
+            for (Glob glob : globs) {
+                if (glob.matches(segment) && glob.node.matches(segments, depth + 1, scope)) {
+                    return true;
+                }
+            }
+            return any != null && any.matches(segments, depth + 1, scope);
+        }
+    }
+
+    private static final class Glob {
+
+        private final String pattern;
+        private final String[] parts;
+        private final Node node;
+
+        Glob(String pattern, Node node) {
+            this.pattern = pattern;
+            this.parts = pattern.split("\\*", -1);
+            this.node = node;
+        }
+
+        boolean matches(String value) {
+            return globMatches(parts, value);
+        }
+    }
+
+    private static final class ScopeRule {
+
+        static final ScopeRule ANY = new ScopeRule(new String[0], new String[0][]);
+
+        private final String[] keys;
+        private final String[][] values;
+
+        private ScopeRule(String[] keys, String[][] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        static ScopeRule parse(String scope) {
+            String[] pairs = scope.split("&");
+            String[] keys = new String[pairs.length];
+            String[][] values = new String[pairs.length][];
+            for (int i = 0; i < pairs.length; i++) {
+                String[] kv = pairs[i].split("=", 2);
+                keys[i] = kv[0];
+                values[i] = (kv.length == 2 ? kv[1] : "*").split("\\*", -1);
+            }
+            return new ScopeRule(keys, values);
+        }
+
+        boolean matches(Map<String, String> scope) {
+            for (int i = 0; i < keys.length; i++) {
+                String value = scope.get(keys[i]);
+                if (value == null || !globMatches(values[i], value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Matches a value against a glob already split on {@code *}.
+     */
+    static boolean globMatches(String[] parts, String value) {
+        if (parts.length == 1) {
+            return parts[0].equals(value);
+        }
+        if (!value.startsWith(parts[0])) {
+            return false;
+        }
+        int position = parts[0].length();
+        for (int i = 1; i < parts.length - 1; i++) {
+            int found = value.indexOf(parts[i], position);
+            if (found < 0) {
+                return false;
+            }
+            position = found + parts[i].length();
+        }
+        String last = parts[parts.length - 1];
+        return value.length() - position >= last.length() && value.endsWith(last);
+    }
+}
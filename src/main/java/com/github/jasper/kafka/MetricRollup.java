@@ -0,0 +1,226 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistryListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Aggregates per-partition gauges and counters in the broker so only one series per topic, or
+ * per broker, reaches InfluxDB.
+ *
+ * Metrics matching a topic rule are grouped by all their tags except {@code partition}, metrics
+ * matching a broker rule by all their tags except {@code topic} and {@code partition}. Each group
+ * is written once per poll to the measurement of the metric suffixed with {@code .rollup}, with
+ * the {@code sum}, {@code max} and {@code mean} of its members and a {@code rollup} tag telling
+ * the level, so the aggregates never share a measurement with the raw {@code value} or
+ * {@code count} fields. The raw series of a rolled up metric are dropped unless it also matches a
+ * raw rule. Rules use the {@link MetricFilter} syntax.
+ *
+ * With {@link PollingTiers}, a group is only idle in the polls its tier is due, so the groups of
+ * a slow tier are not forgotten between their polls.
+ *
+ * The group of a metric is resolved once per {@link MetricName}; {@link #add} and the encoding of
+ * the groups must be called from the polling thread.
+ */
+public class MetricRollup implements MetricsRegistryListener {
+
+    static final String TOPIC = "topic";
+    static final String BROKER = "broker";
+    static final String MEASUREMENT_SUFFIX = ".rollup";
+
+    // groups that got no value for this many polls of their tier are forgotten
+    private static final int IDLE_POLLS = 10;
+
+    private static final Target NONE = new Target(null, true);
+
+    private final MetricFilter.Node topicRules;
+    private final MetricFilter.Node brokerRules;
+    private final MetricFilter.Node rawRules;
+    private final Map<String, String> globalTags;
+
+    private final ConcurrentHashMap<MetricName, Target> targets = new ConcurrentHashMap<MetricName, Target>();
+    private final Map<String, Group> groupsByKey = new HashMap<String, Group>();
+    private final List<Group> groups = new ArrayList<Group>();
+
+    private PollingTiers pollingTiers;
+
+    /**
+     * @param topicRules  comma separated rules of the metrics aggregated per topic
+     * @param brokerRules comma separated rules of the metrics aggregated per broker
+     * @param rawRules    comma separated rules of the rolled up metrics whose raw series are kept
+     * @param globalTags  custom tags added to every series
+     */
+    public MetricRollup(String topicRules, String brokerRules, String rawRules, Map<String, String> globalTags) {
+        this.topicRules = MetricFilter.compile(topicRules);
+        this.brokerRules = MetricFilter.compile(brokerRules);
+        this.rawRules = MetricFilter.compile(rawRules);
+        this.globalTags = globalTags;
+    }
+
+    /**
+     * Counts the idle polls of each group in polls of the tier of the metric that created it.
+     */
+    public void setPollingTiers(PollingTiers pollingTiers) {
+        this.pollingTiers = pollingTiers;
+    }
+
+    /**
+     * Adds the value of a metric to its group, if it has one.
+     *
+     * @param name       the name of the metric
+     * @param metricType value of the {@code metric_type} tag
+     * @param value      the current value
+     * @return true if the raw series of the metric has to be written too
+     */
+    public boolean add(MetricName name, String metricType, double value) {
+        Target target = targets.get(name);
+        if (target == null || (target.group != null && target.group.removed)) {
+            target = resolve(name, metricType);
+            targets.put(name, target);
+        }
+        if (target.group != null) {
+            target.group.add(value);
+        }
+        return target.keepRaw;
+    }
+
+    private Target resolve(MetricName name, String metricType) {
+        String level = MetricFilter.matches(topicRules, name) ? TOPIC
+                : MetricFilter.matches(brokerRules, name) ? BROKER : null;
+        if (level == null) {
+            return NONE;
+        }
+        Map<String, String> tags = new TreeMap<String, String>(SeriesKey.scopeTags(name));
+        tags.remove("partition");
+        if (level.equals(BROKER)) {
+            tags.remove("topic");
+        }
+        String[] extraTags = new String[tags.size() * 2 + 4];
+        int i = 0;
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            extraTags[i++] = tag.getKey();
+            extraTags[i++] = tag.getValue();
+        }
+        extraTags[i++] = "metric_type";
+        extraTags[i++] = metricType;
+        extraTags[i++] = "rollup";
+        extraTags[i] = level;
+        SeriesKey key = SeriesKey.of(new MetricName(name.getGroup(), name.getType(), name.getName() + MEASUREMENT_SUFFIX),
+                globalTags, extraTags);
+
+        String id = key.toString();
+        Group group = groupsByKey.get(id);
+        if (group == null) {
+            group = new Group(key, pollingTiers == null ? 0 : pollingTiers.tierOf(name));
+            groupsByKey.put(id, group);
+            groups.add(group);
+        }
+        return new Target(group, MetricFilter.matches(rawRules, name));
+    }
+
+    /**
+     * Number of groups, encoded with {@link #encode(int, LineProtocolEncoder, long)}.
+     */
+    public int size() {
+        return groups.size();
+    }
+
+    /**
+     * Writes the aggregates of a group collected during this poll and resets it.
+     */
+    public void encode(int index, LineProtocolEncoder encoder, long time) {
+        Group group = groups.get(index);
+        if (group.count == 0) {
+            return;
+        }
+        encoder.beginPoint(group.key);
+        encoder.addField("sum", group.sum);
+        encoder.addField("max", group.max);
+        encoder.addField("mean", group.sum / group.count);
+        encoder.endPoint(time);
+        group.reset();
+    }
+
+    /**
+     * Ends a poll, forgetting the groups whose members are all gone.
+     */
+    public void endPoll() {
+        for (int i = groups.size() - 1; i >= 0; i--) {
+            Group group = groups.get(i);
+            // not encoded if the poll failed half way
+            group.reset();
+            if (group.seen) {
+                group.seen = false;
+                group.idlePolls = 0;
+            } else if (pollingTiers != null && !pollingTiers.isTierDue(group.tier)) {
+                // not polled in this tick
+                continue;
+            } else if (++group.idlePolls > IDLE_POLLS) {
+                group.removed = true;
+                groupsByKey.remove(group.key.toString());
+                groups.set(i, groups.get(groups.size() - 1));
+                groups.remove(groups.size() - 1);
+            }
+        }
+    }
+
+    @Override
+    public void onMetricAdded(MetricName name, Metric metric) {
+    }
+
+    @Override
+    public void onMetricRemoved(MetricName name) {
+        targets.remove(name);
+    }
+
+    private static final class Target {
+
+        private final Group group;
+        private final boolean keepRaw;
+
+        Target(Group group, boolean keepRaw) {
+            this.group = group;
+            this.keepRaw = keepRaw;
+        }
+    }
+
+    private static final class Group {
+
+        private final SeriesKey key;
+        private final int tier;
+        private double sum;
+        private double max;
+        private int count;
+        private boolean seen;
+        private int idlePolls;
+        private boolean removed;
+
+        Group(SeriesKey key, int tier) {
+            this.key = key;
+            this.tier = tier;
+        }
+
+        void add(double value) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                return;
+            }
+            max = count == 0 ? value : Math.max(max, value);
+            sum += value;
+            count++;
+            seen = true;
+        }
+
+        void reset() {
+            sum = 0;
+            max = 0;
+            count = 0;
+        }
+    }
+}
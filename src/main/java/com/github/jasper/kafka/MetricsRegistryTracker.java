@@ -0,0 +1,101 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistryListener;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps a flat, array-backed list of the live metrics of a registry, maintained incrementally
+ * from the registry listener callbacks.
+ *
+ * Polls take a {@link #snapshot()} that copies the references into arrays owned by the poll
+ * side, so iterating the metrics builds no maps, sorts nothing and does not hold the lock the
+ * registry threads need to add or remove metrics.
+ */
+public class MetricsRegistryTracker implements MetricsRegistryListener {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Map<MetricName, Integer> indexes = new HashMap<MetricName, Integer>();
+    private MetricName[] names = new MetricName[INITIAL_CAPACITY];
+    private Metric[] metrics = new Metric[INITIAL_CAPACITY];
+    private int size;
+
+    private MetricName[] pollNames = new MetricName[INITIAL_CAPACITY];
+    private Metric[] pollMetrics = new Metric[INITIAL_CAPACITY];
+    private int pollSize;
+
+    @Override
+    public synchronized void onMetricAdded(MetricName name, Metric metric) {
+        Integer index = indexes.get(name);
+        if (index != null) {
+            metrics[index] = metric;
+            return;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            metrics = Arrays.copyOf(metrics, size * 2);
+        }
+        names[size] = name;
+        metrics[size] = metric;
+        indexes.put(name, size);
+        size++;
+    }
+
+    @Override
+    public synchronized void onMetricRemoved(MetricName name) {
+        Integer index = indexes.remove(name);
+        if (index == null) {
+            return;
+        }
+        int last = --size;
+        if (index != last) {
+            names[index] = names[last];
+            metrics[index] = metrics[last];
+            indexes.put(names[index], index);
+        }
+        names[last] = null;
+        metrics[last] = null;
+    }
+
+    /**
+     * Copies the current metrics to the poll side arrays, read with {@link #name(int)} and
+     * {@link #metric(int)} until the next snapshot. Must only be called from the polling thread.
+     *
+     * @return the number of metrics in the snapshot
+     */
+    public int snapshot() {
+        int previous = pollSize;
+        synchronized (this) {
+            if (pollNames.length < size) {
+                pollNames = new MetricName[names.length];
+                pollMetrics = new Metric[metrics.length];
+            }
+            System.arraycopy(names, 0, pollNames, 0, size);
+            System.arraycopy(metrics, 0, pollMetrics, 0, size);
+            pollSize = size;
+        }
+        if (pollSize < previous) {
+            // do not keep removed metrics reachable
+            Arrays.fill(pollNames, pollSize, previous, null);
+            Arrays.fill(pollMetrics, pollSize, previous, null);
+        }
+        return pollSize;
+    }
+
+    public MetricName name(int index) {
+        return pollNames[index];
+    }
+
+    public Metric metric(int index) {
+        return pollMetrics[index];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,134 @@
+package com.github.jasper.kafka;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands the points of a poll to a {@link BatchWriter} as they are encoded, in batches capped by
+ * point count and size, so a poll never has to be held in one request.
+ *
+ * Once a write of the poll failed the remaining batches are counted as dropped, not sent, so an
+ * unreachable InfluxDB is not waited on for every batch. A batch InfluxDB rejected is dropped
+ * without holding back the rest of the poll. A writer handling its failures itself, such as a
+ * {@link TeeBatchWriter} whose failing sink must not keep the poll from the others, reports them
+ * through {@link BatchWriter#failedThisPoll}. Only used from the polling thread.
+ */
+public class PointBatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PointBatcher.class);
+
+    private final LineProtocolEncoder encoder;
+    private final BatchWriter writer;
+
+    private int maxBatchPoints = Integer.MAX_VALUE;
+    private int maxBatchBytes = Integer.MAX_VALUE;
+
+    private int polledPoints;
+    private int polledBytes;
+    private boolean writeFailed;
+
+    private ReporterStats stats = new ReporterStats();
+
+    public PointBatcher(LineProtocolEncoder encoder, BatchWriter writer) {
+        this.encoder = encoder;
+        this.writer = writer;
+    }
+
+    /**
+     * Uses the given stats to count the points that were dropped.
+     */
+    public void setStats(ReporterStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Caps the size of a single write to {@code maxPoints} points and {@code maxBytes} bytes, a
+     * single larger point excepted.
+     */
+    public void setLimits(int maxPoints, int maxBytes) {
+        this.maxBatchPoints = maxPoints;
+        this.maxBatchBytes = maxBytes;
+    }
+
+    /**
+     * Starts a poll with an empty encoder.
+     */
+    public void beginPoll() {
+        polledPoints = 0;
+        polledBytes = 0;
+        writeFailed = false;
+        writer.beginPoll();
+        encoder.reset();
+    }
+
+    /**
+     * Sends the points encoded so far once they exceed the batch limits, keeping the last point
+     * when it is the one that crossed the byte limit.
+     */
+    public void flushIfFull() {
+        if (encoder.points() >= maxBatchPoints) {
+            flush(encoder.size(), encoder.points());
+            encoder.reset();
+        } else if (encoder.size() > maxBatchBytes) {
+            if (encoder.points() > 1) {
+                flush(encoder.lastPointOffset(), encoder.points() - 1);
+                encoder.retainLastPoint();
+            } else {
+                flush(encoder.size(), encoder.points());
+                encoder.reset();
+            }
+        }
+    }
+
+    /**
+     * Sends the points left at the end of a poll.
+     */
+    public void endPoll() {
+        flush(encoder.size(), encoder.points());
+        encoder.reset();
+    }
+
+    private void flush(int length, int points) {
+        if (points == 0) {
+            return;
+        }
+        polledPoints += points;
+        polledBytes += length;
+        if (writeFailed) {
+            // do not wait on an unreachable InfluxDB for every batch of the poll
+            stats.pointsDropped(points);
+            return;
+        }
+        try {
+            writer.write(encoder.array(), 0, length, points);
+        } catch (RejectedBatchException e) {
+            stats.pointsDropped(points);
+            LOG.warn("Dropping a batch of {} points: {}", points, e.getMessage());
+        } catch (Exception e) {
+            writeFailed = true;
+            stats.pointsDropped(points);
+            LOG.error("Cannot send metrics to InfluxDB {}", e);
+        }
+    }
+
+    /**
+     * Whether a write of the current poll failed, leaving some of its points unsent.
+     */
+    public boolean writeFailed() {
+        return writeFailed || writer.failedThisPoll();
+    }
+
+    /**
+     * Number of points handed off during the current poll.
+     */
+    public int polledPoints() {
+        return polledPoints;
+    }
+
+    /**
+     * Number of bytes handed off during the current poll.
+     */
+    public int polledBytes() {
+        return polledBytes;
+    }
+}
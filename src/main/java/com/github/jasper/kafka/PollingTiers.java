@@ -0,0 +1,196 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistryListener;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns metrics to polling intervals, so fast changing metrics such as request timers can be
+ * read every few seconds while slow, expensive gauges such as log sizes are read every minute.
+ *
+ * Each tier is an interval and a list of {@link MetricFilter} rules; a metric belongs to the
+ * shortest tier it matches, or to the default tier polled at the reporter period. The reporter
+ * then ticks at the greatest common divisor of all intervals and only reads the metrics of the
+ * tiers that are due, so all tiers share one encoder and one writer. Options counted in polls are
+ * counted in polls of the tier of each metric, or of the default tier for reporter wide ones,
+ * never in ticks.
+ *
+ * The tier of a metric is resolved once per {@link MetricName}; {@link #beginPoll()} and
+ * {@link #isDue(MetricName)} must be called from the polling thread.
+ */
+public class PollingTiers implements MetricsRegistryListener {
+
+    private final long[] intervalsMs;
+    private final MetricFilter.Node[] rules;
+    private final ConcurrentHashMap<MetricName, Integer> tiers = new ConcurrentHashMap<MetricName, Integer>();
+
+    // one entry per tier, the default tier last
+    private final long[] ticksPerPoll;
+    private final boolean[] due;
+    private long tick = -1;
+
+    /**
+     * @param tiers comma separated rules of each tier, by interval in milliseconds
+     */
+    public PollingTiers(Map<Long, String> tiers) {
+        TreeMap<Long, String> sorted = new TreeMap<Long, String>(tiers);
+        this.intervalsMs = new long[sorted.size() + 1];
+        this.rules = new MetricFilter.Node[sorted.size()];
+        int i = 0;
+        for (Map.Entry<Long, String> tier : sorted.entrySet()) {
+            intervalsMs[i] = tier.getKey();
+            rules[i] = MetricFilter.compile(tier.getValue());
+            i++;
+        }
+        this.ticksPerPoll = new long[intervalsMs.length];
+        this.due = new boolean[intervalsMs.length];
+        // every tier on every tick until started
+        Arrays.fill(ticksPerPoll, 1);
+    }
+
+    /**
+     * Reads the tiers from the properties named {@code <prefix><interval in seconds>}, each
+     * holding the rules of its tier.
+     *
+     * @return the tiers, or null if there is none
+     */
+    public static PollingTiers fromProperties(Properties properties, String prefix) {
+        Map<Long, String> tiers = new TreeMap<Long, String>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                long seconds;
+                try {
+                    seconds = Long.parseLong(key.substring(prefix.length()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Polling interval must be a number of seconds: " + key);
+                }
+                if (seconds <= 0) {
+                    throw new IllegalArgumentException("Polling interval must be positive: " + key);
+                }
+                tiers.put(seconds * 1000, properties.getProperty(key));
+            }
+        }
+        return tiers.isEmpty() ? null : new PollingTiers(tiers);
+    }
+
+    /**
+     * Sets the interval of the default tier.
+     *
+     * @param defaultIntervalMs the reporter period in milliseconds
+     * @return the period the reporter has to tick at, in milliseconds
+     */
+    public long start(long defaultIntervalMs) {
+        intervalsMs[intervalsMs.length - 1] = defaultIntervalMs;
+        long tickMs = defaultIntervalMs;
+        for (long interval : intervalsMs) {
+            tickMs = gcd(tickMs, interval);
+        }
+        for (int i = 0; i < intervalsMs.length; i++) {
+            ticksPerPoll[i] = intervalsMs[i] / tickMs;
+        }
+        tick = -1;
+        return tickMs;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long r = a % b;
+            a = b;
+            b = r;
+        }
+        return a;
+    }
+
+    /**
+     * Starts a new tick, every tier being due on the first one.
+     */
+    public void beginPoll() {
+        tick++;
+        for (int i = 0; i < due.length; i++) {
+            due[i] = tick % ticksPerPoll[i] == 0;
+        }
+    }
+
+    /**
+     * Tells whether the tier of a metric is due in the current tick.
+     */
+    public boolean isDue(MetricName name) {
+        return due[tierOf(name)];
+    }
+
+    /**
+     * Returns the index of the tier of a metric, the default tier being the last one.
+     */
+    public int tierOf(MetricName name) {
+        Integer tier = tiers.get(name);
+        if (tier == null) {
+            tier = resolve(name);
+            tiers.put(name, tier);
+        }
+        return tier;
+    }
+
+    /**
+     * Number of ticks between two polls of a tier, as returned by {@link #tierOf(MetricName)}.
+     */
+    public long ticksPerPoll(int tier) {
+        return ticksPerPoll[tier];
+    }
+
+    /**
+     * Index of the default tier, which also carries the JVM and reporter metrics.
+     */
+    public int defaultTier() {
+        return ticksPerPoll.length - 1;
+    }
+
+    /**
+     * Number of ticks between two polls of the slowest tier.
+     */
+    public long slowestTicksPerPoll() {
+        long slowest = 1;
+        for (long ticks : ticksPerPoll) {
+            slowest = Math.max(slowest, ticks);
+        }
+        return slowest;
+    }
+
+    /**
+     * Tells whether a tier, as returned by {@link #tierOf(MetricName)}, is due in the current
+     * tick.
+     */
+    public boolean isTierDue(int tier) {
+        return due[tier];
+    }
+
+    /**
+     * Tells whether the default tier, which also carries the JVM and reporter metrics, is due.
+     */
+    public boolean isDefaultDue() {
+        return due[due.length - 1];
+    }
+
+    private int resolve(MetricName name) {
+        for (int i = 0; i < rules.length; i++) {
+            if (MetricFilter.matches(rules[i], name)) {
+                return i;
+            }
+        }
+        return rules.length;
+    }
+
+    @Override
+    public void onMetricAdded(MetricName name, Metric metric) {
+    }
+
+    @Override
+    public void onMetricRemoved(MetricName name) {
+        tiers.remove(name);
+    }
+}
@@ -0,0 +1,31 @@
+package com.github.jasper.kafka;
+
+import java.io.IOException;
+
+/**
+ * Indicates a batch InfluxDB answered with a client error, e.g. a partial write or a field type
+ * conflict. Writing the same batch again fails the same way, so it is dropped rather than
+ * retried, spooled or sent to another endpoint.
+ */
+public class RejectedBatchException extends IOException {
+
+    private final int status;
+
+    public RejectedBatchException(int status, String message) {
+        super("InfluxDB rejected the batch with " + status + ": " + message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Whether a write answered with the given status must not be retried. Authentication,
+     * authorization and missing database errors, timeouts and rate limiting are fixed on the
+     * InfluxDB side without changing the batch, so they are retried like server errors.
+     */
+    static boolean isRejection(int status) {
+        return status / 100 == 4 && status != 401 && status != 403 && status != 404 && status != 408 && status != 429;
+    }
+}
@@ -0,0 +1,241 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What the reporter itself costs: poll duration, metrics visited, points and bytes encoded,
+ * write latency and failures, queue depth and dropped points.
+ *
+ * The metrics live in a private registry so they are not picked up by the reporter as broker
+ * metrics; they are read through the MBean and optionally sent as {@code influx_reporter.*}.
+ */
+public class ReporterStats {
+
+    static final String GROUP = "influx_reporter";
+    static final String TYPE = "InfluxDBReporter";
+
+    private final MetricsRegistry registry = new MetricsRegistry();
+
+    private final Histogram pollDuration = registry.newHistogram(name("poll_duration_ms"), true);
+    private final Histogram metricsVisited = registry.newHistogram(name("metrics_visited"), true);
+    private final Counter polls = registry.newCounter(name("polls"));
+    private final Counter pollOverruns = registry.newCounter(name("poll_overruns"));
+    private final Counter pointsEncoded = registry.newCounter(name("points_encoded"));
+    private final Counter bytesEncoded = registry.newCounter(name("bytes_encoded"));
+    private final Histogram writeLatency = registry.newHistogram(name("write_latency_ms"), true);
+    private final Counter writeFailures = registry.newCounter(name("write_failures"));
+    private final Counter pointsSuppressed = registry.newCounter(name("points_suppressed"));
+    private final Counter seriesLimited = registry.newCounter(name("series_limited"));
+    private final Counter gaugeTimeouts = registry.newCounter(name("gauge_timeouts"));
+    private final Counter ticksCoalesced = registry.newCounter(name("ticks_coalesced"));
+    // also holds the points dropped by the senders monitored before the current ones
+    private final AtomicLong pointsDropped = new AtomicLong();
+    // the batches failed by the senders monitored before the current ones
+    private final AtomicLong sendFailures = new AtomicLong();
+
+    private volatile long lastPollDurationNanos;
+    private volatile int lastMetricsVisited;
+
+    private volatile AsyncBatchWriter[] asyncWriters = new AsyncBatchWriter[0];
+
+    public ReporterStats() {
+        registry.newGauge(name("queue_depth"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return getQueueDepth();
+            }
+        });
+        registry.newGauge(name("dropped_points"), new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return getDroppedPoints();
+            }
+        });
+    }
+
+    static MetricName name(String name) {
+        return new MetricName(GROUP, TYPE, GROUP + "." + name);
+    }
+
+    /**
+     * Records a finished poll.
+     *
+     * @param durationNanos  time spent collecting, encoding and handing off the poll
+     * @param periodNanos    the polling period, 0 if unknown
+     * @param metricsVisited number of registry metrics read
+     * @param points         number of points encoded
+     * @param bytes          number of bytes encoded
+     */
+    public void pollCompleted(long durationNanos, long periodNanos, int metricsVisited, int points, int bytes) {
+        lastPollDurationNanos = durationNanos;
+        lastMetricsVisited = metricsVisited;
+        polls.inc();
+        pollDuration.update(TimeUnit.NANOSECONDS.toMillis(durationNanos));
+        this.metricsVisited.update(metricsVisited);
+        pointsEncoded.inc(points);
+        bytesEncoded.inc(bytes);
+        if (periodNanos > 0 && durationNanos > periodNanos) {
+            pollOverruns.inc();
+        }
+    }
+
+    /**
+     * Records points that were not written because their value did not change.
+     */
+    public void pointsSuppressed(long points) {
+        pointsSuppressed.inc(points);
+    }
+
+    /**
+     * Records series kept from being written by the cardinality limit.
+     */
+    public void seriesLimited(long series) {
+        seriesLimited.inc(series);
+    }
+
+    /**
+     * Records gauges not read by the deadline of their poll.
+     */
+    public void gaugeTimeouts(long gauges) {
+        gaugeTimeouts.inc(gauges);
+    }
+
+    /**
+     * Records scheduler ticks skipped because a poll overran them.
+     */
+    public void ticksCoalesced(long ticks) {
+        ticksCoalesced.inc(ticks);
+    }
+
+    /**
+     * Records points a writer gave up on without failing the write, e.g. datagrams the socket
+     * had no room for. Called from the writer threads.
+     */
+    public void pointsDropped(long points) {
+        pointsDropped.addAndGet(points);
+    }
+
+    public void writeCompleted(long latencyNanos) {
+        writeLatency.update(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+    }
+
+    public void writeFailed(long latencyNanos) {
+        writeLatency.update(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+        writeFailures.inc();
+    }
+
+    /**
+     * Exposes the queues of the asynchronous senders, replacing those monitored so far. The
+     * points the replaced senders dropped stay counted, so the count does not go back when the
+     * reporter is restarted.
+     */
+    public synchronized void monitor(AsyncBatchWriter... asyncWriters) {
+        long dropped = 0;
+        long failures = 0;
+        for (AsyncBatchWriter writer : this.asyncWriters) {
+            dropped += writer.droppedPoints();
+            failures += writer.failedBatches();
+        }
+        pointsDropped.addAndGet(dropped);
+        sendFailures.addAndGet(failures);
+        this.asyncWriters = asyncWriters.clone();
+    }
+
+    MetricsRegistry registry() {
+        return registry;
+    }
+
+    public long getPolls() {
+        return polls.count();
+    }
+
+    public long getPollOverruns() {
+        return pollOverruns.count();
+    }
+
+    public long getLastPollDurationMs() {
+        return TimeUnit.NANOSECONDS.toMillis(lastPollDurationNanos);
+    }
+
+    public double getMeanPollDurationMs() {
+        return pollDuration.mean();
+    }
+
+    public double getMaxPollDurationMs() {
+        return pollDuration.max();
+    }
+
+    public int getLastMetricsVisited() {
+        return lastMetricsVisited;
+    }
+
+    public long getPointsEncoded() {
+        return pointsEncoded.count();
+    }
+
+    public long getPointsSuppressed() {
+        return pointsSuppressed.count();
+    }
+
+    public long getSeriesLimited() {
+        return seriesLimited.count();
+    }
+
+    public long getGaugeTimeouts() {
+        return gaugeTimeouts.count();
+    }
+
+    public long getTicksCoalesced() {
+        return ticksCoalesced.count();
+    }
+
+    public long getBytesEncoded() {
+        return bytesEncoded.count();
+    }
+
+    public double getMeanWriteLatencyMs() {
+        return writeLatency.mean();
+    }
+
+    public double getMaxWriteLatencyMs() {
+        return writeLatency.max();
+    }
+
+    public long getWriteFailures() {
+        return writeFailures.count();
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (AsyncBatchWriter writer : asyncWriters) {
+            depth += writer.queueDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * Number of batches the asynchronous senders failed to write after the poll handed them off.
+     */
+    public synchronized long getSendFailures() {
+        long failures = sendFailures.get();
+        for (AsyncBatchWriter writer : asyncWriters) {
+            failures += writer.failedBatches();
+        }
+        return failures;
+    }
+
+    public synchronized long getDroppedPoints() {
+        long dropped = pointsDropped.get();
+        for (AsyncBatchWriter writer : asyncWriters) {
+            dropped += writer.droppedPoints();
+        }
+        return dropped;
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.MetricName;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The measurement and complete tag set of one series. Built once per {@link MetricName}
+ * and reused on every poll, so a poll only has to add fields and a timestamp.
+ */
+public final class SeriesKey {
+
+    private static final AtomicLong IDS = new AtomicLong();
+
+    private final long id = IDS.incrementAndGet();
+    private final String measurement;
+    private final Map<String, String> tags;
+    private final byte[] encoded;
+
+    SeriesKey(String measurement, Map<String, String> tags) {
+        this.measurement = measurement;
+        this.tags = Collections.unmodifiableMap(new TreeMap<String, String>(tags));
+        this.encoded = LineProtocolEncoder.encodeKey(measurement, this.tags.entrySet());
+    }
+
+    /**
+     * A process-wide unique, non zero id of this key, usable as a primitive map key.
+     */
+    public long getId() {
+        return id;
+    }
+
+    public String getMeasurement() {
+        return measurement;
+    }
+
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    /**
+     * The escaped measurement and tags in line protocol, sorted by tag key as InfluxDB expects.
+     */
+    byte[] getEncoded() {
+        return encoded;
+    }
+
+    /**
+     * Builds the key of a metric: the global tags, group and type, the tags expanded from the
+     * scope, then the given extra tag pairs.
+     *
+     * @param metricName the name of the metric
+     * @param globalTags custom tags added to every series
+     * @param extraTags  additional key/value pairs, null values are skipped
+     */
+    static SeriesKey of(MetricName metricName, Map<String, String> globalTags, String... extraTags) {
+        Map<String, String> tags = new TreeMap<String, String>(globalTags);
+        tags.put("group", metricName.getGroup());
+        tags.put("type", metricName.getType());
+
+        tags.putAll(scopeTags(metricName));
+        for (int i = 0; i + 1 < extraTags.length; i += 2) {
+            if (extraTags[i + 1] != null) {
+                tags.put(extraTags[i], extraTags[i + 1]);
+            }
+        }
+        return new SeriesKey(metricName.getName(), withoutEmptyValues(tags));
+    }
+
+    /**
+     * Expands the scope of a metric into tags: a scope made of an even number of dot separated
+     * parts is read as key/value pairs, any other scope becomes a single {@code scope} tag.
+     */
+    static Map<String, String> scopeTags(MetricName metricName) {
+        if (!metricName.hasScope()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> tags = new TreeMap<String, String>();
+        String scope = metricName.getScope();
+        String[] scopes = scope.split("\\.");
+        if (scopes.length % 2 == 0) {
+            for (int i = 0; i < scopes.length; i += 2) {
+                tags.put(scopes[i], scopes[i + 1]);
+            }
+        } else tags.put("scope", scope);
+        return tags;
+    }
+
+    /**
+     * Builds the key of a measurement that is not backed by a registry metric.
+     */
+    static SeriesKey of(String measurement, Map<String, String> globalTags, String tagKey, String tagValue) {
+        Map<String, String> tags = new TreeMap<String, String>(globalTags);
+        if (tagKey != null) {
+            tags.put(tagKey, tagValue);
+        }
+        return new SeriesKey(measurement, withoutEmptyValues(tags));
+    }
+
+    /**
+     * Builds the key of a measurement carrying its own tags, such as a Kafka common metric.
+     */
+    static SeriesKey of(String measurement, Map<String, String> globalTags, Map<String, String> tags) {
+        Map<String, String> allTags = new TreeMap<String, String>(globalTags);
+        allTags.putAll(tags);
+        return new SeriesKey(measurement, withoutEmptyValues(allTags));
+    }
+
+    // line protocol has no representation for an empty tag key or value
+    private static Map<String, String> withoutEmptyValues(Map<String, String> tags) {
+        Iterator<Map.Entry<String, String>> iterator = tags.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> tag = iterator.next();
+            if (tag.getKey().isEmpty() || tag.getValue() == null || tag.getValue().isEmpty()) {
+                iterator.remove();
+            }
+        }
+        return tags;
+    }
+
+    @Override
+    public String toString() {
+        return measurement + tags;
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistryListener;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the {@link SeriesKey} of every reported metric. Registered as a listener on the
+ * metrics registry so the key of a removed metric is dropped with it.
+ */
+public class SeriesKeyCache implements MetricsRegistryListener {
+
+    private final ConcurrentHashMap<MetricName, SeriesKey> keys = new ConcurrentHashMap<MetricName, SeriesKey>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, SeriesKey>> measurementKeys =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, SeriesKey>>();
+    private final Map<String, String> globalTags;
+
+    public SeriesKeyCache(Map<String, String> globalTags) {
+        this.globalTags = globalTags;
+    }
+
+    /**
+     * Returns the cached key of a metric, building it on first use.
+     *
+     * @param metricName the name of the metric
+     * @param metricType value of the {@code metric_type} tag
+     * @param eventType  value of the {@code eventType} tag, or null for none
+     */
+    public SeriesKey get(MetricName metricName, String metricType, String eventType) {
+        SeriesKey key = keys.get(metricName);
+        if (key == null) {
+            key = SeriesKey.of(metricName, globalTags, "metric_type", metricType, "eventType", eventType);
+            SeriesKey previous = keys.putIfAbsent(metricName, key);
+            if (previous != null) {
+                key = previous;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Returns the cached key of a measurement that is not a registry metric, such as the JVM
+     * metrics, with at most one tag on top of the global ones.
+     *
+     * @param measurement the measurement
+     * @param tagKey      key of the extra tag, or null for none
+     * @param tagValue    value of the extra tag
+     */
+    public SeriesKey get(String measurement, String tagKey, String tagValue) {
+        ConcurrentHashMap<String, SeriesKey> byTag = measurementKeys.get(measurement);
+        if (byTag == null) {
+            byTag = new ConcurrentHashMap<String, SeriesKey>();
+            ConcurrentHashMap<String, SeriesKey> previous = measurementKeys.putIfAbsent(measurement, byTag);
+            if (previous != null) {
+                byTag = previous;
+            }
+        }
+        String tag = tagValue == null ? "" : tagValue;
+        SeriesKey key = byTag.get(tag);
+        if (key == null) {
+            key = SeriesKey.of(measurement, globalTags, tagKey, tagValue);
+            byTag.put(tag, key);
+        }
+        return key;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public void clear() {
+        keys.clear();
+        measurementKeys.clear();
+    }
+
+    @Override
+    public void onMetricAdded(MetricName name, Metric metric) {
+    }
+
+    @Override
+    public void onMetricRemoved(MetricName name) {
+        keys.remove(name);
+    }
+}
@@ -0,0 +1,143 @@
+package com.github.jasper.kafka;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Spreads the points of each batch over several InfluxDB endpoints by a consistent hash of
+ * their series key, the measurement and tags, so every series is always written to the same
+ * endpoint and adding or removing an endpoint only moves the series of its share of the ring.
+ *
+ * Each endpoint has its own writer stack, typically with its own sender and spool, so a slow or
+ * unreachable endpoint only holds back its own share. The points of an endpoint are copied into
+ * a buffer reused across batches; only used from the polling thread.
+ */
+public class ShardingBatchWriter implements BatchWriter {
+
+    private static final int VIRTUAL_NODES = 128;
+
+    private final BatchWriter[] shards;
+    private final long[] ring;
+    private final int[] ringShards;
+
+    private final byte[][] buffers;
+    private final int[] lengths;
+    private final int[] points;
+
+    /**
+     * @param names  the names of the endpoints, which place them on the ring
+     * @param shards the writers of the endpoints
+     */
+    public ShardingBatchWriter(String[] names, BatchWriter[] shards) {
+        this.shards = shards;
+        final long[] hashes = new long[shards.length * VIRTUAL_NODES];
+        Integer[] order = new Integer[hashes.length];
+        for (int i = 0; i < shards.length; i++) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                byte[] key = (names[i] + "#" + node).getBytes(StandardCharsets.UTF_8);
+                hashes[i * VIRTUAL_NODES + node] = hash(key, 0, key.length);
+                order[i * VIRTUAL_NODES + node] = i * VIRTUAL_NODES + node;
+            }
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(hashes[a], hashes[b]);
+            }
+        });
+        this.ring = new long[hashes.length];
+        this.ringShards = new int[hashes.length];
+        for (int i = 0; i < order.length; i++) {
+            ring[i] = hashes[order[i]];
+            ringShards[i] = order[i] / VIRTUAL_NODES;
+        }
+        this.buffers = new byte[shards.length][];
+        for (int i = 0; i < shards.length; i++) {
+            buffers[i] = new byte[4096];
+        }
+        this.lengths = new int[shards.length];
+        this.points = new int[shards.length];
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length, int points) throws Exception {
+        Arrays.fill(lengths, 0);
+        Arrays.fill(this.points, 0);
+        int end = offset + length;
+        int lineStart = offset;
+        while (lineStart < end) {
+            int keyEnd = lineStart;
+            while (keyEnd < end && buffer[keyEnd] != ' ' && buffer[keyEnd] != '\n') {
+                keyEnd += buffer[keyEnd] == '\\' ? 2 : 1;
+            }
+            keyEnd = Math.min(keyEnd, end);
+            int lineEnd = keyEnd;
+            while (lineEnd < end && buffer[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            lineEnd = Math.min(lineEnd + 1, end);
+            append(shardOf(buffer, lineStart, keyEnd - lineStart), buffer, lineStart, lineEnd - lineStart);
+            lineStart = lineEnd;
+        }
+        Exception failure = null;
+        for (int i = 0; i < shards.length; i++) {
+            if (this.points[i] == 0) {
+                continue;
+            }
+            try {
+                shards[i].write(buffers[i], 0, lengths[i], this.points[i]);
+            } catch (Exception e) {
+                // the other endpoints still get their share
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void append(int shard, byte[] buffer, int offset, int length) {
+        if (lengths[shard] + length > buffers[shard].length) {
+            buffers[shard] = Arrays.copyOf(buffers[shard], Math.max(buffers[shard].length * 2, lengths[shard] + length));
+        }
+        System.arraycopy(buffer, offset, buffers[shard], lengths[shard], length);
+        lengths[shard] += length;
+        points[shard]++;
+    }
+
+    /**
+     * Returns the endpoint of the series key in the given bytes.
+     */
+    int shardOf(byte[] key, int offset, int length) {
+        int index = Arrays.binarySearch(ring, hash(key, offset, length));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return ringShards[index == ring.length ? 0 : index];
+    }
+
+    // 64 bit FNV-1a, finished with the murmur3 mix so neighbouring keys spread over the ring
+    static long hash(byte[] bytes, int offset, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= bytes[i] & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public void close() {
+        for (BatchWriter shard : shards) {
+            shard.close();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.github.jasper.kafka;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the batches that could not be written in a {@link DiskSpool} and replays them once the
+ * delegate accepts writes again.
+ *
+ * Once a write failed, the following batches go straight to the spool instead of waiting on the
+ * delegate, so an unreachable InfluxDB does not hold up the writer for every batch. Replay runs
+ * on its own thread: while failing it retries the oldest spooled batch once per probe interval,
+ * and once that succeeds it replays the spool at the configured rate, throttled by a token
+ * bucket, so catching up after an outage neither floods InfluxDB nor delays the live metrics.
+ *
+ * A batch InfluxDB rejects ({@link RejectedBatchException}) would fail the same way on every
+ * replay and hold back the batches behind it: it is not spooled, and dropped from the spool when
+ * rejected on replay.
+ */
+public class SpoolingBatchWriter implements BatchWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpoolingBatchWriter.class);
+
+    private static final long DEFAULT_PROBE_MS = 1000;
+    private static final long REPLAY_TICK_MS = 100;
+
+    private final BatchWriter delegate;
+    private final DiskSpool spool;
+    private final long replayBytesPerSecond;
+    private final ReporterStats stats;
+    private final long probeNanos;
+    private final ScheduledExecutorService replayer;
+
+    // only used by the replay thread
+    private final DiskSpool.Record record = new DiskSpool.Record();
+    private double replayTokens;
+    private long lastRefillNanos = System.nanoTime();
+
+    private volatile boolean failing;
+    private volatile long lastProbeNanos = System.nanoTime();
+
+    /**
+     * @param delegate             the writer of the live batches
+     * @param spool                where failed batches are kept
+     * @param replayBytesPerSecond the maximum rate at which spooled batches are replayed
+     * @param stats                where spooled batches dropped on replay are counted
+     */
+    public SpoolingBatchWriter(BatchWriter delegate, DiskSpool spool, long replayBytesPerSecond, ReporterStats stats) {
+        this(delegate, spool, replayBytesPerSecond, stats, DEFAULT_PROBE_MS);
+    }
+
+    /**
+     * @param probeMs the interval at which a failing delegate is tried again
+     */
+    SpoolingBatchWriter(BatchWriter delegate, DiskSpool spool, long replayBytesPerSecond, ReporterStats stats, long probeMs) {
+        this.delegate = delegate;
+        this.spool = spool;
+        this.replayBytesPerSecond = replayBytesPerSecond;
+        this.stats = stats;
+        this.probeNanos = TimeUnit.MILLISECONDS.toNanos(probeMs);
+        this.replayer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "influx-spool-replay");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        replayer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                replay();
+            }
+        }, REPLAY_TICK_MS, REPLAY_TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length, int points) throws Exception {
+        // behind the spooled batches until the replay thread finds the delegate back
+        if (failing && spool.append(buffer, offset, length, points)) {
+            return;
+        }
+        try {
+            delegate.write(buffer, offset, length, points);
+        } catch (RejectedBatchException e) {
+            throw e;
+        } catch (Exception e) {
+            if (!failing) {
+                failing = true;
+                lastProbeNanos = System.nanoTime();
+                LOG.warn("Cannot send metrics to InfluxDB, spooling them until it is back: {}", e.toString());
+            }
+            if (!spool.append(buffer, offset, length, points)) {
+                throw e;
+            }
+        }
+    }
+
+    // runs on the replay thread only
+    void replay() {
+        long now = System.nanoTime();
+        refill(now);
+        if (spool.isEmpty()) {
+            return;
+        }
+        if (failing && now - lastProbeNanos < probeNanos) {
+            return;
+        }
+        lastProbeNanos = now;
+        try {
+            DiskSpool.Record next;
+            // a failing delegate is probed with one batch whatever the tokens
+            while ((failing || replayTokens > 0) && (next = spool.peek(record)) != null) {
+                try {
+                    delegate.write(next.data(), 0, next.length(), next.points());
+                } catch (RejectedBatchException e) {
+                    LOG.warn("Dropping a spooled batch of {} points: {}", next.points(), e.getMessage());
+                    stats.pointsDropped(next.points());
+                }
+                spool.remove();
+                replayTokens -= next.length();
+                if (failing) {
+                    failing = false;
+                    replayTokens = 0;
+                    LOG.info("InfluxDB is back, replaying {} spooled batches", spool.size());
+                }
+            }
+        } catch (Exception e) {
+            if (!failing) {
+                failing = true;
+                LOG.warn("Replay of spooled metrics failed, will retry: {}", e.toString());
+            }
+        }
+    }
+
+    private void refill(long now) {
+        double elapsedSeconds = (now - lastRefillNanos) / 1e9;
+        lastRefillNanos = now;
+        // allow at most one second worth of burst
+        replayTokens = Math.min(replayBytesPerSecond, replayTokens + elapsedSeconds * replayBytesPerSecond);
+    }
+
+    /**
+     * Number of batches waiting to be replayed.
+     */
+    public long spooledBatches() {
+        return spool.size();
+    }
+
+    @Override
+    public void close() {
+        // not interrupting the replay thread, which would close the channels of a running write
+        replayer.shutdown();
+        try {
+            replayer.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.close();
+        spool.close();
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.jasper.kafka;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes every batch to each of its sinks in turn, each with its own failure handling: a sink
+ * that fails is logged, its points are counted as dropped and it is skipped for the rest of the
+ * poll, while the other sinks keep getting every batch. A batch a sink rejects is dropped by
+ * that sink only. Writes never throw, {@link #failedThisPoll} tells whether a sink missed points
+ * of the poll. Only used from the polling thread.
+ */
+public class TeeBatchWriter implements BatchWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TeeBatchWriter.class);
+
+    private final String[] names;
+    private final BatchWriter[] writers;
+    private final ReporterStats stats;
+    private final boolean[] failed;
+
+    /**
+     * @param names   the names of the sinks, for logging
+     * @param writers the writers of the sinks, in the order they are written
+     * @param stats   where the points a sink dropped are counted
+     */
+    public TeeBatchWriter(String[] names, BatchWriter[] writers, ReporterStats stats) {
+        this.names = names.clone();
+        this.writers = writers.clone();
+        this.stats = stats;
+        this.failed = new boolean[writers.length];
+    }
+
+    /**
+     * Tries every sink again, including the ones that failed in the previous poll.
+     */
+    @Override
+    public void beginPoll() {
+        for (int i = 0; i < failed.length; i++) {
+            failed[i] = false;
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length, int points) {
+        for (int i = 0; i < writers.length; i++) {
+            if (failed[i]) {
+                // do not wait on a failing sink for every batch of the poll
+                stats.pointsDropped(points);
+                continue;
+            }
+            try {
+                writers[i].write(buffer, offset, length, points);
+            } catch (RejectedBatchException e) {
+                stats.pointsDropped(points);
+                LOG.warn("Dropping a batch of {} points for the {} sink: {}", points, names[i], e.getMessage());
+            } catch (Exception e) {
+                failed[i] = true;
+                stats.pointsDropped(points);
+                LOG.error("Cannot write metrics to the {} sink", names[i], e);
+            }
+        }
+    }
+
+    /**
+     * Whether a sink failed during the current poll, leaving some of its points unwritten.
+     */
+    @Override
+    public boolean failedThisPoll() {
+        for (boolean sinkFailed : failed) {
+            if (sinkFailed) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        for (BatchWriter writer : writers) {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.jasper.kafka;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Writes batches to the UDP listener of InfluxDB, for setups where losing a few points is
+ * cheaper than an HTTP round trip per batch.
+ *
+ * A batch is split on line boundaries into datagrams of at most {@code payloadBytes}, packed in
+ * a reused direct buffer and sent through a non-blocking channel. A datagram the socket has no
+ * room for, or a single point longer than a datagram can be, is dropped and counted instead of
+ * failing the write. The database and retention policy are those of the UDP listener.
+ */
+public class UdpBatchWriter implements BatchWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UdpBatchWriter.class);
+
+    // 65535 minus the IPv4 and UDP headers
+    static final int MAX_PAYLOAD_BYTES = 65507;
+
+    private final String host;
+    private final int port;
+    private final ReporterStats stats;
+    private final DatagramChannel channel;
+    private final ByteBuffer datagram;
+    private InetSocketAddress target;
+
+    /**
+     * @param host         the host of the UDP listener
+     * @param port         the port of the UDP listener
+     * @param payloadBytes largest datagram sent, a point longer than that is sent on its own
+     * @param stats        where dropped points are recorded
+     */
+    public UdpBatchWriter(String host, int port, int payloadBytes, ReporterStats stats) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.stats = stats;
+        this.target = new InetSocketAddress(host, port);
+        this.datagram = ByteBuffer.allocateDirect(Math.max(1, Math.min(payloadBytes, MAX_PAYLOAD_BYTES)));
+        this.channel = DatagramChannel.open();
+        this.channel.configureBlocking(false);
+    }
+
+    @Override
+    public synchronized void write(byte[] buffer, int offset, int length, int points) throws Exception {
+        if (target.isUnresolved()) {
+            target = new InetSocketAddress(host, port);
+            if (target.isUnresolved()) {
+                throw new IOException("Cannot resolve " + host);
+            }
+        }
+        datagram.clear();
+        int lines = 0;
+        int lineStart = offset;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (buffer[i] != '\n' && i != end - 1) {
+                continue;
+            }
+            int lineLength = i + 1 - lineStart;
+            if (lineLength > datagram.remaining() && lines > 0) {
+                datagram.flip();
+                send(datagram, lines);
+                datagram.clear();
+                lines = 0;
+            }
+            if (lineLength > datagram.capacity()) {
+                sendOversized(buffer, lineStart, lineLength);
+            } else {
+                datagram.put(buffer, lineStart, lineLength);
+                lines++;
+            }
+            lineStart = i + 1;
+        }
+        if (lines > 0) {
+            datagram.flip();
+            send(datagram, lines);
+        }
+    }
+
+    private void send(ByteBuffer payload, int lines) throws IOException {
+        if (channel.send(payload, target) == 0) {
+            // the socket buffer is full, a non-blocking channel does not wait for room
+            stats.pointsDropped(lines);
+        }
+    }
+
+    private void sendOversized(byte[] buffer, int offset, int length) throws IOException {
+        if (length > MAX_PAYLOAD_BYTES) {
+            LOG.debug("Dropping a point of {} bytes, too long for a datagram", length);
+            stats.pointsDropped(1);
+            return;
+        }
+        send(ByteBuffer.wrap(buffer, offset, length), 1);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.debug("Cannot close UDP channel", e);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Clock;
+import org.influxdb.InfluxDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code kafka.influxdb.metrics.*} properties that describe where and how the encoded
+ * metrics are written, shared by the reporters so they build the same writer stack.
+ *
+ * Parsed from plain {@link Properties} so it does not need the Kafka broker classes.
+ */
+public class WriterConfig {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriterConfig.class);
+
+    static final String PREFIX = "kafka.influxdb.metrics.";
+
+    private static final String INFLUXDB_DEFAULT_ADDRESS = "http://localhost:8060";
+    private static final String INFLUXDB_DEFAULT_USERNAME = "root";
+    private static final String INFLUXDB_DEFAULT_PASSWORD = "root";
+    private static final String INFLUXDB_DEFAULT_CONSISTENCY = "all";
+    private static final String INFLUXDB_DEFAULT_DATABASE = "kafka";
+    private static final String INFLUXDB_DEFAULT_RETENTIONPOLICY = "autogen";
+    private static final int INFLUXDB_DEFAULT_SENDER_THREADS = 0;
+    private static final int INFLUXDB_DEFAULT_SENDER_QUEUE_SIZE = 8;
+    private static final String INFLUXDB_DEFAULT_SENDER_QUEUE_POLICY = "drop";
+    private static final boolean INFLUXDB_DEFAULT_GZIP = false;
+    private static final String INFLUXDB_DEFAULT_SPOOL_DIR = "";
+    private static final int INFLUXDB_DEFAULT_SPOOL_SEGMENT_BYTES = 16 * 1024 * 1024;
+    private static final long INFLUXDB_DEFAULT_SPOOL_MAX_BYTES = 256L * 1024 * 1024;
+    private static final long INFLUXDB_DEFAULT_SPOOL_REPLAY_BYTES_PER_SEC = 1024 * 1024;
+    private static final int INFLUXDB_DEFAULT_UDP_PAYLOAD_BYTES = 1400;
+    private static final String INFLUXDB_DEFAULT_ENDPOINTS_MODE = "failover";
+    private static final int INFLUXDB_DEFAULT_FAILOVER_FAILURES = 3;
+    private static final long INFLUXDB_DEFAULT_FAILOVER_OPEN_MS = 30000;
+    private static final long INFLUXDB_DEFAULT_FAILOVER_HEALTH_CHECK_MS = 10000;
+    private static final String INFLUXDB_DEFAULT_PRECISION = "ns";
+    private static final String INFLUXDB_DEFAULT_SINK = "influxdb";
+    private static final String INFLUXDB_DEFAULT_FILE_DIR = "";
+    private static final long INFLUXDB_DEFAULT_FILE_SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final long INFLUXDB_DEFAULT_FILE_SEGMENT_MS = 3600000;
+    private static final int INFLUXDB_DEFAULT_FILE_BUFFER_BYTES = 1024 * 1024;
+    private static final boolean INFLUXDB_DEFAULT_FILE_COMPRESS = false;
+    private static final String UDP_SCHEME = "udp://";
+    private static final String SINK_INFLUXDB = "influxdb";
+    private static final String SINK_FILE = "file";
+    private static final String ENDPOINTS_MODE_SHARD = "shard";
+
+    private final Properties props;
+    private final Map<String, String> read = new TreeMap<String, String>();
+    private final Map<String, String> options;
+
+    final String address;
+    final String[] addresses;
+    final String username;
+    final String password;
+    final String consistency;
+    final String database;
+    final String retentionPolicy;
+    final int senderThreads;
+    final int senderQueueSize;
+    final AsyncBatchWriter.OverflowPolicy senderQueuePolicy;
+    final boolean gzip;
+    final String spoolDir;
+    final int spoolSegmentBytes;
+    final long spoolMaxBytes;
+    final long spoolReplayBytesPerSec;
+    final int udpPayloadBytes;
+    final TimeUnit precision;
+    final String endpointsMode;
+    final int failoverFailures;
+    final long failoverOpenMs;
+    final long failoverHealthCheckMs;
+    final boolean sinkInfluxDB;
+    final boolean sinkFile;
+    final String fileDir;
+    final long fileSegmentBytes;
+    final long fileSegmentMs;
+    final int fileBufferBytes;
+    final boolean fileCompress;
+
+    public WriterConfig(Properties props) {
+        this.props = props;
+        address = getString("address", INFLUXDB_DEFAULT_ADDRESS);
+        addresses = address.trim().split("\\s*,\\s*");
+        username = getString("username", INFLUXDB_DEFAULT_USERNAME);
+        password = getString("password", INFLUXDB_DEFAULT_PASSWORD);
+        consistency = getString("consistency", INFLUXDB_DEFAULT_CONSISTENCY);
+        database = getString("database", INFLUXDB_DEFAULT_DATABASE);
+        retentionPolicy = getString("retentionPolicy", INFLUXDB_DEFAULT_RETENTIONPOLICY);
+        senderThreads = getInt("sender.threads", INFLUXDB_DEFAULT_SENDER_THREADS);
+        senderQueueSize = Math.max(1, getInt("sender.queue.size", INFLUXDB_DEFAULT_SENDER_QUEUE_SIZE));
+        senderQueuePolicy = AsyncBatchWriter.OverflowPolicy.valueOf(getString("sender.queue.policy", INFLUXDB_DEFAULT_SENDER_QUEUE_POLICY));
+        gzip = getBoolean("gzip", INFLUXDB_DEFAULT_GZIP);
+        spoolDir = getString("spool.dir", INFLUXDB_DEFAULT_SPOOL_DIR);
+        spoolSegmentBytes = getInt("spool.segment.bytes", INFLUXDB_DEFAULT_SPOOL_SEGMENT_BYTES);
+        spoolMaxBytes = getLong("spool.max.bytes", INFLUXDB_DEFAULT_SPOOL_MAX_BYTES);
+        spoolReplayBytesPerSec = getLong("spool.replay.bytes.per.sec", INFLUXDB_DEFAULT_SPOOL_REPLAY_BYTES_PER_SEC);
+        udpPayloadBytes = getInt("udp.payload.bytes", INFLUXDB_DEFAULT_UDP_PAYLOAD_BYTES);
+        precision = parsePrecision(getString("precision", INFLUXDB_DEFAULT_PRECISION));
+        endpointsMode = getString("endpoints.mode", INFLUXDB_DEFAULT_ENDPOINTS_MODE);
+        failoverFailures = getInt("failover.failures", INFLUXDB_DEFAULT_FAILOVER_FAILURES);
+        failoverOpenMs = getLong("failover.open.ms", INFLUXDB_DEFAULT_FAILOVER_OPEN_MS);
+        failoverHealthCheckMs = getLong("failover.health.check.ms", INFLUXDB_DEFAULT_FAILOVER_HEALTH_CHECK_MS);
+        List<String> sinks = Arrays.asList(getString("sink", INFLUXDB_DEFAULT_SINK).trim().split("\\s*,\\s*"));
+        sinkInfluxDB = sinks.contains(SINK_INFLUXDB);
+        sinkFile = sinks.contains(SINK_FILE);
+        if (!sinkInfluxDB && !sinkFile) {
+            throw new IllegalArgumentException("Sink must be influxdb, file or both: " + sinks);
+        }
+        fileDir = getString("file.dir", INFLUXDB_DEFAULT_FILE_DIR);
+        if (sinkFile && fileDir.isEmpty()) {
+            throw new IllegalArgumentException("The file sink needs " + PREFIX + "file.dir");
+        }
+        fileSegmentBytes = getLong("file.segment.bytes", INFLUXDB_DEFAULT_FILE_SEGMENT_BYTES);
+        fileSegmentMs = getLong("file.segment.ms", INFLUXDB_DEFAULT_FILE_SEGMENT_MS);
+        fileBufferBytes = getInt("file.buffer.bytes", INFLUXDB_DEFAULT_FILE_BUFFER_BYTES);
+        fileCompress = getBoolean("file.compress", INFLUXDB_DEFAULT_FILE_COMPRESS);
+        options = Collections.unmodifiableMap(new TreeMap<String, String>(read));
+    }
+
+    /**
+     * The writer options as configured, without the defaults and the options of the reporters:
+     * two configurations with the same options build the same writer stack.
+     */
+    Map<String, String> options() {
+        return options;
+    }
+
+    /**
+     * Reads the configuration from the configs a Kafka client or broker hands to its reporters,
+     * whose values are not necessarily strings.
+     */
+    public static Properties toProperties(Map<String, ?> configs) {
+        Properties props = new Properties();
+        for (Map.Entry<String, ?> config : configs.entrySet()) {
+            if (config.getValue() != null) {
+                props.setProperty(config.getKey(), String.valueOf(config.getValue()));
+            }
+        }
+        return props;
+    }
+
+    static TimeUnit parsePrecision(String precision) {
+        String unit = precision.trim();
+        if (unit.equals("ns") || unit.equals("n")) {
+            return TimeUnit.NANOSECONDS;
+        } else if (unit.equals("ms")) {
+            return TimeUnit.MILLISECONDS;
+        } else if (unit.equals("s")) {
+            return TimeUnit.SECONDS;
+        }
+        throw new IllegalArgumentException("Precision must be one of ns, ms, s: " + precision);
+    }
+
+    String getString(String name, String defaultValue) {
+        String value = getProperty(name);
+        return value == null ? defaultValue : value;
+    }
+
+    int getInt(String name, int defaultValue) {
+        String value = getProperty(name);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    long getLong(String name, long defaultValue) {
+        String value = getProperty(name);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    boolean getBoolean(String name, boolean defaultValue) {
+        String value = getProperty(name);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    private String getProperty(String name) {
+        String value = props.getProperty(PREFIX + name);
+        if (value != null) {
+            // the constructor reads exactly the writer options, kept by options()
+            read.put(name, value);
+        }
+        return value;
+    }
+
+    /**
+     * Builds the writer stack of the configured sinks: the InfluxDB stack, the line protocol
+     * files, or both, with the files written first and each sink failing on its own.
+     */
+    public BatchWriter buildBatchWriter(ReporterStats stats) {
+        List<AsyncBatchWriter> senders = new ArrayList<AsyncBatchWriter>();
+        BatchWriter writer = sinkInfluxDB ? buildInfluxDBWriter(stats, senders) : null;
+        if (sinkFile) {
+            BatchWriter fileWriter = new InstrumentedBatchWriter(buildFileWriter(), stats);
+            writer = writer == null ? fileWriter
+                    : new TeeBatchWriter(new String[]{"file", "influxdb"}, new BatchWriter[]{fileWriter, writer}, stats);
+        }
+        stats.monitor(senders.toArray(new AsyncBatchWriter[senders.size()]));
+        return writer;
+    }
+
+    private BatchWriter buildFileWriter() {
+        try {
+            return new FileBatchWriter(new File(fileDir), database, retentionPolicy, fileSegmentBytes, fileSegmentMs,
+                    fileBufferBytes, fileCompress, Clock.defaultClock());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open metrics file directory " + fileDir, e);
+        }
+    }
+
+    /**
+     * Builds the InfluxDB stack: the InfluxDB client, or the UDP writer for a {@code udp://host:port}
+     * address, instrumented with the given stats, behind the disk spool and the asynchronous
+     * sender when they are configured.
+     *
+     * With several addresses, the endpoints either share the points by series, each endpoint
+     * behind its own spool and sender, or are used in turn behind one spool and sender.
+     */
+    private BatchWriter buildInfluxDBWriter(ReporterStats stats, List<AsyncBatchWriter> senders) {
+        BatchWriter writer;
+        if (addresses.length > 1 && ENDPOINTS_MODE_SHARD.equals(endpointsMode)) {
+            BatchWriter[] shards = new BatchWriter[addresses.length];
+            for (int i = 0; i < addresses.length; i++) {
+                String shardSpoolDir = spoolDir.isEmpty() ? spoolDir : new File(spoolDir, "endpoint-" + i).getPath();
+                shards[i] = queue(spool(new InstrumentedBatchWriter(buildEndpointWriter(addresses[i], stats), stats), shardSpoolDir, stats),
+                        Math.max(1, senderThreads), senders);
+            }
+            writer = new ShardingBatchWriter(addresses, shards);
+        } else if (addresses.length > 1) {
+            BatchWriter[] endpoints = new BatchWriter[addresses.length];
+            FailoverBatchWriter.HealthCheck[] checks = new FailoverBatchWriter.HealthCheck[addresses.length];
+            for (int i = 0; i < addresses.length; i++) {
+                endpoints[i] = buildEndpointWriter(addresses[i], stats);
+                if (endpoints[i] instanceof FailoverBatchWriter.HealthCheck) {
+                    checks[i] = (FailoverBatchWriter.HealthCheck) endpoints[i];
+                }
+            }
+            // instrumented as a whole, a batch taken by the next endpoint is not a failed write
+            writer = new InstrumentedBatchWriter(
+                    new FailoverBatchWriter(addresses, endpoints, checks, failoverFailures, failoverOpenMs, failoverHealthCheckMs), stats);
+            writer = queue(spool(writer, spoolDir, stats), senderThreads, senders);
+        } else {
+            writer = new InstrumentedBatchWriter(buildEndpointWriter(address, stats), stats);
+            writer = queue(spool(writer, spoolDir, stats), senderThreads, senders);
+        }
+        return writer;
+    }
+
+    private BatchWriter spool(BatchWriter writer, String dir, ReporterStats stats) {
+        if (!dir.isEmpty()) {
+            try {
+                return new SpoolingBatchWriter(writer, new DiskSpool(new File(dir), spoolSegmentBytes, spoolMaxBytes), spoolReplayBytesPerSec, stats);
+            } catch (IOException e) {
+                LOG.error("Cannot open spool directory {}, failed writes will be dropped", dir, e);
+            }
+        }
+        return writer;
+    }
+
+    private BatchWriter queue(BatchWriter writer, int threads, List<AsyncBatchWriter> senders) {
+        if (threads > 0) {
+            AsyncBatchWriter asyncWriter = new AsyncBatchWriter(writer, threads, senderQueueSize, senderQueuePolicy);
+            senders.add(asyncWriter);
+            return asyncWriter;
+        }
+        return writer;
+    }
+
+    private BatchWriter buildEndpointWriter(String endpoint, ReporterStats stats) {
+        return endpoint.startsWith(UDP_SCHEME) ? buildUdpWriter(endpoint, stats) : buildHttpWriter(endpoint);
+    }
+
+    private BatchWriter buildHttpWriter(String endpoint) {
+        if (precision != TimeUnit.NANOSECONDS) {
+            // influxdb-java always writes with nanosecond precision
+            try {
+                return new HttpBatchWriter(endpoint, username, password, database, retentionPolicy, consistency, precision, gzip);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Invalid InfluxDB address " + endpoint, e);
+            }
+        }
+        InfluxDB influxDBclient = InfluxDBBatchWriter.connect(endpoint, username, password);
+        if (gzip) {
+            influxDBclient.enableGzip();
+        }
+        return new InfluxDBBatchWriter(
+                influxDBclient,
+                database,
+                retentionPolicy,
+                consistency);
+    }
+
+    private BatchWriter buildUdpWriter(String endpoint, ReporterStats stats) {
+        URI uri = URI.create(endpoint);
+        if (uri.getHost() == null || uri.getPort() < 0) {
+            throw new IllegalArgumentException("UDP address must be udp://host:port: " + endpoint);
+        }
+        try {
+            return new UdpBatchWriter(uri.getHost(), uri.getPort(), udpPayloadBytes, stats);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open UDP channel to " + endpoint, e);
+        }
+    }
+}
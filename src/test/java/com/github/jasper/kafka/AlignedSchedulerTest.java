@@ -0,0 +1,59 @@
+package com.github.jasper.kafka;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AlignedSchedulerTest {
+
+    @Test
+    public void ticksOnTheShiftedGrid() {
+        assertEquals(60000 + 7000, AlignedScheduler.nextTick(7000, 60000, 7000));
+        assertEquals(7000, AlignedScheduler.nextTick(6999, 60000, 7000));
+        assertEquals(120000 + 7000, AlignedScheduler.nextTick(90000, 60000, 7000));
+        assertEquals(60000, AlignedScheduler.nextTick(0, 60000, 0));
+    }
+
+    @Test
+    public void derivesAStableOffsetWithinThePeriod() {
+        long offset = AlignedScheduler.phaseOffset("broker-1.example.com", 60000);
+        assertEquals(offset, AlignedScheduler.phaseOffset("broker-1.example.com", 60000));
+        assertTrue(offset >= 0 && offset < 60000);
+        assertEquals(0, AlignedScheduler.phaseOffset(null, 60000));
+
+        boolean spread = false;
+        for (int i = 2; i < 10; i++) {
+            spread |= AlignedScheduler.phaseOffset("broker-" + i + ".example.com", 60000) != offset;
+        }
+        assertTrue(spread);
+    }
+
+    @Test
+    public void coalescesTicksMissedByASlowRun() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        AlignedScheduler scheduler = new AlignedScheduler("test-scheduler", null);
+        scheduler.start(new Runnable() {
+            @Override
+            public void run() {
+                if (runs.incrementAndGet() == 1) {
+                    try {
+                        Thread.sleep(120);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }, 20);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (runs.get() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        scheduler.stop();
+
+        assertTrue(runs.get() >= 3);
+        assertTrue(scheduler.ticksCoalesced() >= 4);
+    }
+}
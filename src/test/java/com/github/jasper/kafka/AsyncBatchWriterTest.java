@@ -0,0 +1,114 @@
+package com.github.jasper.kafka;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncBatchWriterTest {
+
+    /**
+     * Holds the first batch until released, so the following ones queue up.
+     */
+    private static final class BlockingWriter implements BatchWriter {
+        final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void write(byte[] buffer, int offset, int length, int points) throws Exception {
+            entered.countDown();
+            release.await();
+            written.add(new String(buffer, offset, length, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final BlockingWriter delegate = new BlockingWriter();
+
+    @After
+    public void tearDown() {
+        delegate.release.countDown();
+    }
+
+    private static void write(BatchWriter writer, String batch, int points) throws Exception {
+        byte[] bytes = batch.getBytes(StandardCharsets.UTF_8);
+        writer.write(bytes, 0, bytes.length, points);
+    }
+
+    // one batch in flight, one queued
+    private AsyncBatchWriter busySender(AsyncBatchWriter.OverflowPolicy policy) throws Exception {
+        AsyncBatchWriter sender = new AsyncBatchWriter(delegate, 1, 1, policy);
+        write(sender, "a", 1);
+        assertTrue(delegate.entered.await(10, TimeUnit.SECONDS));
+        write(sender, "b", 2);
+        assertEquals(1, sender.queueDepth());
+        return sender;
+    }
+
+    @Test
+    public void dropsTheNewBatchWhenTheQueueIsFull() throws Exception {
+        AsyncBatchWriter sender = busySender(AsyncBatchWriter.OverflowPolicy.drop);
+        write(sender, "c", 3);
+        assertEquals(1, sender.droppedBatches());
+        assertEquals(3, sender.droppedPoints());
+
+        delegate.release.countDown();
+        sender.close();
+        assertEquals(Arrays.asList("a", "b"), delegate.written);
+    }
+
+    @Test
+    public void overwritesTheOldestQueuedBatchWhenTheQueueIsFull() throws Exception {
+        AsyncBatchWriter sender = busySender(AsyncBatchWriter.OverflowPolicy.overwrite);
+        write(sender, "c", 3);
+        assertEquals(1, sender.droppedBatches());
+        assertEquals(2, sender.droppedPoints());
+        assertEquals(1, sender.queueDepth());
+
+        delegate.release.countDown();
+        sender.close();
+        assertEquals(Arrays.asList("a", "c"), delegate.written);
+    }
+
+    @Test
+    public void countsTheBatchesTheDelegateFailedAsDropped() throws Exception {
+        RecordingBatchWriter failing = new RecordingBatchWriter().fail(1);
+        AsyncBatchWriter sender = new AsyncBatchWriter(failing, 1, 4, AsyncBatchWriter.OverflowPolicy.drop);
+        write(sender, "a", 4);
+        write(sender, "b", 1);
+        sender.close();
+        assertEquals(1, sender.failedBatches());
+        assertEquals(4, sender.droppedPoints());
+        assertEquals(0, sender.droppedBatches());
+        assertEquals(Arrays.asList("b"), failing.batches());
+    }
+
+    @Test
+    public void drainsTheQueueOnCloseAndDropsLaterBatches() throws Exception {
+        AsyncBatchWriter sender = new AsyncBatchWriter(delegate, 1, 4, AsyncBatchWriter.OverflowPolicy.drop);
+        write(sender, "a", 1);
+        assertTrue(delegate.entered.await(10, TimeUnit.SECONDS));
+        write(sender, "b", 1);
+        write(sender, "c", 1);
+        delegate.release.countDown();
+        sender.close();
+        assertEquals(Arrays.asList("a", "b", "c"), delegate.written);
+
+        write(sender, "d", 5);
+        assertEquals(5, sender.droppedPoints());
+        assertEquals(Arrays.asList("a", "b", "c"), delegate.written);
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.MetricName;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CardinalityLimiterTest {
+
+    private static MetricName name(String type, String clientId) {
+        return new MetricName("kafka.server", type, "byte-rate", "client-id." + clientId);
+    }
+
+    private static MetricName name(String clientId) {
+        return name("ClientQuotas", clientId);
+    }
+
+    private static boolean admit(CardinalityLimiter limiter, MetricName name, String metricType, double value) {
+        return limiter.admit(name, SeriesKey.of(name, Collections.<String, String>emptyMap(), "metric_type", metricType), value);
+    }
+
+    private static boolean admit(CardinalityLimiter limiter, MetricName name, double value) {
+        return admit(limiter, name, "gauge", value);
+    }
+
+    @Test
+    public void foldsSeriesOverTheLimitIntoOther() {
+        CardinalityLimiter limiter = new CardinalityLimiter(2, 100, Collections.singletonMap("hostname", "b1"));
+        limiter.beginPoll();
+        assertTrue(admit(limiter, name("a"), 1));
+        assertTrue(admit(limiter, name("b"), 2));
+        assertFalse(admit(limiter, name("c"), 3));
+        assertFalse(admit(limiter, name("d"), 4));
+
+        LineProtocolEncoder encoder = new LineProtocolEncoder();
+        assertEquals(1, limiter.size());
+        limiter.encode(0, encoder, 1L);
+        assertEquals("byte-rate.other,bucket=other,hostname=b1,metric_type=gauge series=2i,sum=7 1000000\n", encoder.toString());
+        assertEquals(2, limiter.interventions());
+    }
+
+    @Test
+    public void foldsEachMetricTypeIntoItsOwnBucket() {
+        CardinalityLimiter limiter = new CardinalityLimiter(1, 100, Collections.<String, String>emptyMap());
+        limiter.beginPoll();
+        assertTrue(admit(limiter, name("a"), "gauge", 1));
+        assertFalse(admit(limiter, name("b"), "gauge", 2));
+        assertFalse(admit(limiter, name("Meter", "c"), "meter", 1000));
+        assertFalse(admit(limiter, name("Meter", "d"), "meter", 500));
+
+        LineProtocolEncoder encoder = new LineProtocolEncoder();
+        assertEquals(1, limiter.size());
+        limiter.encode(0, encoder, 1L);
+        assertEquals("byte-rate.other,bucket=other,metric_type=gauge series=1i,sum=2 1000000\n"
+                + "byte-rate.other,bucket=other,metric_type=meter series=2i,sum=1500 1000000\n", encoder.toString());
+
+        // written once per poll
+        encoder = new LineProtocolEncoder();
+        limiter.encode(0, encoder, 1L);
+        assertEquals("", encoder.toString());
+    }
+
+    @Test
+    public void keepsTheMostActiveSeries() {
+        CardinalityLimiter limiter = new CardinalityLimiter(1, 4, Collections.<String, String>emptyMap());
+        MetricName idle = name("idle");
+        MetricName busy = name("busy");
+        for (int poll = 1; poll < 4; poll++) {
+            limiter.beginPoll();
+            admit(limiter, idle, 1);
+            admit(limiter, busy, poll);
+        }
+        limiter.beginPoll();
+        assertTrue(admit(limiter, busy, 4));
+        assertFalse(admit(limiter, idle, 1));
+    }
+
+    @Test
+    public void keepsThePlaceOfAMetricWithANewKey() {
+        CardinalityLimiter limiter = new CardinalityLimiter(1, 100, Collections.<String, String>emptyMap());
+        limiter.beginPoll();
+        assertTrue(admit(limiter, name("a"), 1));
+        limiter.beginPoll();
+        // a key built again, e.g. after the key cache was cleared
+        assertTrue(admit(limiter, name("a"), 1));
+        assertFalse(admit(limiter, name("b"), 1));
+    }
+
+    @Test
+    public void freesThePlaceOfARemovedMetric() {
+        CardinalityLimiter limiter = new CardinalityLimiter(1, 100, Collections.<String, String>emptyMap());
+        limiter.beginPoll();
+        assertTrue(admit(limiter, name("a"), 1));
+        assertFalse(admit(limiter, name("b"), 1));
+
+        limiter.onMetricRemoved(name("a"));
+        limiter.beginPoll();
+        assertTrue(admit(limiter, name("c"), 1));
+        assertFalse(admit(limiter, name("a"), 1));
+    }
+
+    @Test
+    public void keepsTheSeriesOfASlowTierBetweenItsPolls() {
+        PollingTiers tiers = new PollingTiers(Collections.singletonMap(30000L, "kafka.server:ClientQuotas"));
+        tiers.start(1000);
+        CardinalityLimiter limiter = new CardinalityLimiter(1, 2, Collections.<String, String>emptyMap());
+        limiter.setPollingTiers(tiers);
+        MetricName slow = name("slow");
+        MetricName fast = name("Other", "fast");
+        for (int tick = 0; tick < 100; tick++) {
+            tiers.beginPoll();
+            limiter.beginPoll();
+            if (tiers.isDue(slow)) {
+                assertTrue("tick " + tick, admit(limiter, slow, 1));
+            }
+            assertFalse("tick " + tick, admit(limiter, fast, 1));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.jasper.kafka;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeSuppressorTest {
+
+    private static SeriesKey key(String name) {
+        return SeriesKey.of(name, Collections.<String, String>emptyMap(), null, null);
+    }
+
+    @Test
+    public void skipsUnchangedValuesUntilHeartbeat() {
+        ChangeSuppressor suppressor = new ChangeSuppressor(3);
+        SeriesKey key = key("m");
+
+        suppressor.beginPoll();
+        assertTrue(suppressor.shouldWrite(key, 1L));
+        suppressor.beginPoll();
+        assertFalse(suppressor.shouldWrite(key, 1L));
+        suppressor.beginPoll();
+        assertTrue(suppressor.shouldWrite(key, 2.5));
+        suppressor.beginPoll();
+        assertFalse(suppressor.shouldWrite(key, 2.5));
+        suppressor.beginPoll();
+        assertFalse(suppressor.shouldWrite(key, 2.5));
+        suppressor.beginPoll();
+        assertTrue(suppressor.shouldWrite(key, 2.5));
+        assertEquals(3, suppressor.suppressed());
+    }
+
+    @Test
+    public void forgetsSeriesNoLongerReported() {
+        ChangeSuppressor suppressor = new ChangeSuppressor(2);
+        SeriesKey live = key("live");
+        SeriesKey[] keys = new SeriesKey[5000];
+        suppressor.beginPoll();
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key("m" + i);
+            assertTrue(suppressor.shouldWrite(keys[i], (long) i));
+        }
+        assertEquals(keys.length, suppressor.size());
+        for (int poll = 0; poll < 10; poll++) {
+            suppressor.beginPoll();
+            suppressor.shouldWrite(live, 0L);
+        }
+        assertEquals(1, suppressor.size());
+        assertFalse(suppressor.shouldWrite(live, 0L));
+    }
+
+    @Test
+    public void comparesValuesThatAreNotNumbersByValue() {
+        ChangeSuppressor suppressor = new ChangeSuppressor(10);
+        SeriesKey key = key("m");
+
+        suppressor.beginPoll();
+        assertTrue(suppressor.shouldWrite(key, (Object) new String("Aa")));
+        suppressor.beginPoll();
+        assertFalse(suppressor.shouldWrite(key, (Object) new String("Aa")));
+        suppressor.beginPoll();
+        // same hash code as "Aa"
+        assertTrue(suppressor.shouldWrite(key, (Object) "BB"));
+        suppressor.beginPoll();
+        assertTrue(suppressor.shouldWrite(key, 0L));
+    }
+
+    @Test
+    public void writesTheSeriesOfAFailedPollAgain() {
+        ChangeSuppressor suppressor = new ChangeSuppressor(10);
+        SeriesKey written = key("written");
+        SeriesKey suppressed = key("suppressed");
+
+        suppressor.beginPoll();
+        assertTrue(suppressor.shouldWrite(suppressed, 1L));
+        suppressor.beginPoll();
+        assertTrue(suppressor.shouldWrite(written, 1L));
+        assertFalse(suppressor.shouldWrite(suppressed, 1L));
+        suppressor.pollFailed();
+
+        suppressor.beginPoll();
+        assertTrue(suppressor.shouldWrite(written, 1L));
+        assertFalse(suppressor.shouldWrite(suppressed, 1L));
+        suppressor.beginPoll();
+        assertFalse(suppressor.shouldWrite(written, 1L));
+    }
+}
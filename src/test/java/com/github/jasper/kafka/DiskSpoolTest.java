@@ -0,0 +1,99 @@
+package com.github.jasper.kafka;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DiskSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysBatchesInOrderAcrossSegmentsAndRestarts() throws Exception {
+        File dir = folder.newFolder("spool");
+        DiskSpool spool = new DiskSpool(dir, 64, 1024);
+        for (int i = 0; i < 10; i++) {
+            append(spool, "batch-" + i);
+        }
+        assertTrue(spool.segmentCount() > 1);
+        assertEquals("batch-0", next(spool));
+        assertEquals("batch-1", next(spool));
+        spool.close();
+
+        DiskSpool reopened = new DiskSpool(dir, 64, 1024);
+        assertEquals(10, reopened.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("batch-" + i, next(reopened));
+        }
+        assertTrue(reopened.isEmpty());
+        assertNull(reopened.peek(new DiskSpool.Record()));
+    }
+
+    @Test
+    public void dropsOldestSegmentWhenFull() throws Exception {
+        DiskSpool spool = new DiskSpool(folder.newFolder("spool"), 64, 128);
+        for (int i = 0; i < 20; i++) {
+            append(spool, "batch-" + i);
+        }
+        assertEquals(2, spool.segmentCount());
+        assertTrue(spool.droppedBatches() > 0);
+        assertEquals(20, spool.size() + spool.droppedBatches());
+        assertEquals("batch-19", last(spool));
+    }
+
+    @Test
+    public void rejectsBatchesLargerThanASegment() throws Exception {
+        DiskSpool spool = new DiskSpool(folder.newFolder("spool"), 64, 1024);
+        byte[] large = new byte[100];
+        assertFalse(spool.append(large, 0, large.length, 1));
+        assertTrue(spool.isEmpty());
+    }
+
+    private static void append(DiskSpool spool, String batch) throws Exception {
+        byte[] bytes = batch.getBytes(StandardCharsets.UTF_8);
+        assertTrue(spool.append(bytes, 0, bytes.length, 1));
+    }
+
+    private static String next(DiskSpool spool) throws Exception {
+        DiskSpool.Record record = spool.peek(new DiskSpool.Record());
+        spool.remove();
+        return new String(record.data(), 0, record.length(), StandardCharsets.UTF_8);
+    }
+
+    private static String last(DiskSpool spool) throws Exception {
+        String last = null;
+        while (!spool.isEmpty()) {
+            last = next(spool);
+        }
+        return last;
+    }
+
+    @Test
+    public void refusesADirectoryUsedByAnotherSpool() throws Exception {
+        File dir = folder.newFolder("spool");
+        DiskSpool spool = new DiskSpool(dir, 64, 1024);
+        append(spool, "batch-0");
+        try {
+            new DiskSpool(dir, 64, 1024);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("already used by another reporter"));
+        }
+        spool.close();
+
+        DiskSpool reopened = new DiskSpool(dir, 64, 1024);
+        assertEquals("batch-0", next(reopened));
+        reopened.close();
+    }
+}
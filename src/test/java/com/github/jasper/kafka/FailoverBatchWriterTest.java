@@ -0,0 +1,115 @@
+package com.github.jasper.kafka;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FailoverBatchWriterTest {
+
+    private static class Endpoint implements BatchWriter, FailoverBatchWriter.HealthCheck {
+        boolean up = true;
+        boolean rejecting;
+        int attempts;
+        int writes;
+
+        @Override
+        public void write(byte[] buffer, int offset, int length, int points) throws IOException {
+            attempts++;
+            if (!up) {
+                throw new IOException("down");
+            }
+            if (rejecting) {
+                throw new RejectedBatchException(400, "field type conflict");
+            }
+            writes++;
+        }
+
+        @Override
+        public boolean isHealthy() {
+            return up;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final byte[] BATCH = "m value=1 0\n".getBytes();
+
+    @Test
+    public void skipsAFailingEndpointUntilItIsHealthyAgain() throws Exception {
+        Endpoint primary = new Endpoint();
+        Endpoint secondary = new Endpoint();
+        FailoverBatchWriter writer = new FailoverBatchWriter(new String[]{"a", "b"}, new BatchWriter[]{primary, secondary},
+                new FailoverBatchWriter.HealthCheck[]{primary, secondary}, 2, 60000, 0);
+        primary.up = false;
+        for (int i = 0; i < 4; i++) {
+            writer.write(BATCH, 0, BATCH.length, 1);
+        }
+        assertEquals(2, primary.attempts);
+        assertEquals(4, secondary.writes);
+        assertFalse(writer.isAvailable(0));
+
+        primary.up = true;
+        writer.checkHealth();
+        assertTrue(writer.isAvailable(0));
+        writer.write(BATCH, 0, BATCH.length, 1);
+        assertEquals(1, primary.writes);
+        assertEquals(4, secondary.writes);
+    }
+
+    @Test
+    public void opensTheBreakerOfAnEndpointFoundDown() throws Exception {
+        Endpoint primary = new Endpoint();
+        Endpoint secondary = new Endpoint();
+        FailoverBatchWriter writer = new FailoverBatchWriter(new String[]{"a", "b"}, new BatchWriter[]{primary, secondary},
+                new FailoverBatchWriter.HealthCheck[]{primary, null}, 3, 60000, 0);
+        primary.up = false;
+        writer.checkHealth();
+        writer.write(BATCH, 0, BATCH.length, 1);
+        assertEquals(0, primary.attempts);
+        secondary.up = false;
+        try {
+            writer.write(BATCH, 0, BATCH.length, 1);
+        } catch (IOException e) {
+            return;
+        }
+        throw new AssertionError("write should fail without any endpoint");
+    }
+
+    @Test
+    public void neitherFailsOverNorOpensABreakerOnARejectedBatch() throws Exception {
+        Endpoint primary = new Endpoint();
+        Endpoint secondary = new Endpoint();
+        FailoverBatchWriter writer = new FailoverBatchWriter(new String[]{"a", "b"}, new BatchWriter[]{primary, secondary},
+                new FailoverBatchWriter.HealthCheck[]{primary, secondary}, 1, 60000, 0);
+        primary.rejecting = true;
+        for (int i = 0; i < 3; i++) {
+            try {
+                writer.write(BATCH, 0, BATCH.length, 1);
+                throw new AssertionError("a rejected batch should fail");
+            } catch (RejectedBatchException e) {
+                assertEquals(400, e.getStatus());
+            }
+        }
+        assertEquals(3, primary.attempts);
+        assertEquals(0, secondary.attempts);
+        assertTrue(writer.isAvailable(0));
+    }
+
+    @Test
+    public void countsABatchTakenByTheNextEndpointAsOneWrite() throws Exception {
+        Endpoint primary = new Endpoint();
+        Endpoint secondary = new Endpoint();
+        ReporterStats stats = new ReporterStats();
+        BatchWriter writer = new InstrumentedBatchWriter(new FailoverBatchWriter(new String[]{"a", "b"},
+                new BatchWriter[]{primary, secondary}, new FailoverBatchWriter.HealthCheck[]{null, null}, 3, 60000, 0), stats);
+        primary.up = false;
+        writer.write(BATCH, 0, BATCH.length, 1);
+        assertEquals(0, stats.getWriteFailures());
+    }
+}
@@ -0,0 +1,333 @@
+package com.github.jasper.kafka;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A stand-in for the HTTP API of InfluxDB: answers {@code /ping}, parses the line protocol of
+ * {@code /write} requests and records their points, and can be told to answer slowly, fail
+ * with a 5xx status or drop the connection without an answer.
+ */
+final class FakeInfluxDB implements AutoCloseable {
+
+    /**
+     * A point as received, with its raw field values.
+     */
+    static final class Point {
+        final String measurement;
+        final Map<String, String> tags;
+        final Map<String, String> fields;
+        final long timestamp;
+
+        Point(String measurement, Map<String, String> tags, Map<String, String> fields, long timestamp) {
+            this.measurement = measurement;
+            this.tags = tags;
+            this.fields = fields;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return measurement + tags + fields + " " + timestamp;
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private final List<Point> points = Collections.synchronizedList(new ArrayList<Point>());
+    private final List<Map<String, String>> writeParameters = Collections.synchronizedList(new ArrayList<Map<String, String>>());
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong pointsReceived = new AtomicLong();
+    private volatile long lastAckNanos;
+
+    private volatile long latencyMs;
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile int failureStatus = 503;
+    private final AtomicInteger resets = new AtomicInteger();
+    private volatile boolean recordPoints = true;
+
+    FakeInfluxDB() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64);
+        executor = Executors.newFixedThreadPool(8);
+        server.setExecutor(executor);
+        server.createContext("/ping", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("X-Influxdb-Version", "1.8.10");
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        server.createContext("/write", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                write(exchange);
+            }
+        });
+        server.start();
+    }
+
+    String address() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * Delays every answer to a write by the given time.
+     */
+    FakeInfluxDB latency(long latencyMs) {
+        this.latencyMs = latencyMs;
+        return this;
+    }
+
+    /**
+     * Answers the next {@code requests} writes with the given status, without recording them.
+     */
+    FakeInfluxDB fail(int requests, int status) {
+        this.failureStatus = status;
+        this.failures.set(requests);
+        return this;
+    }
+
+    /**
+     * Closes the connection of the next {@code requests} writes without an answer.
+     */
+    FakeInfluxDB reset(int requests) {
+        this.resets.set(requests);
+        return this;
+    }
+
+    /**
+     * Only counts the points of the next writes instead of keeping them, for load tests.
+     */
+    FakeInfluxDB countOnly() {
+        this.recordPoints = false;
+        return this;
+    }
+
+    private void write(HttpExchange exchange) throws IOException {
+        byte[] body = readFully(exchange.getRequestBody());
+        bytesReceived.addAndGet(body.length);
+        requests.incrementAndGet();
+        if (latencyMs > 0) {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (take(resets)) {
+            // no status line at all, the client sees the connection go away
+            exchange.close();
+            return;
+        }
+        if (take(failures)) {
+            answer(exchange, failureStatus, "{\"error\":\"injected failure\"}");
+            return;
+        }
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            body = readFully(new GZIPInputStream(new ByteArrayInputStream(body)));
+        }
+        writeParameters.add(parameters(exchange.getRequestURI().getRawQuery()));
+        int count = parse(new String(body, StandardCharsets.UTF_8));
+        pointsReceived.addAndGet(count);
+        lastAckNanos = System.nanoTime();
+        answer(exchange, 204, null);
+    }
+
+    private static boolean take(AtomicInteger remaining) {
+        int left;
+        do {
+            left = remaining.get();
+            if (left <= 0) {
+                return false;
+            }
+        } while (!remaining.compareAndSet(left, left - 1));
+        return true;
+    }
+
+    private static void answer(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+        }
+        exchange.close();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static Map<String, String> parameters(String query) throws IOException {
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals > 0) {
+                    parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                            URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private int parse(String body) {
+        int count = 0;
+        for (String line : body.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            count++;
+            if (recordPoints) {
+                points.add(parsePoint(line));
+            }
+        }
+        return count;
+    }
+
+    static Point parsePoint(String line) {
+        int keyEnd = next(line, 0, ' ', false);
+        int fieldsEnd = next(line, keyEnd + 1, ' ', true);
+        List<String> key = split(line.substring(0, keyEnd), ',', false);
+        Map<String, String> tags = new LinkedHashMap<String, String>();
+        for (String tag : key.subList(1, key.size())) {
+            int equals = next(tag, 0, '=', false);
+            tags.put(unescape(tag.substring(0, equals)), unescape(tag.substring(equals + 1)));
+        }
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        for (String field : split(line.substring(keyEnd + 1, fieldsEnd), ',', true)) {
+            int equals = next(field, 0, '=', false);
+            fields.put(unescape(field.substring(0, equals)), field.substring(equals + 1));
+        }
+        long timestamp = fieldsEnd < line.length() ? Long.parseLong(line.substring(fieldsEnd + 1).trim()) : 0;
+        return new Point(unescape(key.get(0)), tags, fields, timestamp);
+    }
+
+    // index of the next unescaped separator, outside of string field values if quoted
+    private static int next(String s, int from, char separator, boolean quoted) {
+        boolean inString = false;
+        for (int i = from; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (quoted && c == '"') {
+                inString = !inString;
+            } else if (c == separator && !inString) {
+                return i;
+            }
+        }
+        return s.length();
+    }
+
+    private static List<String> split(String s, char separator, boolean quoted) {
+        List<String> parts = new ArrayList<String>();
+        int start = 0;
+        while (start <= s.length()) {
+            int end = next(s, start, separator, quoted);
+            parts.add(s.substring(start, end));
+            start = end + 1;
+        }
+        return parts;
+    }
+
+    private static String unescape(String s) {
+        return s.replace("\\ ", " ").replace("\\,", ",").replace("\\=", "=");
+    }
+
+    /**
+     * The points recorded so far.
+     */
+    List<Point> points() {
+        synchronized (points) {
+            return new ArrayList<Point>(points);
+        }
+    }
+
+    /**
+     * The query parameters of the accepted writes, such as {@code db} and {@code precision}.
+     */
+    List<Map<String, String>> writeParameters() {
+        synchronized (writeParameters) {
+            return new ArrayList<Map<String, String>>(writeParameters);
+        }
+    }
+
+    long requests() {
+        return requests.get();
+    }
+
+    /**
+     * Bytes of request bodies received, as sent on the wire.
+     */
+    long bytesReceived() {
+        return bytesReceived.get();
+    }
+
+    long pointsReceived() {
+        return pointsReceived.get();
+    }
+
+    /**
+     * {@link System#nanoTime()} of the last accepted write.
+     */
+    long lastAckNanos() {
+        return lastAckNanos;
+    }
+
+    /**
+     * Waits until at least {@code count} points were accepted.
+     *
+     * @return whether they were
+     */
+    boolean awaitPoints(long count, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (pointsReceived.get() < count) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
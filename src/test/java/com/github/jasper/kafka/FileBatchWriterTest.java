@@ -0,0 +1,187 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Clock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FileBatchWriterTest {
+
+    private static final String HEADER = "# DML\n# CONTEXT-DATABASE: kafka\n# CONTEXT-RETENTION-POLICY: autogen\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final class ManualClock extends Clock {
+        long time;
+
+        @Override
+        public long tick() {
+            return time * 1000000;
+        }
+
+        @Override
+        public long time() {
+            return time;
+        }
+    }
+
+    private static void write(FileBatchWriter writer, String lines) throws IOException {
+        byte[] bytes = lines.getBytes(StandardCharsets.UTF_8);
+        writer.write(bytes, 0, bytes.length, lines.split("\n").length);
+    }
+
+    private static String read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[1024];
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                out.write(chunk, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    // the segments, without the lock file
+    private static String[] list(File dir) {
+        String[] names = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return !name.equals(DirectoryLock.LOCK_FILE);
+            }
+        });
+        Arrays.sort(names);
+        return names;
+    }
+
+    @Test
+    public void writesImportableSegmentsRotatedBySizeAndAge() throws Exception {
+        File dir = folder.newFolder("metrics");
+        ManualClock clock = new ManualClock();
+        clock.time = 1000;
+        FileBatchWriter writer = new FileBatchWriter(dir, "kafka", "autogen", HEADER.length() + 40, 60000, 16, false, clock);
+
+        write(writer, "a value=1 1\nb value=2 1\n");
+        assertArrayEquals(new String[]{"metrics-1000.lp.tmp"}, list(dir));
+        write(writer, "c value=3 1\nd value=4 1\n");
+        clock.time = 70000;
+        write(writer, "e value=5 2\n");
+        writer.close();
+
+        assertArrayEquals(new String[]{"metrics-1000.lp", "metrics-1001.lp", "metrics-70000.lp"}, list(dir));
+        assertEquals(HEADER + "a value=1 1\nb value=2 1\n", read(new File(dir, "metrics-1000.lp")));
+        assertEquals(HEADER + "c value=3 1\nd value=4 1\n", read(new File(dir, "metrics-1001.lp")));
+        assertEquals(HEADER + "e value=5 2\n", read(new File(dir, "metrics-70000.lp")));
+    }
+
+    @Test
+    public void compressesClosedSegmentsAndThoseLeftOpen() throws Exception {
+        File dir = folder.newFolder("metrics");
+        Files.write(new File(dir, "metrics-1.lp.tmp").toPath(), (HEADER + "a value=1 1\n").getBytes(StandardCharsets.UTF_8));
+        ManualClock clock = new ManualClock();
+        clock.time = 5000;
+        FileBatchWriter writer = new FileBatchWriter(dir, "kafka", "autogen", 1024 * 1024, 60000, 1024, true, clock);
+        write(writer, "b value=2 5\n");
+        writer.close();
+
+        assertArrayEquals(new String[]{"metrics-1.lp.gz", "metrics-5000.lp.gz"}, list(dir));
+        assertEquals(HEADER + "a value=1 1\n", read(new File(dir, "metrics-1.lp.gz")));
+        assertEquals(HEADER + "b value=2 5\n", read(new File(dir, "metrics-5000.lp.gz")));
+    }
+
+    @Test
+    public void teeKeepsWritingTheOtherSinksOfAFailingOne() throws Exception {
+        File dir = folder.newFolder("metrics");
+        FileBatchWriter file = new FileBatchWriter(dir, "kafka", "autogen", 1024, 60000, 1024, false, Clock.defaultClock());
+        RecordingBatchWriter influxDB = new RecordingBatchWriter().fail(1);
+        ReporterStats stats = new ReporterStats();
+        TeeBatchWriter tee = new TeeBatchWriter(new String[]{"influxdb", "file"}, new BatchWriter[]{influxDB, file}, stats);
+        byte[] batch = "a value=1 1\n".getBytes(StandardCharsets.UTF_8);
+        tee.write(batch, 0, batch.length, 1);
+        tee.write(batch, 0, batch.length, 1);
+        assertTrue(tee.failedThisPoll());
+        assertEquals(1, influxDB.attempts());
+        assertEquals(2, stats.getDroppedPoints());
+
+        tee.beginPoll();
+        tee.write(batch, 0, batch.length, 1);
+        assertFalse(tee.failedThisPoll());
+        assertEquals(1, influxDB.batches().size());
+        tee.close();
+        assertEquals(HEADER + "a value=1 1\na value=1 1\na value=1 1\n", read(new File(dir, list(dir)[0])));
+    }
+
+    @Test
+    public void writesEveryPointOfAPollToTheFileWhileInfluxDBFails() throws Exception {
+        File dir = folder.newFolder("metrics");
+        FileBatchWriter file = new FileBatchWriter(dir, "kafka", "autogen", 1024 * 1024, 60000, 1024, false, Clock.defaultClock());
+        RecordingBatchWriter influxDB = new RecordingBatchWriter().fail(Integer.MAX_VALUE);
+        ReporterStats stats = new ReporterStats();
+        LineProtocolEncoder encoder = new LineProtocolEncoder();
+        // wrapped, as the reporters instrument their writers
+        PointBatcher batcher = new PointBatcher(encoder, new InstrumentedBatchWriter(new TeeBatchWriter(new String[]{"file", "influxdb"},
+                new BatchWriter[]{file, influxDB}, stats), stats));
+        batcher.setStats(stats);
+        batcher.setLimits(2, Integer.MAX_VALUE);
+        batcher.beginPoll();
+        for (int i = 0; i < 5; i++) {
+            encoder.beginPoint(SeriesKey.of("m" + i, Collections.<String, String>emptyMap(), null, null));
+            encoder.addField("value", (double) i);
+            encoder.endPoint(1);
+            batcher.flushIfFull();
+        }
+        batcher.endPoll();
+        assertTrue(batcher.writeFailed());
+        assertEquals(1, influxDB.attempts());
+        assertEquals(5, stats.getDroppedPoints());
+        file.close();
+        assertEquals(HEADER + "m0 value=0 1000000\nm1 value=1 1000000\nm2 value=2 1000000\nm3 value=3 1000000\nm4 value=4 1000000\n",
+                read(new File(dir, list(dir)[0])));
+    }
+
+    @Test
+    public void refusesADirectoryUsedByAnotherWriter() throws Exception {
+        File dir = folder.newFolder("metrics");
+        ManualClock clock = new ManualClock();
+        clock.time = 1000;
+        FileBatchWriter writer = new FileBatchWriter(dir, "kafka", "autogen", 1024, 60000, 1024, false, clock);
+        write(writer, "a value=1 1\n");
+        try {
+            new FileBatchWriter(dir, "kafka", "autogen", 1024, 60000, 1024, false, clock);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("already used by another reporter"));
+        }
+        // the open segment of the first writer was left alone
+        assertArrayEquals(new String[]{"metrics-1000.lp.tmp"}, list(dir));
+        writer.close();
+
+        new FileBatchWriter(dir, "kafka", "autogen", 1024, 60000, 1024, false, clock).close();
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class GaugeEvaluatorTest {
+
+    private final GaugeEvaluator evaluator = new GaugeEvaluator(2, 100, 2, 4);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        evaluator.shutdown();
+    }
+
+    private static MetricName name(String name) {
+        return new MetricName("kafka.log", "Log", name);
+    }
+
+    @Test
+    public void servesLastGoodValueOfSlowGauge() {
+        final boolean[] hang = {false};
+        Gauge<Long> slow = new Gauge<Long>() {
+            @Override
+            public Long value() {
+                if (hang[0]) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return 42L;
+            }
+        };
+        Gauge<Long> fast = new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return 7L;
+            }
+        };
+
+        evaluator.beginPoll();
+        int slowSlot = evaluator.submit(name("Slow"), slow);
+        int fastSlot = evaluator.submit(name("Fast"), fast);
+        evaluator.start();
+        assertEquals(42L, evaluator.value(slowSlot));
+        assertEquals(7L, evaluator.value(fastSlot));
+
+        hang[0] = true;
+        evaluator.beginPoll();
+        slowSlot = evaluator.submit(name("Slow"), slow);
+        fastSlot = evaluator.submit(name("Fast"), fast);
+        evaluator.start();
+        assertEquals(42L, evaluator.value(slowSlot));
+        assertEquals(7L, evaluator.value(fastSlot));
+        assertEquals(1, evaluator.timeouts());
+
+        // still hanging, not read again
+        evaluator.beginPoll();
+        slowSlot = evaluator.submit(name("Slow"), slow);
+        evaluator.start();
+        assertEquals(42L, evaluator.value(slowSlot));
+        assertEquals(1, evaluator.timeouts());
+    }
+
+    @Test
+    public void skipsInvalidGaugesAndQuarantinesThem() {
+        final int[] reads = {0};
+        Gauge<Long> invalid = new Gauge<Long>() {
+            @Override
+            public Long value() {
+                reads[0]++;
+                throw new NoSuchElementException();
+            }
+        };
+        for (int poll = 0; poll < 3; poll++) {
+            evaluator.beginPoll();
+            int slot = evaluator.submit(name("Invalid"), invalid);
+            evaluator.start();
+            assertNull(evaluator.value(slot));
+        }
+        // quarantined after the second strike
+        assertEquals(2, reads[0]);
+    }
+
+    @Test
+    public void countsTheQuarantineInPollsOfTheGauge() {
+        final int[] reads = {0};
+        Gauge<Long> invalid = new Gauge<Long>() {
+            @Override
+            public Long value() {
+                reads[0]++;
+                throw new NoSuchElementException();
+            }
+        };
+        for (int poll = 0; poll < 2; poll++) {
+            evaluator.beginPoll();
+            int slot = evaluator.submit(name("Invalid"), invalid);
+            evaluator.start();
+            assertNull(evaluator.value(slot));
+        }
+        // ticks in which its tier is not due
+        for (int tick = 0; tick < 5; tick++) {
+            evaluator.beginPoll();
+            evaluator.start();
+        }
+        evaluator.beginPoll();
+        int slot = evaluator.submit(name("Invalid"), invalid);
+        evaluator.start();
+        assertNull(evaluator.value(slot));
+        assertEquals(2, reads[0]);
+
+        evaluator.beginPoll();
+        slot = evaluator.submit(name("Invalid"), invalid);
+        evaluator.start();
+        assertNull(evaluator.value(slot));
+        assertEquals(0, evaluator.timeouts());
+        assertEquals(3, reads[0]);
+    }
+
+    @Test
+    public void readsTheOtherGaugesWhileAGaugeHoldsTheOnlyThread() {
+        GaugeEvaluator single = new GaugeEvaluator(1, 100, 3, 64);
+        try {
+            Gauge<Long> hanging = new Gauge<Long>() {
+                @Override
+                public Long value() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return 42L;
+                }
+            };
+            final long[] reads = {0};
+            Gauge<Long> fast = new Gauge<Long>() {
+                @Override
+                public Long value() {
+                    return ++reads[0];
+                }
+            };
+            single.beginPoll();
+            int hangingSlot = single.submit(name("Hanging"), hanging);
+            int fastSlot = single.submit(name("Fast"), fast);
+            single.start();
+            assertNull(single.value(hangingSlot));
+            // queued behind the hanging gauge, given up
+            assertNull(single.value(fastSlot));
+
+            for (long poll = 1; poll <= 3; poll++) {
+                single.beginPoll();
+                hangingSlot = single.submit(name("Hanging"), hanging);
+                fastSlot = single.submit(name("Fast"), fast);
+                single.start();
+                assertNull(single.value(hangingSlot));
+                assertEquals(poll, single.value(fastSlot));
+            }
+            assertEquals(2, single.timeouts());
+        } finally {
+            single.shutdown();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.MetricName;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class GaugeFieldTypesTest {
+
+    private static final MetricName LOG_END_OFFSET = new MetricName("kafka.log", "Log", "LogEndOffset", "topic.a.partition.0");
+    private static final MetricName SIZE = new MetricName("kafka.log", "Log", "Size", "topic.a.partition.0");
+
+    private static String encode(GaugeFieldTypes types, MetricName name, Object first, Object value) {
+        GaugeFieldTypes.FieldType type = types.get(name, first);
+        LineProtocolEncoder encoder = new LineProtocolEncoder();
+        encoder.beginPoint(SeriesKey.of("m", Collections.<String, String>emptyMap(), null, null));
+        GaugeFieldTypes.addField(encoder, "value", type, value);
+        encoder.endPoint(0L);
+        return encoder.toString().trim();
+    }
+
+    @Test
+    public void writesLargeIntegersExactly() {
+        GaugeFieldTypes types = new GaugeFieldTypes("kafka.log:Log:LogEndOffset");
+        assertEquals("m value=123456789 0", encode(types, SIZE, 1L, 123456789L));
+        assertEquals("m value=9007199254740993i 0", encode(types, LOG_END_OFFSET, 1L, 9007199254740993L));
+    }
+
+    @Test
+    public void keepsTheFirstDetectedType() {
+        GaugeFieldTypes types = new GaugeFieldTypes("kafka.log");
+        assertEquals("m value=5i 0", encode(types, SIZE, 1, 5.7));
+        assertEquals(GaugeFieldTypes.FieldType.INTEGER, types.get(SIZE, "now a string"));
+        assertEquals("m value=t 0", encode(types, new MetricName("g", "t", "flag"), true, true));
+        assertEquals("m value=\"x\" 0", encode(types, new MetricName("g", "t", "state"), "x", "x"));
+    }
+
+    @Test
+    public void refusesValuesOfAnotherType() {
+        LineProtocolEncoder encoder = new LineProtocolEncoder();
+        encoder.beginPoint(SeriesKey.of("m", Collections.<String, String>emptyMap(), null, null));
+        assertFalse(GaugeFieldTypes.addField(encoder, "value", GaugeFieldTypes.FieldType.FLOAT, "1.5"));
+    }
+}
@@ -0,0 +1,227 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GaugeSamplerTest {
+
+    private static final MetricName QUEUE_SIZE = new MetricName("kafka.network", "RequestChannel", "RequestQueueSize");
+    private static final MetricName LOG_SIZE = new MetricName("kafka.log", "Log", "Size", "topic.a.partition.0");
+
+    private static final class Settable extends Gauge<Object> {
+        Object value;
+
+        @Override
+        public Object value() {
+            return value;
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static void await(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.holds()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void summarizesTheSamplesOfEachPoll() {
+        GaugeSampler sampler = new GaugeSampler("kafka.network:RequestChannel", 1000);
+        sampler.setPollingPeriod(10000);
+        Settable queueSize = new Settable();
+        sampler.onMetricAdded(QUEUE_SIZE, queueSize);
+        sampler.onMetricAdded(LOG_SIZE, new Settable());
+        assertEquals(1, sampler.sampledGauges());
+
+        for (int value : new int[]{3, 40, 5, 0, 2}) {
+            queueSize.value = value;
+            sampler.sample();
+        }
+        GaugeSampler.Summary summary = new GaugeSampler.Summary();
+        assertTrue(sampler.drain(QUEUE_SIZE, summary));
+        assertEquals(5, summary.count);
+        assertEquals(0, summary.min, 0);
+        assertEquals(40, summary.max, 0);
+        assertEquals(10, summary.mean, 0);
+        assertEquals(2, summary.last, 0);
+
+        // no sample since, the gauge is not read at the poll
+        queueSize.value = 7;
+        assertFalse(sampler.drain(QUEUE_SIZE, summary));
+        assertTrue(sampler.isSampled(QUEUE_SIZE));
+
+        assertFalse(sampler.drain(LOG_SIZE, summary));
+    }
+
+    @Test
+    public void keepsTheNewestSamplesOfALatePoll() {
+        GaugeSampler sampler = new GaugeSampler("kafka.network", 1000);
+        sampler.setPollingPeriod(2000);
+        Settable queueSize = new Settable();
+        sampler.onMetricAdded(QUEUE_SIZE, queueSize);
+        for (int value = 1; value <= 10; value++) {
+            queueSize.value = value;
+            sampler.sample();
+        }
+        GaugeSampler.Summary summary = new GaugeSampler.Summary();
+        assertTrue(sampler.drain(QUEUE_SIZE, summary));
+        assertEquals(4, summary.count);
+        assertEquals(7, summary.min, 0);
+        assertEquals(10, summary.last, 0);
+
+        queueSize.value = "not a number";
+        sampler.sample();
+        assertFalse(sampler.drain(QUEUE_SIZE, summary));
+        assertFalse(sampler.isSampled(QUEUE_SIZE));
+    }
+
+    @Test
+    public void quarantinesAFailingGauge() {
+        GaugeSampler sampler = new GaugeSampler("kafka.network", 1000);
+        sampler.setPollingPeriod(10000);
+        final AtomicInteger reads = new AtomicInteger();
+        sampler.onMetricAdded(QUEUE_SIZE, new Gauge<Object>() {
+            @Override
+            public Object value() {
+                reads.incrementAndGet();
+                throw new IllegalStateException("KAFKA-1866");
+            }
+        });
+        for (int i = 0; i < GaugeSampler.STRIKES; i++) {
+            sampler.sample();
+        }
+        assertEquals(GaugeSampler.STRIKES, reads.get());
+        // quarantined for one sample, then for two after the next strikes
+        sampler.sample();
+        assertEquals(GaugeSampler.STRIKES, reads.get());
+        for (int i = 0; i < GaugeSampler.STRIKES; i++) {
+            sampler.sample();
+        }
+        sampler.sample();
+        sampler.sample();
+        assertEquals(2 * GaugeSampler.STRIKES, reads.get());
+        sampler.sample();
+        assertEquals(2 * GaugeSampler.STRIKES + 1, reads.get());
+        assertFalse(sampler.drain(QUEUE_SIZE, new GaugeSampler.Summary()));
+    }
+
+    @Test
+    public void quarantinesASlowGauge() {
+        GaugeSampler sampler = new GaugeSampler("kafka.network", 4);
+        sampler.setPollingPeriod(40);
+        final AtomicInteger reads = new AtomicInteger();
+        sampler.onMetricAdded(QUEUE_SIZE, new Gauge<Object>() {
+            @Override
+            public Object value() {
+                reads.incrementAndGet();
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 1;
+            }
+        });
+        for (int i = 0; i < GaugeSampler.STRIKES + 1; i++) {
+            sampler.sample();
+        }
+        assertEquals(GaugeSampler.STRIKES, reads.get());
+        // the slow reads still count as samples
+        GaugeSampler.Summary summary = new GaugeSampler.Summary();
+        assertTrue(sampler.drain(QUEUE_SIZE, summary));
+        assertEquals(GaugeSampler.STRIKES, summary.count);
+    }
+
+    @Test
+    public void leavesAHangingGaugeToThePollAndSamplesTheOthers() throws Exception {
+        final GaugeSampler sampler = new GaugeSampler("kafka.log,kafka.network", 20);
+        sampler.setPollingPeriod(1000);
+        final CountDownLatch hanging = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        sampler.onMetricAdded(LOG_SIZE, new Gauge<Object>() {
+            @Override
+            public Object value() {
+                hanging.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 1;
+            }
+        });
+        Settable queueSize = new Settable();
+        queueSize.value = 5;
+        sampler.onMetricAdded(QUEUE_SIZE, queueSize);
+        sampler.start();
+        try {
+            assertTrue(hanging.await(10, TimeUnit.SECONDS));
+            await(new Condition() {
+                @Override
+                public boolean holds() {
+                    return !sampler.isSampled(LOG_SIZE);
+                }
+            });
+            // the other gauge is still sampled while the read hangs
+            final GaugeSampler.Summary summary = new GaugeSampler.Summary();
+            sampler.drain(QUEUE_SIZE, summary);
+            await(new Condition() {
+                @Override
+                public boolean holds() {
+                    return sampler.drain(QUEUE_SIZE, summary);
+                }
+            });
+            assertEquals(5, summary.last, 0);
+            assertFalse(sampler.isSampled(LOG_SIZE));
+
+            release.countDown();
+            await(new Condition() {
+                @Override
+                public boolean holds() {
+                    return sampler.isSampled(LOG_SIZE);
+                }
+            });
+        } finally {
+            release.countDown();
+            sampler.shutdown();
+        }
+    }
+
+    @Test
+    public void writesASummaryWhoseLastValueChanged() {
+        ChangeSuppressor suppressor = new ChangeSuppressor(10);
+        SeriesKey key = SeriesKey.of(QUEUE_SIZE, Collections.<String, String>emptyMap());
+        GaugeSampler.Summary summary = new GaugeSampler.Summary();
+        summary.count = 2;
+        summary.min = 1;
+        summary.max = 3;
+        summary.mean = 2;
+        summary.last = 3;
+        suppressor.beginPoll();
+        assertTrue(suppressor.shouldWrite(key, summary.copy()));
+
+        summary.count = 4;
+        suppressor.beginPoll();
+        assertFalse(suppressor.shouldWrite(key, summary.copy()));
+
+        summary.last = 1;
+        suppressor.beginPoll();
+        assertTrue(suppressor.shouldWrite(key, summary.copy()));
+    }
+}
@@ -0,0 +1,176 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import kafka.utils.VerifiableProperties;
+
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InfluxDBEndToEndTest {
+
+    private static final MetricName SIZE = new MetricName("kafka.log", "Log", "Size", "topic.e2e.partition.0");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeInfluxDB influxDB;
+    private KafkaInfluxDBMetricsReporter reporter;
+
+    @Before
+    public void setUp() throws Exception {
+        influxDB = new FakeInfluxDB();
+        Metrics.defaultRegistry().newGauge(SIZE, new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return 42L;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        if (reporter != null) {
+            reporter.stopReporter();
+        }
+        Metrics.defaultRegistry().removeMetric(SIZE);
+        influxDB.close();
+    }
+
+    private KafkaInfluxDBMetricsReporter start(Properties properties) {
+        properties.setProperty("kafka.influxdb.metrics.reporter.enabled", "true");
+        properties.setProperty("kafka.metrics.polling.interval.secs", "3600");
+        properties.setProperty("kafka.influxdb.metrics.tags", "hostname:broker-1");
+        if (!properties.containsKey("kafka.influxdb.metrics.address")) {
+            properties.setProperty("kafka.influxdb.metrics.address", influxDB.address());
+        }
+        reporter = new KafkaInfluxDBMetricsReporter();
+        reporter.init(new VerifiableProperties(properties));
+        return reporter;
+    }
+
+    private FakeInfluxDB.Point find(FakeInfluxDB server, String measurement) {
+        for (FakeInfluxDB.Point point : server.points()) {
+            if (point.measurement.equals(measurement) && "e2e".equals(point.tags.get("topic"))) {
+                return point;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void writesTheRegistryToInfluxDB() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("kafka.influxdb.metrics.gzip", "true");
+        start(properties).poll();
+
+        FakeInfluxDB.Point point = find(influxDB, "Size");
+        assertEquals("broker-1", point.tags.get("hostname"));
+        assertEquals("0", point.tags.get("partition"));
+        assertEquals("42", point.fields.get("value"));
+        assertEquals("kafka", influxDB.writeParameters().get(0).get("db"));
+        assertEquals(reporter.getPointsEncoded(), influxDB.pointsReceived());
+    }
+
+    @Test
+    public void writesOneAlignedTimestampPerPollInSeconds() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("kafka.influxdb.metrics.precision", "s");
+        properties.setProperty("kafka.influxdb.metrics.timestamp.align", "true");
+        properties.setProperty("kafka.influxdb.metrics.scheduler.phase.offset", "false");
+        start(properties).poll();
+
+        assertEquals("s", influxDB.writeParameters().get(0).get("precision"));
+        long time = find(influxDB, "Size").timestamp;
+        assertEquals(0, time % 3600);
+        assertTrue(time <= System.currentTimeMillis() / 1000);
+        assertTrue(System.currentTimeMillis() / 1000 - time < 3600);
+        for (FakeInfluxDB.Point point : influxDB.points()) {
+            assertEquals(time, point.timestamp);
+        }
+    }
+
+    @Test
+    public void writesTheSummaryOfSampledGauges() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("kafka.influxdb.metrics.sample.gauges", "kafka.log:Log:Size");
+        properties.setProperty("kafka.influxdb.metrics.sample.ms", "10");
+        start(properties);
+        // the first poll may come before the first sample
+        for (int i = 0; i < 100 && find(influxDB, "Size") == null; i++) {
+            Thread.sleep(10);
+            reporter.poll();
+        }
+
+        FakeInfluxDB.Point point = find(influxDB, "Size");
+        assertEquals(null, point.fields.get("value"));
+        assertEquals("42", point.fields.get("min"));
+        assertEquals("42", point.fields.get("max"));
+        assertEquals("42", point.fields.get("mean"));
+        assertEquals("42", point.fields.get("last"));
+    }
+
+    @Test
+    public void countsFailedAndResetWrites() throws Exception {
+        start(new Properties());
+        influxDB.fail(1, 503);
+        reporter.poll();
+        assertEquals(1, reporter.getWriteFailures());
+        // the HTTP client retries a dropped connection on its own
+        influxDB.reset(Integer.MAX_VALUE);
+        reporter.poll();
+        assertEquals(2, reporter.getWriteFailures());
+        influxDB.reset(0);
+        reporter.poll();
+        assertEquals(2, reporter.getWriteFailures());
+        assertTrue(find(influxDB, "Size") != null);
+    }
+
+    @Test
+    public void dropsBatchesInfluxDBRejectsInsteadOfSpoolingThem() throws Exception {
+        for (String precision : new String[]{"ns", "s"}) {
+            Properties properties = new Properties();
+            properties.setProperty("kafka.influxdb.metrics.precision", precision);
+            properties.setProperty("kafka.influxdb.metrics.spool.dir", folder.newFolder().getPath());
+            start(properties);
+            influxDB.fail(1, 400);
+            reporter.poll();
+            long encoded = reporter.getPointsEncoded();
+            assertEquals(encoded, reporter.getDroppedPoints());
+
+            long received = influxDB.pointsReceived();
+            reporter.poll();
+            assertEquals(reporter.getPointsEncoded() - encoded, influxDB.pointsReceived() - received);
+            reporter.stopReporter();
+            reporter = null;
+        }
+    }
+
+    @Test
+    public void failsOverToTheNextEndpoint() throws Exception {
+        FakeInfluxDB secondary = new FakeInfluxDB();
+        try {
+            Properties properties = new Properties();
+            properties.setProperty("kafka.influxdb.metrics.address", influxDB.address() + "," + secondary.address());
+            properties.setProperty("kafka.influxdb.metrics.failover.failures", "1");
+            start(properties);
+            influxDB.fail(1, 500);
+            reporter.poll();
+            reporter.poll();
+            assertEquals(0, influxDB.pointsReceived());
+            assertEquals(2, secondary.requests());
+            assertTrue(find(secondary, "Size") != null);
+        } finally {
+            secondary.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.MetricName;
+import kafka.utils.VerifiableProperties;
+
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the broker reporter over a large synthetic registry against a {@link FakeInfluxDB}, under
+ * normal conditions and with slow, failing and dropped writes, and prints per poll the time to
+ * the last acknowledged write, the bytes on the wire and the points lost.
+ *
+ * Skipped unless run with {@code -Dinfluxdb.load=true}; {@code influxdb.load.metrics} and
+ * {@code influxdb.load.polls} set the registry size and the polls per scenario.
+ */
+public class InfluxDBLoadTest {
+
+    private static final int METRICS = Integer.getInteger("influxdb.load.metrics", 100000);
+    private static final int POLLS = Integer.getInteger("influxdb.load.polls", 5);
+    private static final long ACK_TIMEOUT_MS = 10000;
+
+    private static final Set<MetricName> FILLED = new HashSet<MetricName>();
+
+    @BeforeClass
+    public static void fill() {
+        Assume.assumeTrue(Boolean.getBoolean("influxdb.load"));
+        Set<MetricName> before = new HashSet<MetricName>(Metrics.defaultRegistry().allMetrics().keySet());
+        SyntheticRegistry.fill(Metrics.defaultRegistry(), METRICS, "80,5,10,2,3");
+        FILLED.addAll(Metrics.defaultRegistry().allMetrics().keySet());
+        FILLED.removeAll(before);
+    }
+
+    @AfterClass
+    public static void empty() {
+        for (MetricName name : FILLED) {
+            Metrics.defaultRegistry().removeMetric(name);
+        }
+        FILLED.clear();
+    }
+
+    /**
+     * Polls {@link #POLLS} times and prints one line per poll.
+     *
+     * @return the points lost over all polls
+     */
+    private long run(String scenario, FakeInfluxDB influxDB) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("kafka.influxdb.metrics.reporter.enabled", "true");
+        properties.setProperty("kafka.metrics.polling.interval.secs", "3600");
+        properties.setProperty("kafka.influxdb.metrics.address", influxDB.address());
+        properties.setProperty("kafka.influxdb.metrics.sender.threads", "2");
+        properties.setProperty("kafka.influxdb.metrics.sender.queue.size", "64");
+        properties.setProperty("kafka.influxdb.metrics.gzip", "true");
+        KafkaInfluxDBMetricsReporter reporter = new KafkaInfluxDBMetricsReporter();
+        reporter.init(new VerifiableProperties(properties));
+        long lost = 0;
+        try {
+            for (int i = 0; i < POLLS; i++) {
+                long encodedBefore = reporter.getPointsEncoded();
+                long receivedBefore = influxDB.pointsReceived();
+                long bytesBefore = influxDB.bytesReceived();
+                long start = System.nanoTime();
+                reporter.poll();
+                long encoded = reporter.getPointsEncoded() - encodedBefore;
+                boolean complete = influxDB.awaitPoints(receivedBefore + encoded, ACK_TIMEOUT_MS);
+                long received = influxDB.pointsReceived() - receivedBefore;
+                long ackMs = complete ? TimeUnit.NANOSECONDS.toMillis(influxDB.lastAckNanos() - start) : -1;
+                lost += encoded - received;
+                System.out.printf("%-10s poll %d: %d metrics, poll %d ms, poll-to-ack %d ms, %d points, %d bytes on the wire, %d points lost%n",
+                        scenario, i, reporter.getLastMetricsVisited(), reporter.getLastPollDurationMs(), ackMs,
+                        encoded, influxDB.bytesReceived() - bytesBefore, encoded - received);
+            }
+        } finally {
+            reporter.stopReporter();
+            influxDB.close();
+        }
+        return lost;
+    }
+
+    @Test
+    public void normal() throws Exception {
+        assertEquals(0, run("normal", new FakeInfluxDB().countOnly()));
+    }
+
+    @Test
+    public void slowInfluxDB() throws Exception {
+        run("slow", new FakeInfluxDB().countOnly().latency(200));
+    }
+
+    @Test
+    public void serverErrors() throws Exception {
+        run("5xx", new FakeInfluxDB().countOnly().fail(10, 503));
+    }
+
+    @Test
+    public void connectionResets() throws Exception {
+        run("reset", new FakeInfluxDB().countOnly().reset(10));
+    }
+}
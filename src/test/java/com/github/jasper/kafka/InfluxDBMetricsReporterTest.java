@@ -0,0 +1,142 @@
+package com.github.jasper.kafka;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.MetricsReporter;
+import org.apache.kafka.common.utils.SystemTime;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InfluxDBMetricsReporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> lines = new ArrayList<String>();
+    private boolean closed;
+
+    private final BatchWriter writer = new BatchWriter() {
+        @Override
+        public void write(byte[] buffer, int offset, int length, int points) {
+            for (String line : new String(buffer, offset, length, StandardCharsets.UTF_8).split("\n")) {
+                lines.add(line.substring(0, line.lastIndexOf(' ')));
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    };
+
+    private static Measurable constant(final double value) {
+        return new Measurable() {
+            @Override
+            public double measure(MetricConfig config, long now) {
+                return value;
+            }
+        };
+    }
+
+    @Test
+    public void tracksAddedAndRemovedMetrics() {
+        InfluxDBMetricsReporter reporter = new InfluxDBMetricsReporter(writer);
+        Map<String, Object> configs = new HashMap<String, Object>();
+        configs.put("kafka.influxdb.metrics.tags", "hostname:h1");
+        configs.put("kafka.influxdb.metrics.polling.interval.secs", 0);
+        reporter.configure(configs);
+
+        Metrics metrics = new Metrics(new MetricConfig(), Collections.<MetricsReporter>singletonList(reporter), new SystemTime());
+        MetricName requestRate = new MetricName("request-rate", "producer-metrics", "", Collections.singletonMap("client-id", "p 1"));
+        MetricName bufferAvailable = new MetricName("buffer-available-bytes", "producer-metrics", "", Collections.singletonMap("client-id", "p 1"));
+        metrics.addMetric(requestRate, constant(2.5));
+        metrics.addMetric(bufferAvailable, constant(1024));
+
+        reporter.poll();
+        assertTrue(lines.toString(), lines.contains("request-rate,client-id=p\\ 1,group=producer-metrics,hostname=h1 value=2.5"));
+        assertTrue(lines.toString(), lines.contains("buffer-available-bytes,client-id=p\\ 1,group=producer-metrics,hostname=h1 value=1024"));
+
+        lines.clear();
+        metrics.removeMetric(requestRate);
+        reporter.poll();
+        assertTrue(lines.toString(), lines.contains("buffer-available-bytes,client-id=p\\ 1,group=producer-metrics,hostname=h1 value=1024"));
+        for (String line : lines) {
+            assertFalse(line, line.startsWith("request-rate,"));
+        }
+
+        metrics.close();
+        assertTrue(closed);
+    }
+
+    private static int count(File dir, String text) throws IOException {
+        int count = 0;
+        for (File file : dir.listFiles()) {
+            if (file.getName().equals(DirectoryLock.LOCK_FILE)) {
+                continue;
+            }
+            for (String line : new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).split("\n")) {
+                if (line.startsWith(text)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void sharesOneWriterStackBetweenTheReportersOfAJvm() throws IOException {
+        File dir = folder.newFolder();
+        Map<String, Object> configs = new HashMap<String, Object>();
+        configs.put("kafka.influxdb.metrics.sink", "file");
+        configs.put("kafka.influxdb.metrics.file.dir", dir.getPath());
+        configs.put("kafka.influxdb.metrics.polling.interval.secs", 0);
+        InfluxDBMetricsReporter producer = new InfluxDBMetricsReporter();
+        InfluxDBMetricsReporter consumer = new InfluxDBMetricsReporter();
+        configs.put("kafka.influxdb.metrics.tags", "client:producer");
+        producer.configure(configs);
+        // the directory is locked by the stack of the producer, the consumer writes through it
+        configs.put("kafka.influxdb.metrics.tags", "client:consumer");
+        consumer.configure(configs);
+        assertSame(producer.getStats(), consumer.getStats());
+
+        Metrics producerMetrics = new Metrics(new MetricConfig(), Collections.<MetricsReporter>singletonList(producer), new SystemTime());
+        Metrics consumerMetrics = new Metrics(new MetricConfig(), Collections.<MetricsReporter>singletonList(consumer), new SystemTime());
+        producerMetrics.addMetric(new MetricName("request-rate", "producer-metrics", "", Collections.<String, String>emptyMap()), constant(2.5));
+        consumerMetrics.addMetric(new MetricName("fetch-rate", "consumer-metrics", "", Collections.<String, String>emptyMap()), constant(1.5));
+        producer.poll();
+        consumer.poll();
+
+        // the stack stays open for the consumer
+        producerMetrics.close();
+        consumer.poll();
+        consumerMetrics.close();
+
+        assertEquals(1, count(dir, "request-rate,client=producer,group=producer-metrics value=2.5 "));
+        assertEquals(2, count(dir, "fetch-rate,client=consumer,group=consumer-metrics value=1.5 "));
+
+        // the last reporter closed the stack and released the directory
+        InfluxDBMetricsReporter next = new InfluxDBMetricsReporter();
+        next.configure(configs);
+        assertFalse(next.getStats() == consumer.getStats());
+        next.close();
+    }
+}
@@ -0,0 +1,422 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.stats.Sample;
+import com.yammer.metrics.stats.Snapshot;
+import com.yammer.metrics.stats.UniformSample;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InfluxDBReporterTest {
+
+    private MetricsRegistry registry;
+    private RecordingBatchWriter writer;
+    private FilteredInfluxDBReporter reporter;
+
+    @Before
+    public void setUp() {
+        registry = new MetricsRegistry();
+        writer = new RecordingBatchWriter();
+        reporter = reporter(EnumSet.allOf(Dimension.class));
+    }
+
+    @After
+    public void tearDown() {
+        reporter.shutdown();
+        registry.shutdown();
+    }
+
+    private FilteredInfluxDBReporter reporter(EnumSet<Dimension> dimensions) {
+        FilteredInfluxDBReporter reporter = new FilteredInfluxDBReporter(registry, writer, "hostname:broker-1", dimensions, Clock.defaultClock(), null);
+        reporter.printVMMetrics = false;
+        return reporter;
+    }
+
+    private static MetricName name(String name, String scope) {
+        return new MetricName("kafka.server", "Test", name, scope);
+    }
+
+    private void gauge(String name, final Object value) {
+        registry.newGauge(name(name, null), new Gauge<Object>() {
+            @Override
+            public Object value() {
+                return value;
+            }
+        });
+    }
+
+    // a sample counting its snapshots, swapped into the histogram the registry created
+    private static final class CountingSample implements Sample {
+        final Sample sample = new UniformSample(1028);
+        final AtomicInteger snapshots = new AtomicInteger();
+
+        @Override
+        public void clear() {
+            sample.clear();
+        }
+
+        @Override
+        public int size() {
+            return sample.size();
+        }
+
+        @Override
+        public void update(long value) {
+            sample.update(value);
+        }
+
+        @Override
+        public Snapshot getSnapshot() {
+            snapshots.incrementAndGet();
+            return sample.getSnapshot();
+        }
+    }
+
+    private static CountingSample countSnapshots(Histogram histogram) throws Exception {
+        CountingSample sample = new CountingSample();
+        Field field = Histogram.class.getDeclaredField("sample");
+        field.setAccessible(true);
+        field.set(histogram, sample);
+        return sample;
+    }
+
+    private static Histogram histogramOf(Timer timer) throws Exception {
+        Field field = Timer.class.getDeclaredField("histogram");
+        field.setAccessible(true);
+        return (Histogram) field.get(timer);
+    }
+
+    private static String fields(String line) {
+        return line.split(" ")[1];
+    }
+
+    private static String find(List<String> lines, String measurement) {
+        for (String line : lines) {
+            if (line.startsWith(measurement + ",")) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void dropsThePartialPointOfAFailingMetric() throws Exception {
+        gauge("Before", 1);
+        gauge("Broken", new Object() {
+            @Override
+            public String toString() {
+                throw new IllegalStateException("broken gauge");
+            }
+        });
+        gauge("After", 2);
+        reporter.run();
+
+        List<String> lines = writer.lines();
+        assertEquals(2, lines.size());
+        assertTrue(find(lines, "Before") != null);
+        assertTrue(find(lines, "After") != null);
+        for (String line : lines) {
+            assertTrue(line, line.matches("\\S+ \\S+ \\d+"));
+        }
+    }
+
+    @Test
+    public void leavesOutDisabledDimensionsAndTheSnapshotWithoutPercentiles() throws Exception {
+        reporter.shutdown();
+        reporter = reporter(EnumSet.of(Dimension.count, Dimension.max, Dimension.sum));
+        Histogram histogram = registry.newHistogram(name("Sizes", null), false);
+        Timer timer = registry.newTimer(name("Latency", null), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+        CountingSample histogramSample = countSnapshots(histogram);
+        CountingSample timerSample = countSnapshots(histogramOf(timer));
+        histogram.update(10);
+        timer.update(5, TimeUnit.MILLISECONDS);
+        reporter.run();
+
+        List<String> lines = writer.lines();
+        assertEquals("max=10,sum=10", fields(find(lines, "Sizes")));
+        assertEquals("count=1i,max=5,sum=5", fields(find(lines, "Latency")));
+        assertEquals(0, histogramSample.snapshots.get());
+        assertEquals(0, timerSample.snapshots.get());
+    }
+
+    @Test
+    public void takesOneSnapshotForThePercentiles() throws Exception {
+        reporter.shutdown();
+        reporter = reporter(EnumSet.of(Dimension.p99));
+        Histogram histogram = registry.newHistogram(name("Sizes", null), false);
+        CountingSample sample = countSnapshots(histogram);
+        histogram.update(10);
+        reporter.run();
+
+        String line = find(writer.lines(), "Sizes");
+        assertEquals("p99=10", fields(line));
+        assertFalse(line.contains("max="));
+        assertEquals(1, sample.snapshots.get());
+    }
+
+    @Test
+    public void countsTheBatchesSkippedAfterAFailedWriteAsDropped() throws Exception {
+        ReporterStats stats = new ReporterStats();
+        reporter.setStats(stats);
+        reporter.setBatchLimits(1, Integer.MAX_VALUE);
+        gauge("First", 1);
+        gauge("Second", 2);
+        gauge("Third", 3);
+        writer.fail(1);
+        reporter.run();
+
+        assertEquals(1, writer.attempts());
+        assertEquals(3, stats.getDroppedPoints());
+
+        reporter.run();
+        assertEquals(3, writer.lines().size());
+        assertEquals(3, stats.getDroppedPoints());
+    }
+
+    @Test
+    public void splitsAPollOnTheBatchLimits() throws Exception {
+        for (String name : new String[]{"GaugeA", "GaugeB", "GaugeC", "GaugeD", "GaugeE", "GaugeF"}) {
+            gauge(name, 1);
+        }
+        reporter.run();
+        List<String> batches = writer.batches();
+        assertEquals(1, batches.size());
+        int lineBytes = batches.get(0).length() / 6;
+
+        writer = new RecordingBatchWriter();
+        reporter.shutdown();
+        reporter = reporter(EnumSet.allOf(Dimension.class));
+        reporter.setBatchLimits(4, Integer.MAX_VALUE);
+        reporter.run();
+        assertEquals(Arrays.asList(4, 2), writer.points());
+
+        writer = new RecordingBatchWriter();
+        reporter.shutdown();
+        reporter = reporter(EnumSet.allOf(Dimension.class));
+        reporter.setBatchLimits(Integer.MAX_VALUE, 2 * lineBytes + lineBytes / 2);
+        reporter.run();
+        assertEquals(Arrays.asList(2, 2, 2), writer.points());
+        for (String batch : writer.batches()) {
+            assertEquals(2 * lineBytes, batch.length());
+        }
+        assertEquals(6, writer.lines().size());
+    }
+
+    @Test
+    public void accountsForTheBatchesOfAFailedPoll() throws Exception {
+        ReporterStats stats = new ReporterStats();
+        reporter.setStats(stats);
+        reporter.setBatchLimits(2, Integer.MAX_VALUE);
+        for (String name : new String[]{"GaugeA", "GaugeB", "GaugeC", "GaugeD", "GaugeE"}) {
+            gauge(name, 1);
+        }
+        writer.fail(1);
+        reporter.run();
+
+        assertEquals(1, writer.attempts());
+        assertEquals(5, stats.getPointsEncoded());
+        assertEquals(5, stats.getDroppedPoints());
+
+        reporter.run();
+        assertEquals(Arrays.asList(2, 2, 1), writer.points());
+        assertEquals(10, stats.getPointsEncoded());
+        assertEquals(5, stats.getDroppedPoints());
+    }
+
+    @Test
+    public void writesUnchangedValuesOfAFailedPollAgain() throws Exception {
+        reporter.setChangeSuppression(10);
+        gauge("Size", 1);
+        gauge("State", "running");
+        writer.fail(1);
+        reporter.run();
+        assertEquals(0, writer.lines().size());
+
+        reporter.run();
+        assertEquals(2, writer.lines().size());
+        reporter.run();
+        assertEquals(2, writer.lines().size());
+    }
+
+    @Test
+    public void writesUnchangedValuesOfABatchLostBySendersAgain() throws Exception {
+        AsyncBatchWriter sender = new AsyncBatchWriter(writer, 1, 4, AsyncBatchWriter.OverflowPolicy.drop);
+        ReporterStats stats = new ReporterStats();
+        stats.monitor(sender);
+        FilteredInfluxDBReporter async = new FilteredInfluxDBReporter(registry, sender, "hostname:broker-1",
+                EnumSet.allOf(Dimension.class), Clock.defaultClock(), null);
+        async.printVMMetrics = false;
+        async.setStats(stats);
+        async.setChangeSuppression(10);
+        gauge("Size", 1);
+        try {
+            writer.fail(1);
+            async.run();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (sender.failedBatches() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, stats.getSendFailures());
+            assertEquals(1, stats.getDroppedPoints());
+
+            // unchanged, found lost at the end of this poll
+            async.run();
+            async.run();
+        } finally {
+            async.shutdown();
+        }
+        assertEquals(1, writer.lines().size());
+        assertTrue(find(writer.lines(), "Size") != null);
+    }
+
+    @Test
+    public void readsOnlyTheMetricsOfTheTiersThatAreDue() throws Exception {
+        PollingTiers tiers = new PollingTiers(Collections.singletonMap(3000L, "kafka.server:Test:Slow"));
+        reporter.setPollingTiers(tiers);
+        tiers.start(1000);
+        final int[] reads = {0};
+        registry.newGauge(name("Slow", null), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                reads[0]++;
+                return 1;
+            }
+        });
+        gauge("Fast", 2);
+
+        for (int tick = 0; tick < 6; tick++) {
+            reporter.run();
+        }
+        List<String> lines = writer.lines();
+        assertEquals(8, lines.size());
+        assertEquals(2, reads[0]);
+        assertTrue(find(lines.subList(0, 2), "Slow") != null);
+        assertTrue(find(lines.subList(2, 4), "Slow") == null);
+    }
+
+    @Test
+    public void countsTheHeartbeatInPollsOfTheTier() throws Exception {
+        PollingTiers tiers = new PollingTiers(Collections.singletonMap(3000L, "kafka.server:Test:Slow"));
+        reporter.setPollingTiers(tiers);
+        reporter.setChangeSuppression(2);
+        tiers.start(1000);
+        gauge("Slow", 1);
+
+        int written = 0;
+        for (int tick = 0; tick < 12; tick++) {
+            reporter.run();
+            if (tick % 3 == 0) {
+                assertEquals("tick " + tick, tick % 6 == 0 ? written + 1 : written, writer.lines().size());
+                written = writer.lines().size();
+            }
+        }
+        assertEquals(2, written);
+    }
+
+    @Test
+    public void doesNotWaitForAHangingGaugeBeyondTheDeadline() throws Exception {
+        reporter.setGaugeEvaluation(2, 500, 3, 64);
+        final CountDownLatch release = new CountDownLatch(1);
+        gauge("Before", 1);
+        registry.newGauge(name("Hanging", null), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 2;
+            }
+        });
+        gauge("After", 3);
+        try {
+            long start = System.nanoTime();
+            reporter.run();
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+            List<String> lines = writer.lines();
+            assertEquals(2, lines.size());
+            assertTrue(find(lines, "Before") != null);
+            assertTrue(find(lines, "After") != null);
+
+            // still hanging: not waited for again
+            start = System.nanoTime();
+            reporter.run();
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+            assertEquals(4, writer.lines().size());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void alignsTimestampsToTheLastBoundaryWithoutRepeatingOne() {
+        assertEquals(60000, InfluxDBReporter.alignedTime(119999, 60000, Long.MIN_VALUE));
+        assertEquals(-60000, InfluxDBReporter.alignedTime(-1, 60000, Long.MIN_VALUE));
+        // polls at 60.001 s and 119.999 s by fixed rate jitter
+        long first = InfluxDBReporter.alignedTime(60001, 60000, Long.MIN_VALUE);
+        long second = InfluxDBReporter.alignedTime(119999, 60000, first);
+        assertEquals(60000, first);
+        assertEquals(120000, second);
+        assertEquals(180000, InfluxDBReporter.alignedTime(180002, 60000, second));
+        assertEquals(1234, InfluxDBReporter.alignedTime(1234, 0, Long.MIN_VALUE));
+    }
+
+    @Test
+    public void readsASampledGaugeOnTheSamplingThreadOnly() throws Exception {
+        reporter.setGaugeEvaluation(1, 500, 3, 64);
+        reporter.setGaugeSampling("kafka.server:Test:Sampled", TimeUnit.HOURS.toMillis(1));
+        final AtomicInteger reads = new AtomicInteger();
+        final CountDownLatch sampled = new CountDownLatch(1);
+        registry.newGauge(name("Sampled", null), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                reads.incrementAndGet();
+                sampled.countDown();
+                return 1;
+            }
+        });
+        reporter.start(1, TimeUnit.HOURS);
+        assertTrue(sampled.await(10, TimeUnit.SECONDS));
+
+        // the sample lands in its ring on the reader thread after the read returned
+        long deadline = System.currentTimeMillis() + 10000;
+        while (writer.lines().isEmpty()) {
+            assertTrue("no sample written", System.currentTimeMillis() < deadline);
+            reporter.run();
+        }
+        assertEquals("min=1,max=1,mean=1,last=1", fields(find(writer.lines(), "Sampled")));
+        // no sample since, the poll does not read the gauge itself
+        reporter.run();
+        assertEquals(1, writer.lines().size());
+        assertEquals(1, reads.get());
+    }
+
+    @Test
+    public void sizesTheSampleRingsForTheSlowestTier() throws Exception {
+        reporter.setPollingTiers(new PollingTiers(Collections.singletonMap(60000L, "kafka.server:Test:Sampled")));
+        reporter.setGaugeSampling("kafka.server:Test:Sampled", 1000);
+        reporter.start(10, TimeUnit.SECONDS);
+        assertEquals(2 * 60, reporter.gaugeSampler().capacity());
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.jasper.kafka;
+
+import java.util.Collections;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JvmMetricsCollectorTest {
+
+    private static String collect(JvmMetricsCollector collector) {
+        LineProtocolEncoder encoder = new LineProtocolEncoder();
+        collector.collect(encoder, 0L);
+        return encoder.toString();
+    }
+
+    @Test
+    public void collectsThreadStatesEveryNthPoll() {
+        JvmMetricsCollector collector = new JvmMetricsCollector(Collections.singletonMap("host", "a"));
+        collector.setEveryPolls(JvmMetricsCollector.Group.THREAD_STATES, 2);
+        String first = collect(collector);
+        String second = collect(collector);
+        assertTrue(first.contains("jvm.memory.thread_states,host=a,state=runnable value="));
+        assertFalse(second.contains("jvm.memory.thread_states"));
+        assertTrue(second.contains("jvm.memory.heap_usage,host=a value="));
+        assertTrue(second.contains("jvm.thread_count,host=a value="));
+        assertTrue(collect(collector).contains("jvm.memory.thread_states"));
+    }
+
+    @Test
+    public void writesDeltasFromTheSecondCollection() {
+        JvmMetricsCollector collector = new JvmMetricsCollector(Collections.<String, String>emptyMap());
+        String first = collect(collector);
+        String second = collect(collector);
+        assertTrue(first.contains("jvm.buffer_pool,pool=direct count="));
+        if (first.contains("jvm.gc,")) {
+            assertFalse(first.contains("time_delta="));
+            assertTrue(second.contains("time_delta="));
+        }
+        assertFalse(first.contains("jvm.memory.allocated"));
+    }
+
+    @Test
+    public void readsGroupsFromProperties() {
+        Properties props = new Properties();
+        props.setProperty("jvm.every.polls.thread_states", "10");
+        props.setProperty("jvm.every.polls.buffer_pools", "0");
+        assertEquals(Integer.valueOf(10), JvmMetricsCollector.fromProperties(props, "jvm.every.polls.").get(JvmMetricsCollector.Group.THREAD_STATES));
+        assertEquals(2, JvmMetricsCollector.fromProperties(props, "jvm.every.polls.").size());
+    }
+}
@@ -29,6 +29,45 @@ public class KafkaInfluxDBMetricsReporterTest {
     }
 
 
+    @Test
+    public void startsNoThreadsWhenDisabled() {
+        Properties properties = new Properties();
+        properties.setProperty("kafka.influxdb.metrics.sender.threads", "2");
+        int before = senderThreads();
+        KafkaInfluxDBMetricsReporter reporter = new KafkaInfluxDBMetricsReporter();
+        reporter.init(new VerifiableProperties(properties));
+
+        assertEquals(before, senderThreads());
+    }
+
+    @Test
+    public void stopsItsSendersWhenStopped() {
+        Properties properties = new Properties();
+        properties.setProperty("kafka.influxdb.metrics.reporter.enabled", "true");
+        properties.setProperty("kafka.metrics.polling.interval.secs", "3600");
+        properties.setProperty("kafka.influxdb.metrics.sender.threads", "2");
+        int before = senderThreads();
+        KafkaInfluxDBMetricsReporter reporter = new KafkaInfluxDBMetricsReporter();
+        reporter.init(new VerifiableProperties(properties));
+        assertEquals(before + 2, senderThreads());
+
+        reporter.stopReporter();
+        assertEquals(before, senderThreads());
+        reporter.startReporter(3600);
+        assertEquals(before + 2, senderThreads());
+        reporter.stopReporter();
+    }
+
+    private static int senderThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("influx-sender-") && thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     @Test
     public void getMBeanName() {
         KafkaInfluxDBMetricsReporter reporter = new KafkaInfluxDBMetricsReporter();
@@ -0,0 +1,177 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.MetricName;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LineProtocolEncoderTest {
+
+    private static SeriesKey key(String scope) {
+        return SeriesKey.of(new MetricName("kafka.log", "Log", "Size", scope),
+                Collections.singletonMap("hostname", "broker 1"), "metric_type", "gague");
+    }
+
+    @Test
+    public void encodesSortedEscapedTagsAndNanosecondTime() {
+        LineProtocolEncoder encoder = new LineProtocolEncoder();
+        encoder.beginPoint(key("topic.test.partition.0"));
+        encoder.addField("value", 42L);
+        encoder.endPoint(1500000000000L);
+
+        assertEquals("Size,group=kafka.log,hostname=broker\\ 1,metric_type=gague,partition=0,topic=test,type=Log value=42i 1500000000000000000\n",
+                encoder.toString());
+        assertEquals(1, encoder.points());
+    }
+
+    @Test
+    public void writesTimeInTheConfiguredPrecision() {
+        LineProtocolEncoder encoder = new LineProtocolEncoder();
+        encoder.setPrecision(TimeUnit.SECONDS);
+        encoder.beginPoint(key("topic.test.partition.0"));
+        encoder.addField("value", 42L);
+        encoder.endPoint(1500000000999L);
+
+        assertTrue(encoder.toString().endsWith(" value=42i 1500000000\n"));
+    }
+
+    @Test
+    public void formatsFloatingPointWithoutStrings() {
+        assertEquals("0", encodeValue(0.0));
+        assertEquals("12", encodeValue(12.0));
+        assertEquals("-1.5", encodeValue(-1.5));
+        assertEquals("0.1", encodeValue(0.1));
+        assertEquals("0.00123", encodeValue(0.00123));
+        assertEquals("1234567.891", encodeValue(1234567.891));
+        assertEquals("1.5e-7", encodeValue(1.5e-7));
+        assertEquals("2.5e20", encodeValue(2.5e20));
+    }
+
+    @Test
+    public void formatsSubnormalsInFull() {
+        assertEquals("4.9e-324", encodeValue(Double.MIN_VALUE));
+        assertEquals("2.2250738585072014e-308", encodeValue(Double.MIN_NORMAL));
+        assertEquals("1e-310", encodeValue(1e-310));
+        assertEquals("-4.9e-324", encodeValue(-Double.MIN_VALUE));
+    }
+
+    @Test
+    public void keepsEverySignificantDigit() {
+        assertEquals("0.0123456789012345", encodeValue(0.0123456789012345));
+        assertEquals("0.99999999999", encodeValue(0.99999999999));
+        assertEquals("0.1234567890123456", encodeValue(0.1234567890123456));
+        assertEquals("1000000000000002", encodeValue(1e15 + 2));
+        assertEquals("1000000000000000", encodeValue(1e15));
+        assertEquals("1.5000000000000005e15", encodeValue(1.5e15 + 0.5));
+        assertEquals("1.7976931348623157e308", encodeValue(Double.MAX_VALUE));
+    }
+
+    @Test
+    public void writesDoublesThatParseBackToThemselves() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            double value = Double.longBitsToDouble(random.nextLong());
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                continue;
+            }
+            String encoded = encodeValue(value);
+            assertEquals(encoded, value, Double.parseDouble(encoded), 0);
+            assertTrue(encoded, encoded.length() <= Double.toString(value).length() + 1);
+        }
+        for (int i = 0; i < 100000; i++) {
+            double value = random.nextDouble() * Math.pow(10, random.nextInt(40) - 20);
+            assertEquals(value, Double.parseDouble(encodeValue(value)), 0);
+        }
+    }
+
+    @Test
+    public void formatsFloatsWithFloatPrecision() {
+        LineProtocolEncoder encoder = new LineProtocolEncoder();
+        encoder.beginPoint(key(null));
+        encoder.addField("value", 0.1f);
+        encoder.endPoint(1L);
+        assertTrue(encoder.toString(), encoder.toString().contains(" value=0.1 "));
+    }
+
+    @Test
+    public void dropsPointsWithoutFields() {
+        LineProtocolEncoder encoder = new LineProtocolEncoder();
+        encoder.beginPoint(key(null));
+        encoder.addField("value", Double.NaN);
+        encoder.endPoint(1L);
+
+        assertEquals(0, encoder.size());
+        assertTrue(encoder.isEmpty());
+    }
+
+    @Test
+    public void abortsAPartialPoint() {
+        LineProtocolEncoder encoder = new LineProtocolEncoder();
+        encoder.beginPoint(key("topic.a"));
+        encoder.addField("count", 1L);
+        encoder.endPoint(1L);
+        String first = encoder.toString();
+        encoder.beginPoint(key("topic.b"));
+        encoder.addField("count", 2L);
+        encoder.abortPoint();
+        encoder.endPoint(1L);
+
+        assertEquals(first, encoder.toString());
+        assertEquals(1, encoder.points());
+    }
+
+    @Test
+    public void escapesStringFields() {
+        LineProtocolEncoder encoder = new LineProtocolEncoder();
+        encoder.beginPoint(key(null));
+        encoder.addField("value", "a \"quoted\" é");
+        encoder.endPoint(1L);
+
+        assertTrue(encoder.toString(), encoder.toString().contains(" value=\"a \\\"quoted\\\" é\" "));
+    }
+
+    @Test
+    public void growsBuffer() {
+        LineProtocolEncoder encoder = new LineProtocolEncoder(8);
+        for (int i = 0; i < 100; i++) {
+            encoder.beginPoint(key("topic.t" + i));
+            encoder.addField("count", (long) i);
+            encoder.endPoint(1L);
+        }
+        assertEquals(100, encoder.points());
+        assertEquals(encoder.size(), encoder.buffer().remaining());
+    }
+
+    @Test
+    public void retainsLastPointAfterPartialFlush() {
+        LineProtocolEncoder encoder = new LineProtocolEncoder();
+        encoder.beginPoint(key("topic.a"));
+        encoder.addField("count", 1L);
+        encoder.endPoint(1L);
+        int first = encoder.size();
+        encoder.beginPoint(key("topic.b"));
+        encoder.addField("count", 2L);
+        encoder.endPoint(1L);
+
+        assertEquals(first, encoder.lastPointOffset());
+        encoder.retainLastPoint();
+        assertEquals(1, encoder.points());
+        assertTrue(encoder.toString(), encoder.toString().startsWith("Size,") && encoder.toString().contains("topic=b"));
+        assertEquals(1, encoder.toString().split("\n").length);
+    }
+
+    private static String encodeValue(double value) {
+        LineProtocolEncoder encoder = new LineProtocolEncoder();
+        encoder.beginPoint(SeriesKey.of("m", Collections.<String, String>emptyMap(), null, null));
+        encoder.addField("v", value);
+        encoder.endPoint(0L);
+        String line = encoder.toString();
+        return line.substring("m v=".length(), line.lastIndexOf(' '));
+    }
+}
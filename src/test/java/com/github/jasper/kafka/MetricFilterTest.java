@@ -0,0 +1,48 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.MetricName;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetricFilterTest {
+
+    private static final MetricName LOG_SIZE = new MetricName("kafka.log", "Log", "Size", "topic.test.partition.0");
+    private static final MetricName OFFSETS_LOG_SIZE = new MetricName("kafka.log", "Log", "Size", "topic.__consumer_offsets.partition.3");
+    private static final MetricName BYTES_IN = new MetricName("kafka.server", "BrokerTopicMetrics", "BytesInPerSec");
+    private static final MetricName REQUESTS = new MetricName("kafka.network", "RequestMetrics", "TotalTimeMs", "request.Produce");
+
+    @Test
+    public void acceptsEverythingWithoutRules() {
+        MetricFilter filter = new MetricFilter("", "");
+        assertTrue(filter.matches(LOG_SIZE, null));
+        assertTrue(filter.matches(BYTES_IN, null));
+    }
+
+    @Test
+    public void excludesByGroupAndType() {
+        MetricFilter filter = new MetricFilter("", "kafka.log:Log:*");
+        assertFalse(filter.matches(LOG_SIZE, null));
+        assertTrue(filter.matches(BYTES_IN, null));
+    }
+
+    @Test
+    public void includesByGlobAndShortRules() {
+        MetricFilter filter = new MetricFilter("kafka.server, *:*:Total*Ms", "");
+        assertTrue(filter.matches(BYTES_IN, null));
+        assertTrue(filter.matches(REQUESTS, null));
+        assertFalse(filter.matches(LOG_SIZE, null));
+    }
+
+    @Test
+    public void matchesScopeTags() {
+        MetricFilter filter = new MetricFilter("", "kafka.log:Log:*:topic=__*");
+        assertFalse(filter.matches(OFFSETS_LOG_SIZE, null));
+        assertTrue(filter.matches(LOG_SIZE, null));
+
+        filter = new MetricFilter("kafka.network:*:*:request=Produce&missing=*", "");
+        assertFalse(filter.matches(REQUESTS, null));
+    }
+}
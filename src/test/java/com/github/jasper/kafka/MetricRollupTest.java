@@ -0,0 +1,110 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.VirtualMachineMetrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricRollupTest {
+
+    private final List<String> lines = new ArrayList<String>();
+
+    private final BatchWriter writer = new BatchWriter() {
+        @Override
+        public void write(byte[] buffer, int offset, int length, int points) {
+            for (String line : new String(buffer, offset, length, StandardCharsets.UTF_8).split("\n")) {
+                lines.add(line.substring(0, line.lastIndexOf(' ')));
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private static void addGauge(MetricsRegistry registry, String name, String scope, final long value) {
+        registry.newGauge(new MetricName("kafka.log", "Log", name, scope), new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return value;
+            }
+        });
+    }
+
+    private InfluxDBReporter reporter(MetricsRegistry registry) {
+        InfluxDBReporter reporter = new InfluxDBReporter(registry, writer, "hostname:b1", Clock.defaultClock(),
+                VirtualMachineMetrics.getInstance());
+        reporter.printVMMetrics = false;
+        return reporter;
+    }
+
+    @Test
+    public void aggregatesPartitionsPerTopic() {
+        MetricsRegistry registry = new MetricsRegistry();
+        addGauge(registry, "Size", "topic.a.partition.0", 10);
+        addGauge(registry, "Size", "topic.a.partition.1", 30);
+        addGauge(registry, "Size", "topic.b.partition.0", 5);
+        addGauge(registry, "LogEndOffset", "topic.a.partition.0", 7);
+        InfluxDBReporter reporter = reporter(registry);
+        reporter.setRollup("kafka.log:Log:Size", "", "");
+
+        reporter.run();
+
+        assertEquals(3, lines.size());
+        assertTrue(lines.toString(), lines.contains("LogEndOffset,group=kafka.log,hostname=b1,metric_type=gague,partition=0,topic=a,type=Log value=7"));
+        assertTrue(lines.toString(), lines.contains("Size.rollup,group=kafka.log,hostname=b1,metric_type=gague,rollup=topic,topic=a,type=Log sum=40,max=30,mean=20"));
+        assertTrue(lines.toString(), lines.contains("Size.rollup,group=kafka.log,hostname=b1,metric_type=gague,rollup=topic,topic=b,type=Log sum=5,max=5,mean=5"));
+    }
+
+    @Test
+    public void aggregatesTopicsPerBrokerKeepingRawSeries() {
+        MetricsRegistry registry = new MetricsRegistry();
+        addGauge(registry, "Size", "topic.a.partition.0", 10);
+        addGauge(registry, "Size", "topic.b.partition.0", 30);
+        InfluxDBReporter reporter = reporter(registry);
+        reporter.setRollup("", "kafka.log", "*:*:*:topic=a");
+
+        reporter.run();
+        lines.clear();
+        reporter.run();
+
+        assertEquals(2, lines.size());
+        assertTrue(lines.toString(), lines.contains("Size,group=kafka.log,hostname=b1,metric_type=gague,partition=0,topic=a,type=Log value=10"));
+        assertTrue(lines.toString(), lines.contains("Size.rollup,group=kafka.log,hostname=b1,metric_type=gague,rollup=broker,type=Log sum=40,max=30,mean=20"));
+    }
+
+    @Test
+    public void countsIdlePollsInPollsOfTheTier() {
+        PollingTiers tiers = new PollingTiers(Collections.singletonMap(20000L, "kafka.log"));
+        tiers.start(1000);
+        MetricRollup rollup = new MetricRollup("kafka.log:Log:Size", "", "", Collections.<String, String>emptyMap());
+        rollup.setPollingTiers(tiers);
+        MetricName partition = new MetricName("kafka.log", "Log", "Size", "topic.a.partition.0");
+        for (int tick = 0; tick < 100; tick++) {
+            tiers.beginPoll();
+            if (tiers.isDue(partition)) {
+                rollup.add(partition, "gague", 1);
+            }
+            rollup.endPoll();
+            assertEquals(1, rollup.size());
+        }
+
+        // gone for more than ten polls of its tier
+        for (int tick = 0; tick < 11 * 20; tick++) {
+            tiers.beginPoll();
+            rollup.endPoll();
+        }
+        assertEquals(0, rollup.size());
+    }
+}
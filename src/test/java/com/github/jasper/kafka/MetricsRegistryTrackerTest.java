@@ -0,0 +1,105 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class MetricsRegistryTrackerTest {
+
+    private static MetricName name(int i) {
+        return new MetricName("kafka.server", "Test", "Metric" + i);
+    }
+
+    private static Metric metric() {
+        return new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return 0;
+            }
+        };
+    }
+
+    private static Map<MetricName, Metric> snapshot(MetricsRegistryTracker tracker) {
+        int count = tracker.snapshot();
+        Map<MetricName, Metric> metrics = new HashMap<MetricName, Metric>();
+        for (int i = 0; i < count; i++) {
+            metrics.put(tracker.name(i), tracker.metric(i));
+        }
+        assertEquals(count, metrics.size());
+        return metrics;
+    }
+
+    @Test
+    public void tracksTheMetricsOfARegistry() {
+        MetricsRegistry registry = new MetricsRegistry();
+        MetricsRegistryTracker tracker = new MetricsRegistryTracker();
+        Counter first = registry.newCounter(name(0));
+        registry.addListener(tracker);
+        Counter second = registry.newCounter(name(1));
+
+        Map<MetricName, Metric> metrics = snapshot(tracker);
+        assertEquals(2, metrics.size());
+        assertSame(first, metrics.get(name(0)));
+        assertSame(second, metrics.get(name(1)));
+        registry.shutdown();
+    }
+
+    @Test
+    public void keepsIndexesRightWhenRemovingFromTheMiddle() {
+        MetricsRegistryTracker tracker = new MetricsRegistryTracker();
+        Map<MetricName, Metric> expected = new HashMap<MetricName, Metric>();
+        for (int i = 0; i < 2000; i++) {
+            Metric metric = metric();
+            tracker.onMetricAdded(name(i), metric);
+            expected.put(name(i), metric);
+        }
+        for (int i = 0; i < 2000; i += 3) {
+            tracker.onMetricRemoved(name(i));
+            expected.remove(name(i));
+        }
+        tracker.onMetricRemoved(name(0));
+        assertEquals(expected, snapshot(tracker));
+
+        // the removed metrics are moved over by the last ones, which must still be removable
+        for (int i = 1999; i > 1000; i--) {
+            tracker.onMetricRemoved(name(i));
+            expected.remove(name(i));
+        }
+        assertEquals(expected, snapshot(tracker));
+        assertEquals(expected.size(), tracker.size());
+    }
+
+    @Test
+    public void seesAMetricReAddedBetweenSnapshots() {
+        MetricsRegistryTracker tracker = new MetricsRegistryTracker();
+        Metric before = metric();
+        Metric after = metric();
+        tracker.onMetricAdded(name(0), before);
+        tracker.onMetricAdded(name(1), before);
+        assertEquals(2, tracker.snapshot());
+
+        tracker.onMetricRemoved(name(0));
+        tracker.onMetricAdded(name(0), after);
+        Map<MetricName, Metric> metrics = snapshot(tracker);
+        assertEquals(2, metrics.size());
+        assertSame(after, metrics.get(name(0)));
+
+        tracker.onMetricRemoved(name(0));
+        tracker.onMetricRemoved(name(1));
+        assertEquals(0, tracker.snapshot());
+        // a smaller snapshot does not keep the removed metrics reachable
+        assertNull(tracker.name(0));
+        assertNull(tracker.metric(1));
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.MetricName;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PollingTiersTest {
+
+    private static final MetricName REQUEST_TIME = new MetricName("kafka.network", "RequestMetrics", "TotalTimeMs", "request.Produce");
+    private static final MetricName LOG_SIZE = new MetricName("kafka.log", "Log", "Size", "topic.a.partition.0");
+    private static final MetricName MESSAGES_IN = new MetricName("kafka.server", "BrokerTopicMetrics", "MessagesInPerSec");
+
+    @Test
+    public void pollsEachTierAtItsInterval() {
+        Properties properties = new Properties();
+        properties.setProperty("kafka.influxdb.metrics.tier.5", "kafka.network:RequestMetrics");
+        properties.setProperty("kafka.influxdb.metrics.tier.60", "kafka.log");
+        PollingTiers tiers = PollingTiers.fromProperties(properties, "kafka.influxdb.metrics.tier.");
+
+        assertEquals(5000, tiers.start(10000));
+
+        int requestPolls = 0;
+        int logPolls = 0;
+        int defaultPolls = 0;
+        for (int tick = 0; tick < 24; tick++) {
+            tiers.beginPoll();
+            requestPolls += tiers.isDue(REQUEST_TIME) ? 1 : 0;
+            logPolls += tiers.isDue(LOG_SIZE) ? 1 : 0;
+            defaultPolls += tiers.isDue(MESSAGES_IN) ? 1 : 0;
+            assertEquals(tiers.isDue(MESSAGES_IN), tiers.isDefaultDue());
+        }
+        assertEquals(24, requestPolls);
+        assertEquals(2, logPolls);
+        assertEquals(12, defaultPolls);
+    }
+
+    @Test
+    public void noTiersWithoutProperties() {
+        assertNull(PollingTiers.fromProperties(new Properties(), "kafka.influxdb.metrics.tier."));
+    }
+
+    @Test
+    public void everyTierIsDueUntilStarted() {
+        Properties properties = new Properties();
+        properties.setProperty("kafka.influxdb.metrics.tier.60", "kafka.log");
+        PollingTiers tiers = PollingTiers.fromProperties(properties, "kafka.influxdb.metrics.tier.");
+        tiers.beginPoll();
+        tiers.beginPoll();
+        assertTrue(tiers.isDue(LOG_SIZE));
+        tiers.start(10000);
+        tiers.beginPoll();
+        tiers.beginPoll();
+        assertFalse(tiers.isDue(LOG_SIZE));
+    }
+
+    @Test
+    public void rejectsATierThatIsNotANumberOfSeconds() {
+        Properties properties = new Properties();
+        properties.setProperty("kafka.influxdb.metrics.tier.1m", "kafka.log");
+        try {
+            PollingTiers.fromProperties(properties, "kafka.influxdb.metrics.tier.");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("kafka.influxdb.metrics.tier.1m"));
+        }
+    }
+}
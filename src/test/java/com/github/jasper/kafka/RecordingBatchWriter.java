@@ -0,0 +1,87 @@
+package com.github.jasper.kafka;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the batches written to it as strings, and fails the next writes when told to.
+ */
+final class RecordingBatchWriter implements BatchWriter {
+
+    private final List<String> batches = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Integer> points = Collections.synchronizedList(new ArrayList<Integer>());
+    private volatile int failures;
+    private volatile Exception failure = new IOException("injected failure");
+    private volatile int attempts;
+    private volatile boolean closed;
+
+    /**
+     * Fails the next {@code writes} writes with the given exception.
+     */
+    RecordingBatchWriter fail(int writes, Exception failure) {
+        this.failures = writes;
+        this.failure = failure;
+        return this;
+    }
+
+    RecordingBatchWriter fail(int writes) {
+        return fail(writes, new IOException("injected failure"));
+    }
+
+    @Override
+    public synchronized void write(byte[] buffer, int offset, int length, int points) throws Exception {
+        attempts++;
+        if (failures > 0) {
+            failures--;
+            throw failure;
+        }
+        batches.add(new String(buffer, offset, length, StandardCharsets.UTF_8));
+        this.points.add(points);
+    }
+
+    List<String> batches() {
+        synchronized (batches) {
+            return new ArrayList<String>(batches);
+        }
+    }
+
+    /**
+     * The points of each batch written, as given by the caller.
+     */
+    List<Integer> points() {
+        synchronized (points) {
+            return new ArrayList<Integer>(points);
+        }
+    }
+
+    /**
+     * All lines written, in order.
+     */
+    List<String> lines() {
+        List<String> lines = new ArrayList<String>();
+        for (String batch : batches()) {
+            for (String line : batch.split("\n")) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    int attempts() {
+        return attempts;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,31 @@
+package com.github.jasper.kafka;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReporterStatsTest {
+
+    // a closed sender drops every batch written to it
+    private static AsyncBatchWriter closedSender() {
+        AsyncBatchWriter sender = new AsyncBatchWriter(new RecordingBatchWriter(), 1, 1, AsyncBatchWriter.OverflowPolicy.drop);
+        sender.close();
+        return sender;
+    }
+
+    @Test
+    public void keepsThePointsDroppedByReplacedSenders() {
+        ReporterStats stats = new ReporterStats();
+        AsyncBatchWriter first = closedSender();
+        stats.monitor(first);
+        first.write(new byte[0], 0, 0, 5);
+        stats.pointsDropped(2);
+        assertEquals(7, stats.getDroppedPoints());
+
+        AsyncBatchWriter second = closedSender();
+        stats.monitor(second);
+        assertEquals(7, stats.getDroppedPoints());
+        second.write(new byte[0], 0, 0, 3);
+        assertEquals(10, stats.getDroppedPoints());
+    }
+}
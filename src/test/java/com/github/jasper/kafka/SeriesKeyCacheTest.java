@@ -0,0 +1,98 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class SeriesKeyCacheTest {
+
+    private static final MetricName BYTES_IN = new MetricName("kafka.server", "BrokerTopicMetrics", "BytesInPerSec", "topic.a");
+
+    private MetricsRegistry registry;
+    private SeriesKeyCache cache;
+
+    @Before
+    public void setUp() {
+        registry = new MetricsRegistry();
+        cache = new SeriesKeyCache(Collections.singletonMap("hostname", "b1"));
+        registry.addListener(cache);
+    }
+
+    @After
+    public void tearDown() {
+        registry.shutdown();
+    }
+
+    private static Gauge<Integer> gauge(final int value) {
+        return new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return value;
+            }
+        };
+    }
+
+    @Test
+    public void buildsTheKeyOfAMetricOnce() {
+        registry.newCounter(BYTES_IN);
+        SeriesKey key = cache.get(BYTES_IN, "counter", null);
+        assertSame(key, cache.get(BYTES_IN, "counter", null));
+        assertEquals(1, cache.size());
+        assertEquals("BytesInPerSec", key.getMeasurement());
+        assertEquals("counter", key.getTags().get("metric_type"));
+        assertEquals("a", key.getTags().get("topic"));
+    }
+
+    @Test
+    public void buildsTheKeyAgainOnceTheMetricWasRemovedAndAddedAgain() {
+        registry.newCounter(BYTES_IN);
+        SeriesKey counter = cache.get(BYTES_IN, "counter", null);
+
+        registry.removeMetric(BYTES_IN);
+        assertEquals(0, cache.size());
+
+        // registered again with another type, the old key must not be reused
+        registry.newGauge(BYTES_IN, gauge(1));
+        SeriesKey gauge = cache.get(BYTES_IN, "gague", null);
+        assertNotSame(counter, gauge);
+        assertNotEquals(counter.getId(), gauge.getId());
+        assertEquals("gague", gauge.getTags().get("metric_type"));
+        assertSame(gauge, cache.get(BYTES_IN, "gague", null));
+    }
+
+    @Test
+    public void clearDropsTheKeysOfMetricsAndMeasurements() {
+        registry.newCounter(BYTES_IN);
+        SeriesKey metric = cache.get(BYTES_IN, "counter", null);
+        SeriesKey measurement = cache.get("jvm_memory", "area", "heap");
+        assertSame(measurement, cache.get("jvm_memory", "area", "heap"));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNotSame(metric, cache.get(BYTES_IN, "counter", null));
+        assertNotSame(measurement, cache.get("jvm_memory", "area", "heap"));
+    }
+
+    @Test
+    public void reporterDropsItsKeysOnShutdown() {
+        registry.newGauge(BYTES_IN, gauge(1));
+        InfluxDBReporter reporter = new InfluxDBReporter(registry, new RecordingBatchWriter(), "hostname:b1", Clock.defaultClock(), null);
+        SeriesKey key = reporter.seriesKey(BYTES_IN, "gague", null);
+        assertSame(key, reporter.seriesKey(BYTES_IN, "gague", null));
+
+        reporter.shutdown();
+        assertNotSame(key, reporter.seriesKey(BYTES_IN, "gague", null));
+    }
+}
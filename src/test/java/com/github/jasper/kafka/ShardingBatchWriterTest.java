@@ -0,0 +1,79 @@
+package com.github.jasper.kafka;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardingBatchWriterTest {
+
+    private static class CapturingWriter implements BatchWriter {
+        final List<String> lines = new ArrayList<String>();
+
+        @Override
+        public void write(byte[] buffer, int offset, int length, int points) {
+            String batch = new String(buffer, offset, length, StandardCharsets.UTF_8);
+            for (String line : batch.split("\n")) {
+                lines.add(line);
+            }
+            assertEquals(points, batch.split("\n").length);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void write(BatchWriter writer, long time) throws Exception {
+        StringBuilder batch = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            batch.append("m,topic=t").append(i).append(",note=a\\ b value=").append(i).append(' ').append(time).append('\n');
+        }
+        byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+        writer.write(bytes, 0, bytes.length, 300);
+    }
+
+    @Test
+    public void writesEverySeriesToOneEndpoint() throws Exception {
+        CapturingWriter[] shards = {new CapturingWriter(), new CapturingWriter(), new CapturingWriter()};
+        ShardingBatchWriter writer = new ShardingBatchWriter(new String[]{"http://a:8086", "http://b:8086", "http://c:8086"}, shards);
+        write(writer, 1);
+        write(writer, 2);
+        int total = 0;
+        for (CapturingWriter shard : shards) {
+            assertTrue(shard.lines.size() > 0);
+            total += shard.lines.size();
+            Set<String> first = new HashSet<String>();
+            Set<String> second = new HashSet<String>();
+            for (String line : shard.lines) {
+                (line.endsWith(" 1") ? first : second).add(line.substring(0, line.indexOf(" value")));
+            }
+            assertEquals(first, second);
+        }
+        assertEquals(600, total);
+    }
+
+    @Test
+    public void movesFewSeriesWhenAnEndpointIsAdded() {
+        String[] three = {"http://a:8086", "http://b:8086", "http://c:8086"};
+        String[] four = {"http://a:8086", "http://b:8086", "http://c:8086", "http://d:8086"};
+        ShardingBatchWriter before = new ShardingBatchWriter(three, new BatchWriter[3]);
+        ShardingBatchWriter after = new ShardingBatchWriter(four, new BatchWriter[4]);
+        int moved = 0;
+        for (int i = 0; i < 1000; i++) {
+            byte[] key = ("m,topic=t" + i).getBytes(StandardCharsets.UTF_8);
+            int shard = after.shardOf(key, 0, key.length);
+            if (shard != before.shardOf(key, 0, key.length)) {
+                assertEquals(3, shard);
+                moved++;
+            }
+        }
+        assertTrue(moved > 100 && moved < 400);
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.jasper.kafka;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SpoolingBatchWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Fails every write while down and rejects the batches starting with "bad".
+     */
+    private static final class FlakyWriter implements BatchWriter {
+        final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger attempts = new AtomicInteger();
+        volatile boolean down;
+
+        @Override
+        public void write(byte[] buffer, int offset, int length, int points) throws Exception {
+            attempts.incrementAndGet();
+            String batch = new String(buffer, offset, length, StandardCharsets.UTF_8);
+            if (down) {
+                throw new IOException("connection refused");
+            }
+            if (batch.startsWith("bad")) {
+                throw new RejectedBatchException(400, "partial write: field type conflict");
+            }
+            written.add(batch);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void write(BatchWriter writer, String batch, int points) throws Exception {
+        byte[] bytes = batch.getBytes(StandardCharsets.UTF_8);
+        writer.write(bytes, 0, bytes.length, points);
+    }
+
+    private SpoolingBatchWriter spooling(FlakyWriter delegate, ReporterStats stats, long replayBytesPerSecond) throws IOException {
+        SpoolingBatchWriter writer = new SpoolingBatchWriter(delegate, new DiskSpool(folder.newFolder("spool"), 64 * 1024, 1024 * 1024),
+                replayBytesPerSecond, stats, 50);
+        writers.add(writer);
+        return writer;
+    }
+
+    private final List<SpoolingBatchWriter> writers = new ArrayList<SpoolingBatchWriter>();
+
+    @After
+    public void tearDown() {
+        for (SpoolingBatchWriter writer : writers) {
+            writer.close();
+        }
+    }
+
+    private static void awaitReplay(SpoolingBatchWriter writer) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (writer.spooledBatches() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, writer.spooledBatches());
+    }
+
+    @Test
+    public void spoolsWithoutWaitingOnAFailingDelegateAndReplaysInOrder() throws Exception {
+        FlakyWriter delegate = new FlakyWriter();
+        SpoolingBatchWriter writer = spooling(delegate, new ReporterStats(), 1L << 30);
+        delegate.down = true;
+        write(writer, "a", 1);
+        write(writer, "b", 1);
+        // only the first write found the delegate down
+        assertEquals(1, delegate.attempts.get());
+        assertEquals(2, writer.spooledBatches());
+
+        delegate.down = false;
+        write(writer, "c", 1);
+        awaitReplay(writer);
+        assertEquals(Arrays.asList("a", "b", "c"), delegate.written);
+        write(writer, "d", 1);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), delegate.written);
+    }
+
+    @Test
+    public void doesNotSpoolARejectedBatch() throws Exception {
+        FlakyWriter delegate = new FlakyWriter();
+        SpoolingBatchWriter writer = spooling(delegate, new ReporterStats(), 1L << 30);
+        try {
+            write(writer, "bad", 3);
+            fail();
+        } catch (RejectedBatchException e) {
+            assertEquals(400, e.getStatus());
+        }
+        assertEquals(0, writer.spooledBatches());
+    }
+
+    @Test
+    public void dropsASpooledBatchRejectedOnReplay() throws Exception {
+        FlakyWriter delegate = new FlakyWriter();
+        ReporterStats stats = new ReporterStats();
+        SpoolingBatchWriter writer = spooling(delegate, stats, 1L << 30);
+        delegate.down = true;
+        write(writer, "bad", 3);
+        write(writer, "a", 1);
+
+        delegate.down = false;
+        awaitReplay(writer);
+        assertEquals(Arrays.asList("a"), delegate.written);
+        assertEquals(3, stats.getDroppedPoints());
+    }
+
+    @Test
+    public void replaysAtTheConfiguredRateWithoutLiveWrites() throws Exception {
+        FlakyWriter delegate = new FlakyWriter();
+        SpoolingBatchWriter writer = spooling(delegate, new ReporterStats(), 10000);
+        char[] line = new char[99];
+        Arrays.fill(line, 'x');
+        String batch = new String(line) + "\n";
+        delegate.down = true;
+        for (int i = 0; i < 51; i++) {
+            write(writer, batch, 1);
+        }
+        delegate.down = false;
+        long start = System.nanoTime();
+        awaitReplay(writer);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // one probe, then 5000 bytes at 10000 bytes per second
+        assertEquals(51, delegate.written.size());
+        assertTrue("replayed in " + elapsedMs + " ms", elapsedMs >= 400 && elapsedMs < 3000);
+    }
+}
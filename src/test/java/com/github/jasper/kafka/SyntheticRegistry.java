@@ -0,0 +1,67 @@
+package com.github.jasper.kafka;
+
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.Timer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kafka-like metrics for benchmarks and load tests.
+ */
+final class SyntheticRegistry {
+
+    private SyntheticRegistry() {
+    }
+
+    /**
+     * Fills the registry the way a broker does: per-partition log gauges, per-topic meters and
+     * counters, per-request histograms and timers.
+     */
+    static void fill(MetricsRegistry registry, int metrics, String mix) {
+        String[] shares = mix.split(",");
+        int[] counts = new int[5];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = metrics * Integer.parseInt(shares[i].trim()) / 100;
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < counts[0]; i++) {
+            final long value = random.nextLong();
+            registry.newGauge(new MetricName("kafka.log", "Log", "LogEndOffset", partitionScope(i)), new Gauge<Long>() {
+                @Override
+                public Long value() {
+                    return value;
+                }
+            });
+        }
+        for (int i = 0; i < counts[1]; i++) {
+            Counter counter = registry.newCounter(new MetricName("kafka.server", "FetcherStats", "Requests", "topic.topic-" + i));
+            counter.inc(random.nextInt(1000000));
+        }
+        for (int i = 0; i < counts[2]; i++) {
+            Meter meter = registry.newMeter(new MetricName("kafka.server", "BrokerTopicMetrics", "BytesInPerSec", "topic.topic-" + i), "bytes", TimeUnit.SECONDS);
+            meter.mark(random.nextInt(1000000));
+        }
+        for (int i = 0; i < counts[3]; i++) {
+            Histogram histogram = registry.newHistogram(new MetricName("kafka.network", "RequestMetrics", "RequestSize", "request.Request" + i), true);
+            for (int j = 0; j < 100; j++) {
+                histogram.update(random.nextInt(100000));
+            }
+        }
+        for (int i = 0; i < counts[4]; i++) {
+            Timer timer = registry.newTimer(new MetricName("kafka.network", "RequestMetrics", "TotalTimeMs", "request.Request" + i), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+            for (int j = 0; j < 100; j++) {
+                timer.update(random.nextInt(1000), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private static String partitionScope(int i) {
+        return "topic.topic-" + (i / 32) + ".partition." + (i % 32);
+    }
+}
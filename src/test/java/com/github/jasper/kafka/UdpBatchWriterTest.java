@@ -0,0 +1,73 @@
+package com.github.jasper.kafka;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UdpBatchWriterTest {
+
+    private DatagramSocket listener;
+
+    @Before
+    public void listen() throws Exception {
+        listener = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        listener.setSoTimeout(5000);
+    }
+
+    @After
+    public void close() {
+        listener.close();
+    }
+
+    private List<String> receive(int datagrams) throws Exception {
+        List<String> received = new ArrayList<String>();
+        byte[] buffer = new byte[UdpBatchWriter.MAX_PAYLOAD_BYTES];
+        for (int i = 0; i < datagrams; i++) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            listener.receive(packet);
+            received.add(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8));
+        }
+        return received;
+    }
+
+    @Test
+    public void splitsBatchesIntoDatagramsOnLineBoundaries() throws Exception {
+        ReporterStats stats = new ReporterStats();
+        UdpBatchWriter writer = new UdpBatchWriter(listener.getLocalAddress().getHostAddress(), listener.getLocalPort(), 45, stats);
+        String batch = "cpu,host=a value=1 1\ncpu,host=b value=2 1\ncpu,host=c value=3 1\n";
+        byte[] bytes = ("xx" + batch).getBytes(StandardCharsets.UTF_8);
+        writer.write(bytes, 2, bytes.length - 2, 3);
+        writer.close();
+
+        List<String> datagrams = receive(2);
+        assertEquals(batch, datagrams.get(0) + datagrams.get(1));
+        for (String datagram : datagrams) {
+            assertTrue(datagram.length() <= 45 && datagram.endsWith("\n"));
+        }
+        assertEquals(0, stats.getDroppedPoints());
+    }
+
+    @Test
+    public void sendsALongPointOnItsOwn() throws Exception {
+        UdpBatchWriter writer = new UdpBatchWriter(listener.getLocalAddress().getHostAddress(), listener.getLocalPort(), 16, new ReporterStats());
+        String batch = "a v=1 1\nlong_measurement value=2 1\nb v=3 1\n";
+        byte[] bytes = batch.getBytes(StandardCharsets.UTF_8);
+        writer.write(bytes, 0, bytes.length, 3);
+        writer.close();
+
+        List<String> datagrams = receive(3);
+        assertEquals("a v=1 1\n", datagrams.get(0));
+        assertEquals("long_measurement value=2 1\n", datagrams.get(1));
+        assertEquals("b v=3 1\n", datagrams.get(2));
+    }
+}